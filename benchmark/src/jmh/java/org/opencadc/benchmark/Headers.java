@@ -0,0 +1,175 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.benchmark;
+
+import ca.nrc.cadc.wcs.WCSKeywords;
+import ca.nrc.cadc.wcs.WCSKeywordsImpl;
+
+/**
+ * WCS headers of the benchmarks: celestial images with the TAN, SIN, AIT and
+ * HPX projections, FREQ and WAVE spectra, and a TIME axis.
+ */
+final class Headers {
+    static final String[] TYPES = new String[] {"TAN", "SIN", "AIT", "HPX", "FREQ", "WAVE", "TIME"};
+
+    private Headers() {
+    }
+
+    /**
+     * @param type the header type, see TYPES.
+     * @return the WCS keywords of the header.
+     */
+    static WCSKeywords create(String type) {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        if ("HPX".equals(type)) {
+            // values from a JCMT scuba2 healpix product
+            wcs.put("NAXIS", 2);
+            wcs.put("NAXIS1", 1161);
+            wcs.put("NAXIS2", 1933);
+            wcs.put("CTYPE1", "RA---HPX");
+            wcs.put("CTYPE2", "DEC--HPX");
+            wcs.put("CUNIT1", "deg");
+            wcs.put("CUNIT2", "deg");
+            wcs.put("CRPIX1", 139264.5);
+            wcs.put("CRVAL1", 0.0);
+            wcs.put("CRPIX2", 47003.5);
+            wcs.put("CRVAL2", 0.0);
+            wcs.put("CD1_1", -3.43322768917E-4);
+            wcs.put("CD1_2", -3.43322768916E-4);
+            wcs.put("CD2_1", -3.43322768917E-4);
+            wcs.put("CD2_2", 3.43322768917E-4);
+        } else if ("TAN".equals(type) || "SIN".equals(type) || "AIT".equals(type)) {
+            wcs.put("NAXIS", 2);
+            wcs.put("NAXIS1", 1000);
+            wcs.put("NAXIS2", 1000);
+            wcs.put("CTYPE1", "RA---" + type);
+            wcs.put("CTYPE2", "DEC--" + type);
+            wcs.put("CUNIT1", "deg");
+            wcs.put("CUNIT2", "deg");
+            wcs.put("CRPIX1", 500.5);
+            wcs.put("CRVAL1", 150.0);
+            wcs.put("CDELT1", -1.0E-3);
+            wcs.put("CRPIX2", 500.5);
+            wcs.put("CRVAL2", 2.0);
+            wcs.put("CDELT2", 1.0E-3);
+        } else if ("FREQ".equals(type)) {
+            wcs.put("NAXIS", 1);
+            wcs.put("NAXIS1", 63);
+            wcs.put("CTYPE1", "FREQ");
+            wcs.put("CUNIT1", "Hz");
+            wcs.put("CRPIX1", 32.0);
+            wcs.put("CRVAL1", 1.378351174e9);
+            wcs.put("CDELT1", 97656.25);
+            wcs.put("RESTFRQ", 1.420405752e9);
+            wcs.put("SPECSYS", "TOPOCENT");
+        } else if ("WAVE".equals(type)) {
+            wcs.put("NAXIS", 1);
+            wcs.put("NAXIS1", 1000);
+            wcs.put("CTYPE1", "WAVE");
+            wcs.put("CUNIT1", "m");
+            wcs.put("CRPIX1", 500.5);
+            wcs.put("CRVAL1", 2.1E-1);
+            wcs.put("CDELT1", 1.0E-5);
+            wcs.put("RESTWAV", 2.11061140542E-1);
+        } else if ("TIME".equals(type)) {
+            wcs.put("NAXIS", 1);
+            wcs.put("NAXIS1", 1000);
+            wcs.put("CTYPE1", "TIME");
+            wcs.put("CUNIT1", "d");
+            wcs.put("CRPIX1", 0.5);
+            wcs.put("CRVAL1", 60000.0);
+            wcs.put("CDELT1", 0.01);
+        } else {
+            throw new IllegalArgumentException("Unknown header type: " + type);
+        }
+        return wcs;
+    }
+
+    /**
+     * Returns ncoord pixel coordinates spread over the image of the keywords.
+     *
+     * @param wcs the WCS keywords.
+     * @param ncoord number of coordinates.
+     * @return the pixel coordinates, ncoord x NAXIS.
+     */
+    static double[] pixels(WCSKeywords wcs, int ncoord) {
+        int naxis = wcs.getIntValue("NAXIS");
+        double[] pixcrd = new double[ncoord * naxis];
+        for (int n = 0; n < ncoord; n++) {
+            for (int i = 0; i < naxis; i++) {
+                double length = wcs.getIntValue("NAXIS" + (i + 1));
+                // a different fraction of the axis for each coordinate and axis
+                double fraction = ((n + 1) * (0.6180339887498949 + i * 0.1) + 0.25) % 1.0;
+                pixcrd[n * naxis + i] = 0.5 + fraction * length;
+            }
+        }
+        return pixcrd;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.benchmark;
+
+import java.awt.geom.Point2D;
+import java.util.concurrent.TimeUnit;
+import jsky.coords.WCSTransform;
+import jsky.coords.wcscon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * jsky WCSTransform pix2wcs and wcs2pix for each projection, and the wcscon
+ * FK4, FK5 and galactic frame conversions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JSkyBenchmark {
+    @Param({"-TAN", "-SIN", "-ARC", "-AIT", "-STG"})
+    public String projection;
+
+    private WCSTransform transform;
+    private Point2D.Double world;
+    private Point2D.Double fk4;
+    private Point2D.Double galactic;
+
+    @Setup
+    public void setup() {
+        transform = new WCSTransform(150.0, 2.0, 3.6, 3.6, 500.5, 500.5, 1000, 1000, 0.0, 2000, 0.0, projection);
+        world = transform.pix2wcs(300.0, 700.0);
+        fk4 = wcscon.fk524(new Point2D.Double(world.x, world.y));
+        galactic = wcscon.fk52gal(new Point2D.Double(world.x, world.y));
+    }
+
+    @Benchmark
+    public Point2D.Double pix2wcs() {
+        return transform.pix2wcs(300.0, 700.0);
+    }
+
+    @Benchmark
+    public Point2D.Double wcs2pix() {
+        return transform.wcs2pix(world.x, world.y);
+    }
+
+    @Benchmark
+    public Point2D.Double fk425() {
+        return wcscon.fk425(new Point2D.Double(fk4.x, fk4.y));
+    }
+
+    @Benchmark
+    public Point2D.Double fk524() {
+        return wcscon.fk524(new Point2D.Double(world.x, world.y));
+    }
+
+    @Benchmark
+    public Point2D.Double fk52gal() {
+        return wcscon.fk52gal(new Point2D.Double(world.x, world.y));
+    }
+
+    @Benchmark
+    public Point2D.Double gal2fk5() {
+        return wcscon.gal2fk5(new Point2D.Double(galactic.x, galactic.y));
+    }
+
+    @Benchmark
+    public Point2D.Double fk5prec() {
+        return wcscon.fk5prec(2000.0, 2025.0, new Point2D.Double(world.x, world.y));
+    }
+}
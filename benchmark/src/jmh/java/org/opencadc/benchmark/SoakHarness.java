@@ -0,0 +1,484 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package org.opencadc.benchmark;
+
+import ca.nrc.cadc.wcs.CompactWCSKeywords;
+import ca.nrc.cadc.wcs.FitsHeaderReader;
+import ca.nrc.cadc.wcs.Transform;
+import ca.nrc.cadc.wcs.WCSKeywords;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+import org.opencadc.erfa.ERFALib;
+
+/**
+ * Soak and thread scaling harness of the JNI layers. Transform and ERFALib are driven
+ * from an increasing number of threads over a mixed corpus of headers, each step for
+ * a set duration. For each step the harness reports the throughput, the latency
+ * percentiles of each operation, and the resident memory after a full GC. Native
+ * memory that is not released by the wcsfree() paths shows up as resident memory
+ * growing from step to step, and lock contention as throughput not scaling with the
+ * threads.
+ *
+ * <p>Arguments are key=value pairs:
+ * <ul>
+ * <li>threads=1,2,4 - thread counts of the steps, default powers of 2 up to twice the processors</li>
+ * <li>seconds=30 - duration of each step</li>
+ * <li>warmup=10 - duration of the single thread warm up</li>
+ * <li>mix=construct:2,transform:6,translate:1,erfa:1 - relative weights of the operations</li>
+ * <li>corpus=dir - directory of FITS files whose primary headers are added to the built in headers</li>
+ * <li>csv=file - also write the results of each step and operation to a CSV file</li>
+ * </ul>
+ *
+ * <p>With -XX:NativeMemoryTracking=summary the growth of the memory the JVM itself
+ * commits is subtracted from the resident memory growth, leaving the growth of the
+ * memory allocated by the JNI code.
+ */
+public final class SoakHarness {
+    private static final double MJD_ZERO = 2400000.5;
+    private static final int VARIANTS = 32;
+    private static final List<String> CELESTIAL = Arrays.asList("TAN", "SIN", "AIT");
+
+    enum Operation {
+        CONSTRUCT, TRANSFORM, TRANSLATE, ERFA
+    }
+
+    private final List<WCSKeywords> corpus = new ArrayList<WCSKeywords>();
+    private final List<Transform> transforms = new ArrayList<Transform>();
+    private final List<Transform> spectra = new ArrayList<Transform>();
+    private final Operation[] schedule;
+    private final AtomicLong errors = new AtomicLong();
+
+    private SoakHarness(Map<Operation, Integer> mix) {
+        List<Operation> ops = new ArrayList<Operation>();
+        for (Map.Entry<Operation, Integer> me : mix.entrySet()) {
+            for (int i = 0; i < me.getValue(); i++) {
+                ops.add(me.getKey());
+            }
+        }
+        if (ops.isEmpty()) {
+            throw new IllegalArgumentException("No operations in the mix");
+        }
+        schedule = ops.toArray(new Operation[ops.size()]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        int[] threads = parseThreads(options.get("threads"));
+        long seconds = Long.parseLong(value(options, "seconds", "30"));
+        long warmup = Long.parseLong(value(options, "warmup", "10"));
+        SoakHarness harness = new SoakHarness(parseMix(value(options, "mix",
+                                                             "construct:2,transform:6,translate:1,erfa:1")));
+        harness.loadCorpus(options.get("corpus"));
+
+        PrintWriter csv = null;
+        if (options.containsKey("csv")) {
+            csv = new PrintWriter(Files.newBufferedWriter(new File(options.get("csv")).toPath(),
+                                                          StandardCharsets.UTF_8));
+            csv.println("threads,operation,count,opsPerSecond,p50Nanos,p90Nanos,p99Nanos,p999Nanos,maxNanos,"
+                        + "rssKB,jvmCommittedKB,heapUsedKB");
+        }
+
+        try {
+            System.out.println("corpus: " + harness.corpus.size() + " headers, " + harness.transforms.size()
+                               + " prepared transforms, " + harness.spectra.size() + " spectra");
+            harness.run(1, warmup);
+            Memory baseline = Memory.measure();
+            System.out.println("baseline: " + baseline);
+
+            double single = 0.0;
+            for (int n : threads) {
+                harness.errors.set(0L);
+                Map<Operation, LatencyHistogram> latencies = harness.run(n, seconds);
+                Memory memory = Memory.measure();
+
+                long count = 0;
+                for (LatencyHistogram histogram : latencies.values()) {
+                    count += histogram.getCount();
+                }
+                double throughput = count / (double) seconds;
+                if (single == 0.0) {
+                    single = throughput / n;
+                }
+                System.out.println();
+                System.out.println(String.format("threads=%d ops/s=%.0f scaling=%.2f errors=%d", n, throughput,
+                                                 throughput / (single * n), harness.errors.get()));
+                for (Map.Entry<Operation, LatencyHistogram> me : latencies.entrySet()) {
+                    LatencyHistogram h = me.getValue();
+                    System.out.println(String.format("  %-10s count=%-10d p50=%-8s p90=%-8s p99=%-8s "
+                                                     + "p99.9=%-8s max=%s",
+                                                     me.getKey().name().toLowerCase(), h.getCount(),
+                                                     micros(h.getPercentile(50.0)), micros(h.getPercentile(90.0)),
+                                                     micros(h.getPercentile(99.0)), micros(h.getPercentile(99.9)),
+                                                     micros(h.getMax())));
+                    if (csv != null) {
+                        csv.println(n + "," + me.getKey().name().toLowerCase() + "," + h.getCount() + ","
+                                    + String.format("%.1f", h.getCount() / (double) seconds) + ","
+                                    + h.getPercentile(50.0) + "," + h.getPercentile(90.0) + ","
+                                    + h.getPercentile(99.0) + "," + h.getPercentile(99.9) + "," + h.getMax() + ","
+                                    + memory.rss + "," + memory.jvmCommitted + "," + memory.heapUsed);
+                    }
+                }
+                System.out.println("  memory: " + memory + ", growth " + memory.growth(baseline));
+            }
+        } finally {
+            if (csv != null) {
+                csv.close();
+            }
+        }
+    }
+
+    // Builds the corpus: variants of the built in headers, and the headers of the corpus directory.
+    private void loadCorpus(String dir) throws Exception {
+        Random random = new Random(42L);
+        for (String type : Headers.TYPES) {
+            for (int v = 0; v < VARIANTS; v++) {
+                WCSKeywords wcs = Headers.create(type);
+                double crval = wcs.getDoubleValue("CRVAL1");
+                if (CELESTIAL.contains(type)) {
+                    wcs.put("CRVAL1", random.nextDouble() * 360.0);
+                    wcs.put("CRVAL2", random.nextDouble() * 170.0 - 85.0);
+                } else if (!"HPX".equals(type)) {
+                    wcs.put("CRVAL1", crval * (1.0 + random.nextDouble() * 0.1));
+                }
+                corpus.add(wcs);
+            }
+        }
+
+        if (dir != null) {
+            File[] files = new File(dir).listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    CompactWCSKeywords wcs = FitsHeaderReader.read(channel);
+                    new Transform(wcs);
+                    corpus.add(wcs);
+                } catch (Exception ex) {
+                    System.out.println("skipped " + file + ": " + ex);
+                }
+            }
+        }
+
+        for (WCSKeywords wcs : corpus) {
+            Transform transform = new Transform(wcs);
+            transforms.add(transform);
+            if (transform.getUnits().size() == 1 && "FREQ".equals(wcs.getStringValue("CTYPE1"))) {
+                spectra.add(transform);
+            }
+        }
+    }
+
+    // Runs the operations from n threads for a number of seconds.
+    private Map<Operation, LatencyHistogram> run(int n, long seconds) throws Exception {
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(n);
+        List<Future<Map<Operation, LatencyHistogram>>> futures =
+            new ArrayList<Future<Map<Operation, LatencyHistogram>>>();
+        for (int t = 0; t < n; t++) {
+            final Random random = new Random(t);
+            futures.add(executor.submit(new Callable<Map<Operation, LatencyHistogram>>() {
+                @Override
+                public Map<Operation, LatencyHistogram> call() throws Exception {
+                    start.await();
+                    return work(random, deadline);
+                }
+            }));
+        }
+        start.countDown();
+
+        Map<Operation, LatencyHistogram> merged = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        try {
+            for (Future<Map<Operation, LatencyHistogram>> future : futures) {
+                for (Map.Entry<Operation, LatencyHistogram> me : future.get().entrySet()) {
+                    LatencyHistogram histogram = merged.get(me.getKey());
+                    if (histogram == null) {
+                        histogram = new LatencyHistogram();
+                        merged.put(me.getKey(), histogram);
+                    }
+                    histogram.add(me.getValue());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return merged;
+    }
+
+    // Runs operations from the schedule until the deadline.
+    private Map<Operation, LatencyHistogram> work(Random random, long deadline) throws Exception {
+        Map<Operation, LatencyHistogram> latencies =
+            new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        for (Operation op : schedule) {
+            latencies.put(op, new LatencyHistogram());
+        }
+
+        long now = System.nanoTime();
+        while (now < deadline) {
+            Operation op = schedule[random.nextInt(schedule.length)];
+            try {
+                execute(op, random);
+            } catch (RuntimeException ex) {
+                // such as a corpus header with invalid pixels, counted rather than ending the step
+                errors.incrementAndGet();
+            }
+            long end = System.nanoTime();
+            latencies.get(op).record(end - now);
+            now = end;
+        }
+        return latencies;
+    }
+
+    private void execute(Operation op, Random random) throws Exception {
+        switch (op) {
+            case CONSTRUCT: {
+                WCSKeywords wcs = corpus.get(random.nextInt(corpus.size()));
+                Transform transform = new Transform(wcs);
+                transform.pix2sky(pixel(transform, random));
+                break;
+            }
+            case TRANSFORM: {
+                Transform transform = transforms.get(random.nextInt(transforms.size()));
+                Transform.Result result = transform.pix2sky(pixel(transform, random));
+                transform.sky2pix(result.coordinates);
+                break;
+            }
+            case TRANSLATE: {
+                if (!spectra.isEmpty()) {
+                    spectra.get(random.nextInt(spectra.size())).translate("WAVE-???");
+                }
+                break;
+            }
+            case ERFA: {
+                double mjd = 50000.0 + random.nextDouble() * 10000.0;
+                double[] tai = ERFALib.utc2tai(MJD_ZERO, mjd);
+                ERFALib.tai2utc(tai[0], tai[1]);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown operation " + op);
+        }
+    }
+
+    private static double[] pixel(Transform transform, Random random) {
+        double[] pixcrd = new double[transform.getUnits().size()];
+        for (int i = 0; i < pixcrd.length; i++) {
+            pixcrd[i] = 1.0 + random.nextDouble() * 999.0;
+        }
+        return pixcrd;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1fus", nanos / 1000.0);
+    }
+
+    private static String value(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static int[] parseThreads(String value) {
+        if (value == null) {
+            int max = 2 * Runtime.getRuntime().availableProcessors();
+            List<Integer> counts = new ArrayList<Integer>();
+            for (int n = 1; n < max; n *= 2) {
+                counts.add(n);
+            }
+            counts.add(max);
+            int[] threads = new int[counts.size()];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = counts.get(i);
+            }
+            return threads;
+        }
+        String[] parts = value.split(",");
+        int[] threads = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            threads[i] = Integer.parseInt(parts[i].trim());
+        }
+        return threads;
+    }
+
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+        for (String part : value.split(",")) {
+            String[] kv = part.split(":");
+            mix.put(Operation.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+        }
+        return mix;
+    }
+
+    /**
+     * Memory of the process after a full GC, in KB.
+     */
+    static final class Memory {
+        private static final Pattern NMT_TOTAL = Pattern.compile("Total: reserved=(\\d+)KB, committed=(\\d+)KB");
+
+        long rss;
+        long heapUsed;
+        long jvmCommitted;
+
+        static Memory measure() throws InterruptedException {
+            // let finalizers release the native structs of unreachable transforms
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                System.runFinalization();
+                Thread.sleep(100L);
+            }
+            Memory memory = new Memory();
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            memory.heapUsed = heap.getUsed() / 1024L;
+            memory.rss = readRSS();
+            memory.jvmCommitted = readNMTCommitted();
+            return memory;
+        }
+
+        // VmRSS of /proc/self/status, or -1 if not available.
+        private static long readRSS() {
+            try {
+                for (String line : Files.readAllLines(new File("/proc/self/status").toPath(),
+                                                      StandardCharsets.UTF_8)) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                    }
+                }
+            } catch (IOException | NumberFormatException ex) {
+                // not Linux
+            }
+            return -1L;
+        }
+
+        // Memory committed by the JVM itself, or -1 if native memory tracking is off.
+        private static long readNMTCommitted() {
+            try {
+                ObjectName name = new ObjectName("com.sun.management:type=DiagnosticCommand");
+                Object summary = ManagementFactory.getPlatformMBeanServer().invoke(name, "vmNativeMemory",
+                    new Object[] {new String[] {"summary"}}, new String[] {String[].class.getName()});
+                Matcher m = NMT_TOTAL.matcher(String.valueOf(summary));
+                if (m.find()) {
+                    return Long.parseLong(m.group(2));
+                }
+            } catch (Exception ex) {
+                // diagnostic command not available
+            }
+            return -1L;
+        }
+
+        /**
+         * Returns the growth since the baseline. The native growth is the resident memory
+         * growth less the growth of the memory committed by the JVM, which leaves the
+         * memory allocated by the JNI code.
+         */
+        String growth(Memory baseline) {
+            String rssGrowth = rss < 0 || baseline.rss < 0 ? "-" : String.format("%+dKB", rss - baseline.rss);
+            String nativeGrowth = "-";
+            if (rss >= 0 && baseline.rss >= 0 && jvmCommitted >= 0 && baseline.jvmCommitted >= 0) {
+                nativeGrowth = String.format("%+dKB", rss - baseline.rss - (jvmCommitted - baseline.jvmCommitted));
+            }
+            return "rss=" + rssGrowth + " native=" + nativeGrowth;
+        }
+
+        @Override
+        public String toString() {
+            return "rss=" + (rss < 0 ? "-" : rss + "KB") + " heapUsed=" + heapUsed + "KB jvmCommitted="
+                + (jvmCommitted < 0 ? "-" : jvmCommitted + "KB");
+        }
+    }
+}
@@ -177,7 +177,19 @@ public class ERFALib {
      **/
     public static double[] tai2tt(double tai1, double tai2)
         throws ERFALibException {
-        return eraTai2tt(tai1, tai2);
+        if (!Events.AVAILABLE) {
+            return eraTai2tt(tai1, tai2);
+        }
+        ERFAEvent event = new ERFAEvent();
+        event.begin();
+        try {
+            double[] result = eraTai2tt(tai1, tai2);
+            event.complete("eraTai2tt", null);
+            return result;
+        } catch (Exception ex) {
+            event.complete("eraTai2tt", ex);
+            throw ex;
+        }
     }
 
     /**
@@ -208,7 +220,19 @@ public class ERFALib {
      **/
     public static double[] tai2utc(double tai1, double tai2)
         throws ERFALibException, DubiousYearException, UnacceptableDateException {
-        return eraTai2utc(tai1, tai2);
+        if (!Events.AVAILABLE) {
+            return eraTai2utc(tai1, tai2);
+        }
+        ERFAEvent event = new ERFAEvent();
+        event.begin();
+        try {
+            double[] result = eraTai2utc(tai1, tai2);
+            event.complete("eraTai2utc", null);
+            return result;
+        } catch (Exception ex) {
+            event.complete("eraTai2utc", ex);
+            throw ex;
+        }
     }
 
     /**
@@ -226,7 +250,19 @@ public class ERFALib {
      **/
     public static double[] tt2tai(double tt1, double tt2)
         throws ERFALibException {
-        return eraTt2tai(tt1, tt2);
+        if (!Events.AVAILABLE) {
+            return eraTt2tai(tt1, tt2);
+        }
+        ERFAEvent event = new ERFAEvent();
+        event.begin();
+        try {
+            double[] result = eraTt2tai(tt1, tt2);
+            event.complete("eraTt2tai", null);
+            return result;
+        } catch (Exception ex) {
+            event.complete("eraTt2tai", ex);
+            throw ex;
+        }
     }
 
     /**
@@ -256,7 +292,19 @@ public class ERFALib {
      **/
     public static double[] utc2tai(double utc1, double utc2)
         throws ERFALibException, DubiousYearException, UnacceptableDateException {
-        return eraUtc2tai(utc1, utc2);
+        if (!Events.AVAILABLE) {
+            return eraUtc2tai(utc1, utc2);
+        }
+        ERFAEvent event = new ERFAEvent();
+        event.begin();
+        try {
+            double[] result = eraUtc2tai(utc1, utc2);
+            event.complete("eraUtc2tai", null);
+            return result;
+        } catch (Exception ex) {
+            event.complete("eraUtc2tai", ex);
+            throw ex;
+        }
     }
 
 
@@ -69,16 +69,32 @@
 
 package org.opencadc.erfa;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import org.apache.log4j.Logger;
 
 /**
+ * Loads JNI shared libraries from the classpath. A library is extracted once into a
+ * cache directory under a name with a hash of its content, and later JVMs load the
+ * cached file without extracting it again. The cache directory is private to the
+ * user, and defaults to a directory in java.io.tmpdir, see CACHE_DIR_PROPERTY.
  *
  * @author pdowler
  */
@@ -87,71 +103,243 @@ public class NativeUtil
     private static final Logger log = Logger.getLogger(NativeUtil.class);
     private static String extension = ".so";
 
+    /**
+     * System property with the directory of the extracted libraries.
+     */
+    public static final String CACHE_DIR_PROPERTY = NativeUtil.class.getName() + ".cacheDir";
+
+    // libraries loaded by this JVM: name -> path, or the failure
+    private static final Map<String, Object> loaded = new HashMap<String, Object>();
+
     // for OSX, use .dylib as the library filename extension
-    static {
+    static
+    {
         String osName = System.getProperty("os.name").toLowerCase();
         boolean isMacOs = osName.startsWith("mac os x");
-        if (isMacOs) {
+        if (isMacOs)
+        {
             extension = ".dylib";
         }
     }
 
     private NativeUtil() { }
 
-    static void loadJNI(ClassLoader cl, String name)
-        throws NativeInitializationException
+    static synchronized void loadJNI(ClassLoader cl, String name) throws NativeInitializationException
     {
-        final UUID uuid = UUID.randomUUID();
-        File tmpdir = new File(System.getProperty("java.io.tmpdir"));
-        File tmp = new File(tmpdir, name + "-" + uuid + extension);
+        Object previous = loaded.get(name);
+        if (previous instanceof NativeInitializationException)
+        {
+            throw (NativeInitializationException) previous;
+        }
+        else if (previous != null)
+        {
+            log.debug("already loaded: " + previous);
+            return;
+        }
 
+        String soname = name + extension;
+        URL url = cl.getResource(soname);
+        if (url == null)
+        {
+            throw new NativeInitializationException("not found via ClassLoader: " + soname);
+        }
+        log.debug("found: " + url);
+
+        NativeLoadEvent event = null;
+        if (Events.AVAILABLE)
+        {
+            event = new NativeLoadEvent();
+            event.begin();
+        }
+        File lib = null;
+        boolean success = false;
         try
         {
-            String soname = name + extension;
-            URL url = cl.getResource(soname);
+            byte[] content = read(url);
+            try
+            {
+                lib = extract(getCacheDir(), name, content);
+            }
+            catch (IOException ex)
+            {
+                log.warn("failed to use native library cache " + getCacheDir() + ": " + ex);
+                lib = extractTemporary(name, content);
+            }
 
-            if (url == null)
-                throw new NativeInitializationException("not found via ClassLoader: " + soname);
+            System.load(lib.getAbsolutePath());
+            log.debug("loaded: " + lib.getAbsolutePath());
+            loaded.put(name, lib.getAbsolutePath());
+            success = true;
+        }
+        catch (IOException ex)
+        {
+            log.error("failed to load shared lib", ex);
+            throw new NativeInitializationException("failed to extract shared lib: " + url, ex);
+        }
+        catch (Error e)
+        {
+            log.error("failed to load shared library: " + lib);
+            NativeInitializationException failure =
+                new NativeInitializationException("failed to load shared lib: " + name, e);
+            loaded.put(name, failure);
+            throw failure;
+        }
+        finally
+        {
+            if (event != null)
+            {
+                event.complete(name, lib, success);
+            }
+        }
+    }
+
+    /**
+     * @return the directory of the extracted libraries.
+     */
+    static File getCacheDir()
+    {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null)
+        {
+            return new File(dir);
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "opencadc-jni-" + System.getProperty("user.name"));
+    }
 
-            log.debug("found: " + url);
-            if (tmp.exists())
-                // already been here: impossible?
-                throw new NativeInitializationException("found pre-existing " + tmp.getAbsolutePath());
+    /**
+     * Returns the cached file of a library, extracting the content if the directory has
+     * no valid copy. The content is written to a temporary file and moved into place, so
+     * concurrent JVMs never load a partially written library.
+     *
+     * @param dir cache directory.
+     * @param name library name without extension.
+     * @param content library content.
+     * @return the cached library file.
+     * @throws IOException if the library could not be cached.
+     */
+    static File extract(File dir, String name, byte[] content) throws IOException
+    {
+        String hash = sha256(content);
+        Path path = createPrivateDirectory(dir.toPath());
+        File lib = path.resolve(name + "-" + hash.substring(0, 16) + extension).toFile();
+        if (isValid(lib, hash, content.length))
+        {
+            log.debug("reused: " + lib.getAbsolutePath());
+            return lib;
+        }
 
+        Path tmp = Files.createTempFile(path, name + "-", ".tmp");
+        try
+        {
+            Files.write(tmp, content);
             try
             {
-                URLConnection uc = url.openConnection();
-                uc.setUseCaches(false);
-                InputStream istream = uc.getInputStream();
-                FileOutputStream ostream = new FileOutputStream(tmp);
-                byte[] buf = new byte[65536];
-                int nb = istream.read(buf);
-                while (nb != -1)
+                Files.move(tmp, lib.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException ex)
+            {
+                Files.move(tmp, lib.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException ex)
+            {
+                // another JVM may have moved its copy into place first
+                if (!isValid(lib, hash, content.length))
                 {
-                    ostream.write(buf, 0, nb);
-                    nb = istream.read(buf);
+                    throw ex;
                 }
-                ostream.close();
-                log.debug("extracted: " + url.toExternalForm() + " -> " + tmp.getAbsolutePath());
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+        log.debug("extracted: " + name + " -> " + lib.getAbsolutePath());
+        return lib;
+    }
 
-                System.load(tmp.getAbsolutePath());
-                log.debug("loaded: " + tmp.getAbsolutePath());
+    // Extracts the library to a new temporary file of this JVM.
+    private static File extractTemporary(String name, byte[] content) throws IOException
+    {
+        File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+        File tmp = new File(tmpdir, name + "-" + UUID.randomUUID() + extension);
+        tmp.deleteOnExit();
+        Files.write(tmp.toPath(), content);
+        log.debug("extracted: " + name + " -> " + tmp.getAbsolutePath());
+        return tmp;
+    }
+
+    // Creates the directory readable and writable only by the user, and checks an
+    // existing directory is not writable by others.
+    private static Path createPrivateDirectory(Path dir) throws IOException
+    {
+        PosixFileAttributeView view = null;
+        if (Files.isDirectory(dir))
+        {
+            view = Files.getFileAttributeView(dir, PosixFileAttributeView.class);
+        }
+        else if (dir.getFileSystem().supportedFileAttributeViews().contains("posix"))
+        {
+            Set<PosixFilePermission> perms = PosixFilePermissions.fromString("rwx------");
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(perms));
+            view = Files.getFileAttributeView(dir, PosixFileAttributeView.class);
+        }
+        else
+        {
+            Files.createDirectories(dir);
+        }
+
+        if (view != null)
+        {
+            String user = System.getProperty("user.name");
+            Set<PosixFilePermission> perms = view.readAttributes().permissions();
+            if (!view.getOwner().getName().equals(user) || perms.contains(PosixFilePermission.GROUP_WRITE)
+                || perms.contains(PosixFilePermission.OTHERS_WRITE))
+            {
+                throw new IOException("not a private directory of " + user + ": " + dir);
             }
-            finally
+        }
+        return dir;
+    }
+
+    // Checks the file has the content with the hash.
+    private static boolean isValid(File lib, String hash, long length) throws IOException
+    {
+        return lib.isFile() && lib.length() == length && hash.equals(sha256(Files.readAllBytes(lib.toPath())));
+    }
+
+    private static byte[] read(URL url) throws IOException
+    {
+        URLConnection uc = url.openConnection();
+        uc.setUseCaches(false);
+        try (InputStream istream = uc.getInputStream())
+        {
+            ByteArrayOutputStream ostream = new ByteArrayOutputStream();
+            byte[] buf = new byte[65536];
+            int nb = istream.read(buf);
+            while (nb != -1)
             {
-                if (tmp.exists())
-                    tmp.deleteOnExit();
+                ostream.write(buf, 0, nb);
+                nb = istream.read(buf);
             }
+            return ostream.toByteArray();
         }
-        catch (IOException ex)
+    }
+
+    private static String sha256(byte[] content)
+    {
+        try
         {
-            log.error("failed to load shared lib", ex);
-            throw new NativeInitializationException("failed to create temporary file: " + tmp.getAbsolutePath(), ex);
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest)
+            {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
         }
-        catch (Error e)
+        catch (NoSuchAlgorithmException ex)
         {
-            log.error("failed to load shared library: " + tmp);
-            throw new NativeInitializationException("failed to load shared lib: " + name, e);
+            throw new IllegalStateException("SHA-256 not supported", ex);
         }
     }
 }
@@ -0,0 +1,407 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact WCSKeywords for holding many headers in memory. The values are held in
+ * primitive arrays with a type tag instead of boxed objects in a TreeMap, and the
+ * keys are interned, so a key such as CRPIX1 is shared by all headers. Keys are found
+ * with an open-addressed hash table of entry indices.
+ *
+ * <p>The values behave as in WCSKeywordsImpl: put() ignores null values and empty
+ * Strings, a numeric value is returned as a String with toString(), and reading a
+ * String value as a number throws ClassCastException. The iterator returns the
+ * keywords in the order they were first put.
+ */
+public class CompactWCSKeywords implements WCSKeywords, Serializable {
+    private static final long serialVersionUID = 202610180000L;
+
+    private static final byte INT = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+
+    private static final int DEFAULT_CAPACITY = 32;
+
+    // Entries in the order they were first put.
+    private String[] keys;
+    private byte[] types;
+    private long[] numbers;
+    private String[] strings;
+    private int size;
+
+    // Open-addressed hash table of entry index + 1, 0 is an empty slot.
+    private transient int[] table;
+
+    /**
+     * Constructs empty keywords.
+     */
+    public CompactWCSKeywords() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs empty keywords sized for the expected number of keywords.
+     *
+     * @param capacity expected number of keywords.
+     */
+    public CompactWCSKeywords(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        int length = Math.max(capacity, 4);
+        keys = new String[length];
+        types = new byte[length];
+        numbers = new long[length];
+        strings = new String[length];
+        table = new int[tableSize(length)];
+    }
+
+    /**
+     * Constructs keywords with a copy of other keywords.
+     *
+     * @param wcs keywords to copy.
+     */
+    public CompactWCSKeywords(WCSKeywords wcs) {
+        this();
+        Iterator<Map.Entry<String, Object>> iter = wcs.iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Object> me = iter.next();
+            Object value = me.getValue();
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                put(me.getKey(), ((Number) value).intValue());
+            } else if (value instanceof Number) {
+                put(me.getKey(), ((Number) value).doubleValue());
+            } else if (value != null) {
+                put(me.getKey(), value.toString());
+            }
+        }
+    }
+
+    /**
+     * @return the number of keywords.
+     */
+    public int size() {
+        return size;
+    }
+
+    // Key of the entry at the index, in the order the keywords were first put.
+    String getKey(int index) {
+        return keys[index];
+    }
+
+    public void put(String key, String value) {
+        if (key != null && value != null && value.length() > 0) {
+            int index = entry(key);
+            types[index] = STRING;
+            numbers[index] = 0L;
+            strings[index] = value;
+        }
+    }
+
+    public void put(String key, int value) {
+        int index = entry(key);
+        types[index] = INT;
+        numbers[index] = value;
+        strings[index] = null;
+    }
+
+    public void put(String key, double value) {
+        int index = entry(key);
+        types[index] = DOUBLE;
+        numbers[index] = Double.doubleToRawLongBits(value);
+        strings[index] = null;
+    }
+
+    public void put(String key, Integer value) {
+        if (key != null && value != null) {
+            put(key, value.intValue());
+        }
+    }
+
+    public void put(String key, Double value) {
+        if (key != null && value != null) {
+            put(key, value.doubleValue());
+        }
+    }
+
+    public boolean containsKey(String key) {
+        return key != null && find(key) >= 0;
+    }
+
+    public double getDoubleValue(String key) {
+        return getDoubleValue(key, 0.0);
+    }
+
+    public double getDoubleValue(String key, double value) {
+        int index = key == null ? -1 : find(key);
+        if (index < 0) {
+            return value;
+        }
+        switch (types[index]) {
+            case INT:
+                return numbers[index];
+            case DOUBLE:
+                return Double.longBitsToDouble(numbers[index]);
+            default:
+                throw new ClassCastException("keyword " + key + " has a String value: " + strings[index]);
+        }
+    }
+
+    public float getFloatValue(String key) {
+        return getFloatValue(key, 0.0f);
+    }
+
+    public float getFloatValue(String key, float value) {
+        return containsKey(key) ? (float) getDoubleValue(key) : value;
+    }
+
+    public int getIntValue(String key) {
+        return getIntValue(key, 0);
+    }
+
+    public int getIntValue(String key, int value) {
+        int index = key == null ? -1 : find(key);
+        if (index < 0) {
+            return value;
+        }
+        switch (types[index]) {
+            case INT:
+                return (int) numbers[index];
+            case DOUBLE:
+                return (int) Double.longBitsToDouble(numbers[index]);
+            default:
+                throw new ClassCastException("keyword " + key + " has a String value: " + strings[index]);
+        }
+    }
+
+    public String getStringValue(String key) {
+        return getStringValue(key, null);
+    }
+
+    public String getStringValue(String key, String value) {
+        int index = key == null ? -1 : find(key);
+        return index < 0 ? value : toString(index);
+    }
+
+    /**
+     * Returns an iterator over the keywords in the order they were first put. The
+     * values are boxed as Integer, Double or String by the iterator.
+     *
+     * @return iterator over the keywords.
+     */
+    public Iterator<Map.Entry<String, Object>> iterator() {
+        return new Iterator<Map.Entry<String, Object>>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            public Map.Entry<String, Object> next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                int index = next++;
+                return new AbstractMap.SimpleImmutableEntry<String, Object>(keys[index], getValue(index));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("keywords cannot be removed");
+            }
+        };
+    }
+
+    /**
+     * Print String representation of the keywords.
+     *
+     * @return String representation of the keywords.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            sb.append(keys[i]).append(" = ").append(toString(i)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private Object getValue(int index) {
+        switch (types[index]) {
+            case INT:
+                return (int) numbers[index];
+            case DOUBLE:
+                return Double.longBitsToDouble(numbers[index]);
+            default:
+                return strings[index];
+        }
+    }
+
+    private String toString(int index) {
+        switch (types[index]) {
+            case INT:
+                return Integer.toString((int) numbers[index]);
+            case DOUBLE:
+                return Double.toString(Double.longBitsToDouble(numbers[index]));
+            default:
+                return strings[index];
+        }
+    }
+
+    // Index of the entry for the key, -1 if the key is not present.
+    private int find(String key) {
+        int mask = table.length - 1;
+        for (int slot = hash(key) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            String k = keys[table[slot] - 1];
+            if (k == key || k.equals(key)) {
+                return table[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Index of the entry for the key, adding an entry if the key is not present.
+    private int entry(String key) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            String k = keys[table[slot] - 1];
+            if (k == key || k.equals(key)) {
+                return table[slot] - 1;
+            }
+        }
+        if (size == keys.length) {
+            grow();
+            return entry(key);
+        }
+        keys[size] = key.intern();
+        table[slot] = ++size;
+        return size - 1;
+    }
+
+    private void grow() {
+        int length = keys.length * 2;
+        String[] k = new String[length];
+        byte[] t = new byte[length];
+        long[] n = new long[length];
+        String[] s = new String[length];
+        System.arraycopy(keys, 0, k, 0, size);
+        System.arraycopy(types, 0, t, 0, size);
+        System.arraycopy(numbers, 0, n, 0, size);
+        System.arraycopy(strings, 0, s, 0, size);
+        keys = k;
+        types = t;
+        numbers = n;
+        strings = s;
+        rehash();
+    }
+
+    // Rebuilds the hash table with at most half of the slots used.
+    private void rehash() {
+        table = new int[tableSize(keys.length)];
+        int mask = table.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    private static int tableSize(int capacity) {
+        int length = 8;
+        while (length < 2 * capacity) {
+            length <<= 1;
+        }
+        return length;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (int i = 0; i < size; i++) {
+            keys[i] = keys[i].intern();
+        }
+        rehash();
+    }
+
+}
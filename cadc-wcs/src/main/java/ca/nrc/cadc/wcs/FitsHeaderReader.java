@@ -0,0 +1,415 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the WCS keywords of a FITS header from 2880 byte header blocks. Only the
+ * cards used by the WCS are parsed: NAXIS, NAXISn, WCSAXES, CTYPEi, CUNITi, CRPIXi,
+ * CRVALi, CDELTi, CROTAi, PCi_j, CDi_j, PVi_m, PSi_m, LONPOLE, LATPOLE, RESTFRQ,
+ * RESTFREQ, RESTWAV and WCSNAME, including the alternate WCS with a letter A to Z
+ * appended to the key. The legacy RESTFREQ card is also stored as RESTFRQ, the key
+ * read by Transform, if the header has no RESTFRQ card. Other cards are skipped by comparing their key bytes, without
+ * creating Strings, and numeric values are parsed directly from the card bytes.
+ *
+ * <p>Reading stops at the block holding the END card, so a channel or buffer is left
+ * positioned at the start of the data unit, which is not read.
+ */
+public final class FitsHeaderReader {
+    /**
+     * Size of a FITS header block in bytes.
+     */
+    public static final int BLOCK_SIZE = 2880;
+
+    private static final int CARD_SIZE = 80;
+    private static final int VALUE_START = 10;
+
+    // Families of keys followed by an axis number, and followed by two numbers i_j.
+    private static final byte[][] AXIS_KEYS = bytes("CTYPE", "CUNIT", "CRPIX", "CRVAL", "CDELT", "CROTA");
+    private static final byte[][] PAIR_KEYS = bytes("PC", "CD", "PV", "PS");
+    private static final byte[][] SCALAR_KEYS = bytes("WCSAXES", "LONPOLE", "LATPOLE", "RESTFRQ", "RESTFREQ",
+                                                      "RESTWAV", "WCSNAME");
+    private static final byte[] NAXIS = bytes("NAXIS")[0];
+
+    // Exact powers of ten for the fast path of parseDouble().
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private FitsHeaderReader() {
+    }
+
+    /**
+     * Reads the WCS keywords of a header from the channel, starting at the current
+     * position of the channel, which is left at the start of the data unit.
+     *
+     * @param channel channel positioned at the start of a header.
+     * @return the WCS keywords of the header.
+     * @throws IOException if the channel cannot be read or ends before the END card.
+     */
+    public static CompactWCSKeywords read(ReadableByteChannel channel) throws IOException {
+        CompactWCSKeywords wcs = new CompactWCSKeywords();
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        byte[] block = buffer.array();
+        boolean end = false;
+        while (!end) {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("FITS header ends without an END card");
+                }
+            }
+            end = parseBlock(block, wcs);
+        }
+        copyLegacyKeys(wcs);
+        return wcs;
+    }
+
+    /**
+     * Reads the WCS keywords of a header from the buffer, which may be memory mapped,
+     * starting at the position of the buffer. The position is advanced to the start of
+     * the data unit.
+     *
+     * @param buffer buffer positioned at the start of a header.
+     * @return the WCS keywords of the header.
+     * @throws IOException if the buffer ends before the END card.
+     */
+    public static CompactWCSKeywords read(ByteBuffer buffer) throws IOException {
+        CompactWCSKeywords wcs = new CompactWCSKeywords();
+        byte[] block = new byte[BLOCK_SIZE];
+        boolean end = false;
+        while (!end) {
+            if (buffer.remaining() < BLOCK_SIZE) {
+                throw new EOFException("FITS header ends without an END card");
+            }
+            buffer.get(block);
+            end = parseBlock(block, wcs);
+        }
+        copyLegacyKeys(wcs);
+        return wcs;
+    }
+
+    // Stores RESTFREQ as RESTFRQ, which may follow it in the header, so this is done after the END card.
+    private static void copyLegacyKeys(CompactWCSKeywords wcs) {
+        if (wcs.containsKey("RESTFREQ") && !wcs.containsKey("RESTFRQ")) {
+            wcs.put("RESTFRQ", wcs.getDoubleValue("RESTFREQ"));
+        }
+    }
+
+    // Adds the WCS cards of a block to the keywords, returns true if the block has the END card.
+    private static boolean parseBlock(byte[] block, CompactWCSKeywords wcs) throws IOException {
+        for (int card = 0; card < BLOCK_SIZE; card += CARD_SIZE) {
+            int keyLength = keyLength(block, card);
+            if (keyLength == 3 && block[card] == 'E' && block[card + 1] == 'N' && block[card + 2] == 'D') {
+                return true;
+            }
+            if (keyLength > 0 && block[card + 8] == '=' && block[card + 9] == ' ' && isWCSKey(block, card, keyLength)) {
+                String key = new String(block, card, keyLength, StandardCharsets.US_ASCII);
+                parseValue(block, card, key, wcs);
+            }
+        }
+        return false;
+    }
+
+    // Length of the key of the card, without the trailing spaces.
+    private static int keyLength(byte[] block, int card) {
+        int length = 8;
+        while (length > 0 && block[card + length - 1] == ' ') {
+            length--;
+        }
+        return length;
+    }
+
+    // True if the key is one of the WCS keys.
+    static boolean isWCSKey(byte[] b, int start, int length) {
+        int end = start + length;
+        if (startsWith(b, start, end, NAXIS)) {
+            return isNumber(b, start + NAXIS.length, end) || start + NAXIS.length == end;
+        }
+        for (byte[] key : SCALAR_KEYS) {
+            if (startsWith(b, start, end, key)) {
+                int pos = start + key.length;
+                return pos == end || (pos == end - 1 && isAlternate(b[pos]));
+            }
+        }
+        for (byte[] key : AXIS_KEYS) {
+            if (startsWith(b, start, end, key)) {
+                return isNumber(b, start + key.length, alternateEnd(b, start + key.length, end));
+            }
+        }
+        for (byte[] key : PAIR_KEYS) {
+            if (startsWith(b, start, end, key)) {
+                int last = alternateEnd(b, start + key.length, end);
+                for (int pos = start + key.length; pos < last; pos++) {
+                    if (b[pos] == '_') {
+                        return isNumber(b, start + key.length, pos) && isNumber(b, pos + 1, last);
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Parses the value of a card and adds it to the keywords. Logical, complex and
+    // undefined values are not used by the WCS and are skipped.
+    private static void parseValue(byte[] b, int card, String key, CompactWCSKeywords wcs) throws IOException {
+        int pos = card + VALUE_START;
+        int end = card + CARD_SIZE;
+        while (pos < end && b[pos] == ' ') {
+            pos++;
+        }
+        if (pos == end || b[pos] == '/') {
+            return;
+        }
+        if (b[pos] == '\'') {
+            wcs.put(key, parseString(b, pos + 1, end, key));
+            return;
+        }
+        int last = pos;
+        while (last < end && b[last] != ' ' && b[last] != '/') {
+            last++;
+        }
+        if (b[pos] == 'T' || b[pos] == 'F' || b[pos] == '(') {
+            return;
+        }
+        try {
+            if (isInteger(b, pos, last)) {
+                long value = parseLong(b, pos, last);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    wcs.put(key, (int) value);
+                    return;
+                }
+            }
+            wcs.put(key, parseDouble(b, pos, last));
+        } catch (NumberFormatException ex) {
+            throw new IOException("invalid value for " + key + ": "
+                                      + new String(b, pos, last - pos, StandardCharsets.US_ASCII), ex);
+        }
+    }
+
+    // Parses a quoted string value starting after the opening quote, with '' as a quote.
+    private static String parseString(byte[] b, int pos, int end, String key) throws IOException {
+        char[] chars = new char[end - pos];
+        int length = 0;
+        while (true) {
+            if (pos == end) {
+                throw new IOException("unterminated string value for " + key);
+            }
+            if (b[pos] == '\'') {
+                if (pos + 1 < end && b[pos + 1] == '\'') {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            chars[length++] = (char) (b[pos++] & 0xff);
+        }
+        // Trailing spaces are not significant.
+        while (length > 0 && chars[length - 1] == ' ') {
+            length--;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static boolean isInteger(byte[] b, int start, int end) {
+        int pos = start < end && (b[start] == '+' || b[start] == '-') ? start + 1 : start;
+        return end - pos > 0 && end - pos <= 18 && isDigits(b, pos, end);
+    }
+
+    private static long parseLong(byte[] b, int start, int end) {
+        boolean negative = b[start] == '-';
+        int pos = b[start] == '+' || b[start] == '-' ? start + 1 : start;
+        long value = 0;
+        for (; pos < end; pos++) {
+            value = value * 10 + (b[pos] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a FITS floating point value, which may use D as the exponent character.
+     * Values with at most 15 significant digits and a decimal exponent up to 22 are
+     * computed exactly from the digits, others are parsed by Double.parseDouble().
+     *
+     * @param b bytes of the value.
+     * @param start index of the first byte.
+     * @param end index after the last byte.
+     * @return the value.
+     * @throws NumberFormatException if the bytes are not a number.
+     */
+    static double parseDouble(byte[] b, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (b[pos] == '+' || b[pos] == '-')) {
+            negative = b[pos++] == '-';
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for (; pos < end && isDigit(b[pos]); pos++, any = true) {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (b[pos] - '0');
+                digits += mantissa == 0 ? 0 : 1;
+            } else {
+                exponent++;
+            }
+        }
+        if (pos < end && b[pos] == '.') {
+            for (pos++; pos < end && isDigit(b[pos]); pos++, any = true) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b[pos] - '0');
+                    digits += mantissa == 0 ? 0 : 1;
+                    exponent--;
+                }
+            }
+        }
+        if (!any) {
+            throw new NumberFormatException("not a number");
+        }
+        if (pos < end && (b[pos] == 'E' || b[pos] == 'e' || b[pos] == 'D' || b[pos] == 'd')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (b[pos] == '+' || b[pos] == '-')) {
+                negativeExponent = b[pos++] == '-';
+            }
+            if (pos == end || end - pos > 4 || !isDigits(b, pos, end)) {
+                throw new NumberFormatException("invalid exponent");
+            }
+            int e = (int) parseLong(b, pos, end);
+            exponent += negativeExponent ? -e : e;
+            pos = end;
+        }
+        if (pos != end) {
+            throw new NumberFormatException("not a number");
+        }
+
+        if (digits > 15 || exponent < -22 || exponent > 22) {
+            String s = new String(b, start, end - start, StandardCharsets.US_ASCII);
+            return Double.parseDouble(s.replace('D', 'E').replace('d', 'e'));
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private static boolean startsWith(byte[] b, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length; k++) {
+            if (b[start + k] != prefix[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // End of the key without an alternate WCS letter.
+    private static int alternateEnd(byte[] b, int start, int end) {
+        return end > start && isAlternate(b[end - 1]) ? end - 1 : end;
+    }
+
+    private static boolean isAlternate(byte c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isNumber(byte[] b, int start, int end) {
+        return start < end && isDigits(b, start, end);
+    }
+
+    private static boolean isDigits(byte[] b, int start, int end) {
+        for (int pos = start; pos < end; pos++) {
+            if (!isDigit(b[pos])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static byte[][] bytes(String... keys) {
+        byte[][] bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            bytes[i] = keys[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+
+}
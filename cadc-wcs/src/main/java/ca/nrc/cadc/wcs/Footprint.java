@@ -0,0 +1,239 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sky footprint of an image: the pixel boundary of the first two pixel axes transformed
+ * to a closed spherical polygon. The vertices are in boundary order, and the last vertex
+ * connects back to the first.
+ *
+ * <p>Each edge of the boundary is subdivided only where the transformed edge bends away
+ * from the great circle between its end points by more than the tolerance. Pixels that
+ * cannot be transformed, such as the regions outside an HPX or AIT projection, are left
+ * out of the polygon, and the edges are bisected to locate where they become invalid.
+ */
+public class Footprint {
+    // Minimum subdivision of each edge, so an S-shaped edge is not mistaken for a straight one.
+    private static final int MIN_DEPTH = 1;
+
+    // Subdivision of invalid edge segments looking for valid pixels.
+    private static final int INVALID_DEPTH = 4;
+
+    // Maximum subdivision of each edge.
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * Longitude of each vertex in degrees.
+     */
+    public double[] longitudes;
+
+    /**
+     * Latitude of each vertex in degrees.
+     */
+    public double[] latitudes;
+
+    /**
+     * Number of pixel coordinates transformed to build the footprint.
+     */
+    public int samples;
+
+    public Footprint(double[] longitudes, double[] latitudes, int samples) {
+        this.longitudes = longitudes;
+        this.latitudes = latitudes;
+        this.samples = samples;
+    }
+
+    /**
+     * Builds the footprint of an image, see Transform.getFootprint().
+     *
+     * @return the footprint, or null if fewer than three boundary pixels are valid.
+     */
+    static Footprint create(Transform transform, int naxis, int lng, int lat, double[] reference, double naxis1,
+                            double naxis2, double tolerance) {
+        Sampler sampler = new Sampler(transform, naxis, lng, lat, reference, tolerance);
+        Sample[] corners = new Sample[] {
+            sampler.sample(0.5, 0.5),
+            sampler.sample(naxis1 + 0.5, 0.5),
+            sampler.sample(naxis1 + 0.5, naxis2 + 0.5),
+            sampler.sample(0.5, naxis2 + 0.5)
+        };
+        for (int i = 0; i < corners.length; i++) {
+            Sample a = corners[i];
+            Sample b = corners[(i + 1) % corners.length];
+            sampler.add(a);
+            sampler.refine(a, b, 0);
+        }
+
+        int n = sampler.vertices.size();
+        if (n < 3) {
+            return null;
+        }
+        double[] longitudes = new double[n];
+        double[] latitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            Sample s = sampler.vertices.get(i);
+            longitudes[i] = s.lng;
+            latitudes[i] = s.lat;
+        }
+        return new Footprint(longitudes, latitudes, sampler.samples);
+    }
+
+    private static class Sample {
+        double x;
+        double y;
+        double lng;
+        double lat;
+        boolean valid;
+    }
+
+    private static class Sampler {
+        private final Transform transform;
+        private final int lng;
+        private final int lat;
+        private final double tolerance;
+        private final double[] pixcrd;
+        private final double[] world;
+        private final List<Sample> vertices = new ArrayList<Sample>();
+        private int samples;
+
+        Sampler(Transform transform, int naxis, int lng, int lat, double[] reference, double tolerance) {
+            this.transform = transform;
+            this.lng = lng;
+            this.lat = lat;
+            this.tolerance = tolerance;
+            this.pixcrd = reference.clone();
+            this.world = new double[naxis];
+        }
+
+        Sample sample(double x, double y) {
+            pixcrd[0] = x;
+            pixcrd[1] = y;
+            samples++;
+            Sample s = new Sample();
+            s.x = x;
+            s.y = y;
+            s.valid = transform.pix2sky(pixcrd, 0, world, 0) == 0;
+            if (s.valid) {
+                s.lng = world[lng];
+                s.lat = world[lat];
+                s.valid = !Double.isNaN(s.lng) && !Double.isNaN(s.lat);
+            }
+            return s;
+        }
+
+        void add(Sample s) {
+            if (s.valid) {
+                vertices.add(s);
+            }
+        }
+
+        // Adds the vertices between a and b, excluding both.
+        void refine(Sample a, Sample b, int depth) {
+            if (depth >= MAX_DEPTH || (!a.valid && !b.valid && depth >= INVALID_DEPTH)) {
+                return;
+            }
+            Sample m = sample((a.x + b.x) / 2.0, (a.y + b.y) / 2.0);
+            if (a.valid && b.valid && m.valid && depth >= MIN_DEPTH && deviation(a, b, m) <= tolerance) {
+                return;
+            }
+            refine(a, m, depth + 1);
+            add(m);
+            refine(m, b, depth + 1);
+        }
+    }
+
+    // Angle in degrees between m and the great circle midpoint of a and b.
+    private static double deviation(Sample a, Sample b, Sample m) {
+        double[] va = toVector(a.lng, a.lat);
+        double[] vb = toVector(b.lng, b.lat);
+        double[] vm = toVector(m.lng, m.lat);
+        double x = va[0] + vb[0];
+        double y = va[1] + vb[1];
+        double z = va[2] + vb[2];
+        double norm = Math.sqrt(x * x + y * y + z * z);
+        if (norm == 0.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double dx = x / norm - vm[0];
+        double dy = y / norm - vm[1];
+        double dz = z / norm - vm[2];
+        return Math.toDegrees(2.0 * Math.asin(Math.min(1.0, Math.sqrt(dx * dx + dy * dy + dz * dz) / 2.0)));
+    }
+
+    private static double[] toVector(double lng, double lat) {
+        double lngr = Math.toRadians(lng);
+        double latr = Math.toRadians(lat);
+        double cosLat = Math.cos(latr);
+        return new double[] {cosLat * Math.cos(lngr), cosLat * Math.sin(lngr), Math.sin(latr)};
+    }
+}
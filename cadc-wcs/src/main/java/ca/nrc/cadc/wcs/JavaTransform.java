@@ -0,0 +1,876 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+/**
+ * Pure Java implementation of the WCSLIB wcsp2s() and wcss2p() transformations for the
+ * most common WCS: linear axes, and a celestial axis pair using the TAN, SIN or CAR
+ * projection without PVi_m parameters. It follows the WCSLIB lin, cel, sph and prj
+ * algorithms, including the WCSLIB defaults for LONPOLE and LATPOLE, and agrees with
+ * WCSLIB to within 1.0e-9 degrees and 1.0e-9 pixels.
+ *
+ * <p>Instances are immutable and may be used by any number of threads at once.
+ * Transform uses this class when create() accepts the WCS, and WCSLIB otherwise.
+ */
+final class JavaTransform {
+    private static final double D2R = Math.PI / 180.0;
+    private static final double R2D = 180.0 / Math.PI;
+
+    // Default projection radius, prj.r0.
+    private static final double R0 = R2D;
+
+    // Tolerance used by WCSLIB celset() and the sph routines.
+    private static final double CEL_TOL = 1.0e-10;
+    private static final double SPH_TOL = 1.0e-5;
+
+    // Tolerance used by the WCSLIB prjbchk() bounds check.
+    private static final double PRJ_TOL = 1.0e-13;
+
+    private static final int TAN = 1;
+    private static final int SIN = 2;
+    private static final int CAR = 3;
+
+    // Celestial axis types, longitude and latitude types at the same index pair up.
+    private static final String[] LNG_TYPES = new String[] {"RA--", "GLON", "ELON", "SLON"};
+    private static final String[] LAT_TYPES = new String[] {"DEC-", "GLAT", "ELAT", "SLAT"};
+
+    // Axis types WCSLIB does not treat as linear.
+    private static final String[] NON_LINEAR_TYPES = new String[] {
+        "RA", "DEC", "GLON", "GLAT", "ELON", "ELAT", "SLON", "SLAT", "CUBEFACE",
+        "FREQ", "ENER", "WAVN", "VRAD", "WAVE", "VOPT", "ZOPT", "AWAV", "VELO", "BETA",
+        "TIME", "TAI", "TT", "TDT", "ET", "IAT", "UT1", "UTC", "GMT", "GPS", "TCG", "TCB", "TDB", "LOCAL"
+    };
+
+    private final int naxis;
+    private final double[] crpix;
+    private final double[] crval;
+
+    // CDELTi * PCi_j and its inverse, row major.
+    private final double[] matrix;
+    private final double[] inverse;
+
+    // Celestial axis indexes, -1 if there are no celestial axes.
+    private final int lng;
+    private final int lat;
+    private final int projection;
+
+    // Euler angles of the celestial rotation as set by WCSLIB celset(): longitude and
+    // latitude of the native pole, native longitude of the celestial pole, and the
+    // cosine and sine of the second angle.
+    private final double[] euler;
+
+    private JavaTransform(int naxis, double[] crpix, double[] crval, double[] matrix, double[] inverse, int lng,
+                          int lat, int projection, double[] euler) {
+        this.naxis = naxis;
+        this.crpix = crpix;
+        this.crval = crval;
+        this.matrix = matrix;
+        this.inverse = inverse;
+        this.lng = lng;
+        this.lat = lat;
+        this.projection = projection;
+        this.euler = euler;
+    }
+
+    /**
+     * Creates a JavaTransform for the WCS keywords, see Transform for the arguments.
+     *
+     * @return the JavaTransform, or null if the WCS is not supported.
+     */
+    static JavaTransform create(int naxis, double[] crpix, double[] pc, double[] cdelt, double[] crval,
+                                String[] cunit, String[] ctype, double lonpole, double latpole, double[] pvv,
+                                String[] psv, double[] cd, double[] crota) {
+        if (naxis < 1 || pvv != null || psv != null || crota != null) {
+            return null;
+        }
+
+        int lng = -1;
+        int lat = -1;
+        int lngType = -1;
+        int latType = -1;
+        int projection = 0;
+        for (int i = 0; i < naxis; i++) {
+            String type = ctype == null || ctype[i] == null ? "" : ctype[i].trim();
+            if (type.isEmpty()) {
+                continue;
+            }
+            if (type.length() == 8 && type.charAt(4) == '-') {
+                int code = getProjection(type.substring(5));
+                if (code == 0 || (projection != 0 && code != projection)) {
+                    return null;
+                }
+                projection = code;
+
+                String prefix = type.substring(0, 4);
+                int index = indexOf(LNG_TYPES, prefix);
+                if (index >= 0 && lng == -1) {
+                    lng = i;
+                    lngType = index;
+                } else {
+                    index = indexOf(LAT_TYPES, prefix);
+                    if (index >= 0 && lat == -1) {
+                        lat = i;
+                        latType = index;
+                    } else {
+                        return null;
+                    }
+                }
+
+                // WCSLIB converts other angular units to degrees.
+                String unit = cunit == null || cunit[i] == null ? "" : cunit[i].trim();
+                if (!unit.isEmpty() && !unit.equals("deg")) {
+                    return null;
+                }
+            } else if (type.indexOf('-') >= 0 || indexOf(NON_LINEAR_TYPES, type) >= 0) {
+                return null;
+            }
+        }
+        if (lng != -1 && (lat == -1 || lngType != latType)) {
+            return null;
+        }
+        if (lat != -1 && lng == -1) {
+            return null;
+        }
+
+        double[] refpix = crpix == null ? new double[naxis] : crpix.clone();
+        double[] refval = crval == null ? new double[naxis] : crval.clone();
+
+        // WCSLIB uses CDi_j in preference to PCi_j, CROTAi is not supported.
+        double[] matrix = new double[naxis * naxis];
+        for (int i = 0; i < naxis; i++) {
+            for (int j = 0; j < naxis; j++) {
+                int ij = i * naxis + j;
+                if (cd != null) {
+                    matrix[ij] = cd[ij];
+                } else {
+                    double scale = cdelt == null ? 1.0 : cdelt[i];
+                    matrix[ij] = scale * (pc != null ? pc[ij] : (i == j ? 1.0 : 0.0));
+                }
+            }
+        }
+        double[] inverse = invert(matrix, naxis);
+        if (inverse == null) {
+            return null;
+        }
+
+        double[] euler = null;
+        if (lng != -1) {
+            euler = celset(projection == CAR ? 0.0 : 90.0, refval[lng], refval[lat], lonpole, latpole);
+            if (euler == null) {
+                return null;
+            }
+        }
+
+        return new JavaTransform(naxis, refpix, refval, matrix, inverse, lng, lat, projection, euler);
+    }
+
+    /**
+     * Returns the units that WCSLib gives the axes: deg for the celestial axes, which
+     * only accept deg, and no units for the linear axes without CUNITi.
+     *
+     * @param cunit the CUNITi values.
+     * @return the units of each axis, or null if a linear axis has units, which WCSLib
+     *     translates to their standard form.
+     */
+    String[] getUnits(String[] cunit) {
+        String[] units = new String[naxis];
+        for (int i = 0; i < naxis; i++) {
+            if (i == lng || i == lat) {
+                units[i] = "deg";
+            } else if (cunit[i] == null || cunit[i].trim().isEmpty()) {
+                units[i] = "";
+            } else {
+                return null;
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Transforms ncoord pixel coordinates to world coordinates.
+     *
+     * @return 0 if all coordinates are valid, otherwise WCSLib.BAD_PIX.
+     */
+    int pix2sky(int ncoord, int nelem, double[] pixcrd, int pixoff, double[] world, int worldoff, int[] stat) {
+        int status = 0;
+        for (int k = 0; k < ncoord; k++) {
+            int s = pix2sky(pixcrd, pixoff + k * nelem, world, worldoff + k * nelem);
+            if (stat != null) {
+                stat[k] = s;
+            }
+            if (s != 0) {
+                status = WCSLib.BAD_PIX;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Transforms ncoord world coordinates to pixel coordinates.
+     *
+     * @return 0 if all coordinates are valid, otherwise WCSLib.BAD_WORLD.
+     */
+    int sky2pix(int ncoord, int nelem, double[] world, int worldoff, double[] pixcrd, int pixoff, int[] stat) {
+        int status = 0;
+        for (int k = 0; k < ncoord; k++) {
+            int s = sky2pix(world, worldoff + k * nelem, pixcrd, pixoff + k * nelem);
+            if (stat != null) {
+                stat[k] = s;
+            }
+            if (s != 0) {
+                status = WCSLib.BAD_WORLD;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Transforms a regular grid of pixel coordinates, see Transform.pix2skyGrid(). The
+     * intermediate world coordinates are stepped along each row instead of being
+     * recomputed from the pixel coordinates of every grid point.
+     *
+     * @return 0 if all coordinates are valid, otherwise WCSLib.BAD_PIX.
+     */
+    int grid(double[] start, double[] stride, int[] count, double[][] planes, int[] stat) {
+        int ncol = count[0];
+        int nrow = planes[0].length / ncol;
+        double[] pixel = new double[naxis];
+        double[] base = new double[naxis];
+        double[] delta = new double[naxis];
+        double[] world = new double[naxis];
+        for (int i = 0; i < naxis; i++) {
+            delta[i] = matrix[i * naxis] * stride[0];
+        }
+
+        int status = 0;
+        int index = 0;
+        for (int row = 0; row < nrow; row++) {
+            pixel[0] = start[0];
+            int r = row;
+            for (int j = 1; j < naxis; j++) {
+                pixel[j] = start[j] + (r % count[j]) * stride[j];
+                r /= count[j];
+            }
+            for (int i = 0; i < naxis; i++) {
+                double img = 0.0;
+                int ij = i * naxis;
+                for (int j = 0; j < naxis; j++) {
+                    img += matrix[ij + j] * (pixel[j] - crpix[j]);
+                }
+                base[i] = img;
+            }
+
+            for (int k = 0; k < ncol; k++, index++) {
+                for (int i = 0; i < naxis; i++) {
+                    if (i != lng && i != lat) {
+                        planes[i][index] = crval[i] + base[i] + k * delta[i];
+                    }
+                }
+                int s = 0;
+                if (lng != -1) {
+                    if (celx2s(base[lng] + k * delta[lng], base[lat] + k * delta[lat], world, 0)) {
+                        planes[lng][index] = world[lng];
+                        planes[lat][index] = world[lat];
+                    } else {
+                        planes[lng][index] = Double.NaN;
+                        planes[lat][index] = Double.NaN;
+                        s = (1 << lng) | (1 << lat);
+                        status = WCSLib.BAD_PIX;
+                    }
+                }
+                stat[index] = s;
+            }
+        }
+        return status;
+    }
+
+    // One coordinate, returns the WCSLIB stat value.
+    private int pix2sky(double[] pixcrd, int pixoff, double[] world, int worldoff) {
+        double x = 0.0;
+        double y = 0.0;
+        for (int i = 0; i < naxis; i++) {
+            double img = 0.0;
+            int row = i * naxis;
+            for (int j = 0; j < naxis; j++) {
+                img += matrix[row + j] * (pixcrd[pixoff + j] - crpix[j]);
+            }
+            if (i == lng) {
+                x = img;
+            } else if (i == lat) {
+                y = img;
+            } else {
+                world[worldoff + i] = crval[i] + img;
+            }
+        }
+        if (lng == -1) {
+            return 0;
+        }
+        if (celx2s(x, y, world, worldoff)) {
+            return 0;
+        }
+        world[worldoff + lng] = Double.NaN;
+        world[worldoff + lat] = Double.NaN;
+        return (1 << lng) | (1 << lat);
+    }
+
+    // One coordinate, returns the WCSLIB stat value.
+    private int sky2pix(double[] world, int worldoff, double[] pixcrd, int pixoff) {
+        double x = 0.0;
+        double y = 0.0;
+        if (lng != -1) {
+            if (!cels2x(world[worldoff + lng], world[worldoff + lat], pixcrd, pixoff)) {
+                for (int j = 0; j < naxis; j++) {
+                    pixcrd[pixoff + j] = Double.NaN;
+                }
+                return (1 << lng) | (1 << lat);
+            }
+            x = pixcrd[pixoff + lng];
+            y = pixcrd[pixoff + lat];
+        }
+        for (int j = 0; j < naxis; j++) {
+            double pix = crpix[j];
+            int row = j * naxis;
+            for (int i = 0; i < naxis; i++) {
+                double img;
+                if (i == lng) {
+                    img = x;
+                } else if (i == lat) {
+                    img = y;
+                } else {
+                    img = world[worldoff + i] - crval[i];
+                }
+                pix += inverse[row + i] * img;
+            }
+            pixcrd[pixoff + j] = pix;
+        }
+        return 0;
+    }
+
+    // Projection plane to celestial coordinates, WCSLIB celx2s(), false if invalid.
+    private boolean celx2s(double x, double y, double[] world, int worldoff) {
+        double phi;
+        double theta;
+        switch (projection) {
+            case TAN: {
+                double r = Math.sqrt(x * x + y * y);
+                phi = r == 0.0 ? 0.0 : atan2d(x, -y);
+                theta = atan2d(R0, r);
+                break;
+            }
+            case SIN: {
+                double x0 = x / R0;
+                double y0 = y / R0;
+                double r2 = x0 * x0 + y0 * y0;
+                phi = r2 == 0.0 ? 0.0 : atan2d(x0, -y0);
+                if (r2 < 0.5) {
+                    theta = acosd(Math.sqrt(r2));
+                } else if (r2 <= 1.0) {
+                    theta = asind(Math.sqrt(1.0 - r2));
+                } else {
+                    return false;
+                }
+                break;
+            }
+            default: {
+                phi = x;
+                theta = y;
+                if (phi < -180.0 - PRJ_TOL || phi > 180.0 + PRJ_TOL
+                    || theta < -90.0 - PRJ_TOL || theta > 90.0 + PRJ_TOL) {
+                    return false;
+                }
+                phi = Math.max(-180.0, Math.min(180.0, phi));
+                theta = Math.max(-90.0, Math.min(90.0, theta));
+                break;
+            }
+        }
+
+        // Native to celestial spherical coordinates, WCSLIB sphx2s().
+        double lngv;
+        double latv;
+        double dphi = phi - euler[2];
+        if (euler[4] == 0.0) {
+            if (euler[1] == 0.0) {
+                lngv = phi + (euler[0] + 180.0 - euler[2]) % 360.0;
+                latv = theta;
+            } else {
+                lngv = (euler[0] + euler[2]) % 360.0 - phi;
+                latv = -theta;
+            }
+        } else {
+            double sinthe = sind(theta);
+            double costhe = cosd(theta);
+            double costhe3 = costhe * euler[3];
+            double costhe4 = costhe * euler[4];
+            double sinthe3 = sinthe * euler[3];
+            double sinthe4 = sinthe * euler[4];
+            double sinphi = sind(dphi);
+            double cosphi = cosd(dphi);
+
+            double xp = sinthe4 - costhe3 * cosphi;
+            if (Math.abs(xp) < SPH_TOL) {
+                xp = -cosd(theta + euler[1]) + costhe3 * (1.0 - cosphi);
+            }
+            double yp = -costhe * sinphi;
+            double dlng;
+            if (xp != 0.0 || yp != 0.0) {
+                dlng = atan2d(yp, xp);
+            } else {
+                dlng = euler[1] < 90.0 ? dphi + 180.0 : -dphi;
+            }
+            lngv = euler[0] + dlng;
+
+            if (dphi % 180.0 == 0.0) {
+                latv = theta + cosphi * euler[1];
+                if (latv > 90.0) {
+                    latv = 180.0 - latv;
+                }
+                if (latv < -90.0) {
+                    latv = -180.0 - latv;
+                }
+            } else {
+                double z = sinthe3 + costhe4 * cosphi;
+                if (Math.abs(z) > 0.99) {
+                    latv = Math.copySign(acosd(Math.sqrt(xp * xp + yp * yp)), z);
+                } else {
+                    latv = asind(z);
+                }
+            }
+        }
+
+        // Normalize the celestial longitude.
+        if (euler[0] >= 0.0) {
+            if (lngv < 0.0) {
+                lngv += 360.0;
+            }
+        } else {
+            if (lngv > 0.0) {
+                lngv -= 360.0;
+            }
+        }
+        if (lngv > 360.0) {
+            lngv -= 360.0;
+        } else if (lngv < -360.0) {
+            lngv += 360.0;
+        }
+
+        world[worldoff + lng] = lngv;
+        world[worldoff + lat] = latv;
+        return true;
+    }
+
+    // Celestial to projection plane coordinates, WCSLIB cels2x(), false if invalid.
+    private boolean cels2x(double lngv, double latv, double[] pixcrd, int pixoff) {
+        // Celestial to native spherical coordinates, WCSLIB sphs2x().
+        double phi;
+        double theta;
+        double dlng = lngv - euler[0];
+        if (euler[4] == 0.0) {
+            if (euler[1] == 0.0) {
+                phi = (lngv + (euler[2] - 180.0 - euler[0]) % 360.0) % 360.0;
+                theta = latv;
+            } else {
+                phi = ((euler[2] + euler[0]) % 360.0 - lngv) % 360.0;
+                theta = -latv;
+            }
+        } else {
+            double sinlat = sind(latv);
+            double coslat = cosd(latv);
+            double coslat3 = coslat * euler[3];
+            double coslat4 = coslat * euler[4];
+            double sinlat3 = sinlat * euler[3];
+            double sinlat4 = sinlat * euler[4];
+            double sinlng = sind(dlng);
+            double coslng = cosd(dlng);
+
+            double xp = sinlat4 - coslat3 * coslng;
+            if (Math.abs(xp) < SPH_TOL) {
+                xp = -cosd(latv + euler[1]) + coslat3 * (1.0 - coslng);
+            }
+            double yp = -coslat * sinlng;
+            double dphi;
+            if (xp != 0.0 || yp != 0.0) {
+                dphi = atan2d(yp, xp);
+            } else {
+                dphi = euler[1] < 90.0 ? dlng - 180.0 : -dlng;
+            }
+            phi = (euler[2] + dphi) % 360.0;
+
+            if (dlng % 180.0 == 0.0) {
+                theta = latv + coslng * euler[1];
+                if (theta > 90.0) {
+                    theta = 180.0 - theta;
+                }
+                if (theta < -90.0) {
+                    theta = -180.0 - theta;
+                }
+            } else {
+                double z = sinlat3 + coslat4 * coslng;
+                if (Math.abs(z) > 0.99) {
+                    theta = Math.copySign(acosd(Math.sqrt(xp * xp + yp * yp)), z);
+                } else {
+                    theta = asind(z);
+                }
+            }
+        }
+
+        // Normalize the native longitude.
+        if (phi > 180.0) {
+            phi -= 360.0;
+        } else if (phi < -180.0) {
+            phi += 360.0;
+        }
+
+        double x;
+        double y;
+        switch (projection) {
+            case TAN: {
+                double s = sind(theta);
+                if (s == 0.0) {
+                    return false;
+                }
+                double r = R0 * cosd(theta) / s;
+                if (r < 0.0) {
+                    return false;
+                }
+                x = r * sind(phi);
+                y = -r * cosd(phi);
+                break;
+            }
+            case SIN: {
+                if (theta < 0.0) {
+                    return false;
+                }
+                double t = (90.0 - Math.abs(theta)) * D2R;
+                double costhe = t < 1.0e-5 ? t : cosd(theta);
+                double r = R0 * costhe;
+                x = r * sind(phi);
+                y = -r * cosd(phi);
+                break;
+            }
+            default: {
+                x = phi;
+                y = theta;
+                break;
+            }
+        }
+
+        pixcrd[pixoff + lng] = x;
+        pixcrd[pixoff + lat] = y;
+        return true;
+    }
+
+    /**
+     * Computes the Euler angles of the celestial rotation as WCSLIB celset() does for a
+     * projection with the fiducial point at native longitude 0.
+     *
+     * @return the Euler angles, or null if there is no valid solution.
+     */
+    private static double[] celset(double theta0, double lng0, double lat0, double lonpole, double latpole) {
+        final double phi0 = 0.0;
+
+        double phip = lonpole;
+        if (isUndefined(phip)) {
+            phip = (lat0 < theta0 ? 180.0 : 0.0) + phi0;
+            if (phip < -180.0) {
+                phip += 360.0;
+            } else if (phip > 180.0) {
+                phip -= 360.0;
+            }
+        }
+        double latp = isUndefined(latpole) ? 90.0 : latpole;
+
+        double lngp;
+        if (theta0 == 90.0) {
+            // Fiducial point at the native pole.
+            lngp = lng0;
+            latp = lat0;
+        } else {
+            double slat0 = sind(lat0);
+            double clat0 = cosd(lat0);
+            double sthe0 = sind(theta0);
+            double cthe0 = cosd(theta0);
+
+            double sphip;
+            double u;
+            double v;
+            if (phip == phi0) {
+                sphip = 0.0;
+                u = theta0;
+                v = 90.0 - lat0;
+            } else {
+                sphip = sind(phip - phi0);
+                double cphip = cosd(phip - phi0);
+                double x = cthe0 * cphip;
+                double y = sthe0;
+                double z = Math.sqrt(x * x + y * y);
+                if (z == 0.0) {
+                    // LATPOLE alone determines the latitude of the native pole.
+                    return null;
+                }
+                double slz = slat0 / z;
+                if (Math.abs(slz) > 1.0) {
+                    if (Math.abs(slz) - 1.0 < CEL_TOL) {
+                        slz = slz > 0.0 ? 1.0 : -1.0;
+                    } else {
+                        return null;
+                    }
+                }
+                u = atan2d(y, x);
+                v = acosd(slz);
+            }
+
+            double latp1 = u + v;
+            if (latp1 > 180.0) {
+                latp1 -= 360.0;
+            }
+            double latp2 = u - v;
+            if (latp2 < -180.0) {
+                latp2 += 360.0;
+            }
+            if (Math.abs(latp1 - latp) < Math.abs(latp2 - latp)) {
+                latp = Math.abs(latp1) < 90.0 + CEL_TOL ? latp1 : latp2;
+            } else {
+                latp = Math.abs(latp2) < 90.0 + CEL_TOL ? latp2 : latp1;
+            }
+            if (Math.abs(latp) < 90.0 + CEL_TOL) {
+                latp = Math.max(-90.0, Math.min(90.0, latp));
+            }
+
+            double z = cosd(latp) * clat0;
+            if (Math.abs(z) < CEL_TOL) {
+                if (Math.abs(clat0) < CEL_TOL) {
+                    // Celestial pole at the fiducial point.
+                    lngp = lng0;
+                } else if (latp > 0.0) {
+                    // Celestial north pole at the native pole.
+                    lngp = lng0 + phip - phi0 - 180.0;
+                } else {
+                    // Celestial south pole at the native pole.
+                    lngp = lng0 - phip + phi0;
+                }
+            } else {
+                double x = (sthe0 - sind(latp) * slat0) / z;
+                double y = sphip * cthe0 / clat0;
+                if (x == 0.0 && y == 0.0) {
+                    return null;
+                }
+                lngp = lng0 - atan2d(y, x);
+            }
+
+            // Make the celestial longitude of the native pole the same sign as at the fiducial point.
+            if (lng0 >= 0.0) {
+                if (lngp < 0.0) {
+                    lngp += 360.0;
+                } else if (lngp > 360.0) {
+                    lngp -= 360.0;
+                }
+            } else {
+                if (lngp > 0.0) {
+                    lngp -= 360.0;
+                } else if (lngp < -360.0) {
+                    lngp += 360.0;
+                }
+            }
+        }
+
+        double theta = 90.0 - latp;
+        return new double[] {lngp, theta, phip, cosd(theta), sind(theta)};
+    }
+
+    private static boolean isUndefined(double value) {
+        return value == WCSLib.UNDEFINED || value == 999.0;
+    }
+
+    private static int getProjection(String code) {
+        if ("TAN".equals(code)) {
+            return TAN;
+        } else if ("SIN".equals(code)) {
+            return SIN;
+        } else if ("CAR".equals(code)) {
+            return CAR;
+        }
+        return 0;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Gauss-Jordan elimination with partial pivoting, null if the matrix is singular.
+    private static double[] invert(double[] matrix, int n) {
+        double[] a = matrix.clone();
+        double[] inv = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            inv[i * n + i] = 1.0;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(a[row * n + col]) > Math.abs(a[pivot * n + col])) {
+                    pivot = row;
+                }
+            }
+            if (a[pivot * n + col] == 0.0) {
+                return null;
+            }
+            if (pivot != col) {
+                for (int k = 0; k < n; k++) {
+                    double tmp = a[col * n + k];
+                    a[col * n + k] = a[pivot * n + k];
+                    a[pivot * n + k] = tmp;
+                    tmp = inv[col * n + k];
+                    inv[col * n + k] = inv[pivot * n + k];
+                    inv[pivot * n + k] = tmp;
+                }
+            }
+            double scale = a[col * n + col];
+            for (int k = 0; k < n; k++) {
+                a[col * n + k] /= scale;
+                inv[col * n + k] /= scale;
+            }
+            for (int row = 0; row < n; row++) {
+                double factor = a[row * n + col];
+                if (row != col && factor != 0.0) {
+                    for (int k = 0; k < n; k++) {
+                        a[row * n + k] -= factor * a[col * n + k];
+                        inv[row * n + k] -= factor * inv[col * n + k];
+                    }
+                }
+            }
+        }
+        return inv;
+    }
+
+    // Trigonometric functions in degrees, exact at multiples of 90 like WCSLIB wcstrig.
+
+    private static double sind(double angle) {
+        if (angle % 90.0 == 0.0) {
+            int i = (int) Math.abs(Math.floor(angle / 90.0 - 0.5)) % 4;
+            return i == 0 ? 1.0 : (i == 2 ? -1.0 : 0.0);
+        }
+        return Math.sin(angle * D2R);
+    }
+
+    private static double cosd(double angle) {
+        if (angle % 90.0 == 0.0) {
+            int i = (int) Math.abs(Math.floor(angle / 90.0 + 0.5)) % 4;
+            return i == 0 ? 1.0 : (i == 2 ? -1.0 : 0.0);
+        }
+        return Math.cos(angle * D2R);
+    }
+
+    private static double atan2d(double y, double x) {
+        if (y == 0.0) {
+            if (x >= 0.0) {
+                return 0.0;
+            } else if (x < 0.0) {
+                return 180.0;
+            }
+        } else if (x == 0.0) {
+            return y > 0.0 ? 90.0 : -90.0;
+        }
+        return Math.atan2(y, x) * R2D;
+    }
+
+    private static double asind(double v) {
+        if (v <= -1.0) {
+            if (v + 1.0 > -1.0e-10) {
+                return -90.0;
+            }
+        } else if (v == 0.0) {
+            return 0.0;
+        } else if (v >= 1.0) {
+            if (v - 1.0 < 1.0e-10) {
+                return 90.0;
+            }
+        }
+        return Math.asin(v) * R2D;
+    }
+
+    private static double acosd(double v) {
+        if (v >= 1.0) {
+            if (v - 1.0 < 1.0e-10) {
+                return 0.0;
+            }
+        } else if (v == 0.0) {
+            return 90.0;
+        } else if (v <= -1.0) {
+            if (v + 1.0 > -1.0e-10) {
+                return 180.0;
+            }
+        }
+        return Math.acos(v) * R2D;
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.wcs.exceptions.NoSuchKeywordException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Compiles the WCS keywords used by WCSLIB into the arrays passed to the native
+ * methods in a single pass over the keywords. Each keyword is classified by its
+ * family and axis indices from the characters of the key, so no keys are built
+ * and each value is read once.
+ *
+ * <p>The arrays follow the rules of the original per-key lookups: an array is only
+ * allocated when one of its keywords is present, PCi_j and CDi_j are only used when
+ * PC1_1 or CD1_1 is present, axes above NAXIS are ignored, and only PVi_m and PSi_m
+ * parameters with m less than NAXIS are used, in order of axis and parameter.
+ *
+ * <p>The alternate WCS descriptions, with keys such as CTYPEia and PCi_ja where a is a
+ * letter A to Z, are compiled in the same pass by compileAll(). They have the same
+ * NAXIS as the primary WCS.
+ *
+ * <p>Compilers are equal when they compile to the same arrays, whatever other keywords
+ * the headers have, so they serve as the key of the TransformCache.
+ */
+final class KeywordCompiler {
+    final int naxis;
+    double[] crpix;
+    double[] pc;
+    double[] cdelt;
+    double[] crval;
+    String[] cunit;
+    String[] ctype;
+    double[] lonpole = new double[] { WCSLib.UNDEFINED };
+    double[] latpole = new double[] { WCSLib.UNDEFINED };
+    double[] restfrq = new double[] { WCSLib.UNDEFINED };
+    double[] restwav = new double[] { WCSLib.UNDEFINED };
+    int[] pvi;
+    int[] pvm;
+    double[] pvv;
+    int[] psi;
+    int[] psm;
+    String[] psv;
+    double[] cd;
+    double[] crota;
+
+    // Number of alternate WCS descriptions, A to Z.
+    static final int ALTERNATES = 26;
+
+    // Alternate WCS letter, or a space for the primary WCS.
+    final char alternate;
+
+    // State of the pass over the keywords.
+    private final WCSKeywords keywords;
+    private int cards;
+    private boolean hasPC;
+    private boolean hasCD;
+    private double[] pvValues;
+    private boolean[] pvFound;
+    private String[] psValues;
+    private int npv;
+    private int nps;
+
+    private KeywordCompiler(WCSKeywords keywords, int naxis, char alternate) {
+        this.keywords = keywords;
+        this.naxis = naxis;
+        this.alternate = alternate;
+    }
+
+    /**
+     * Compiles the primary WCS keywords. The keys of CompactWCSKeywords are scanned
+     * without boxing the values.
+     *
+     * @param keywords the WCS keywords.
+     * @return the compiled keywords.
+     * @throws NoSuchKeywordException if the NAXIS keyword is not found.
+     */
+    static KeywordCompiler compile(WCSKeywords keywords) throws NoSuchKeywordException {
+        return scan(keywords, 0)[0];
+    }
+
+    /**
+     * Compiles the primary and all alternate WCS keywords in one pass.
+     *
+     * @param keywords the WCS keywords.
+     * @return the compiled primary WCS at index 0 and alternates A to Z at index 1 to 26,
+     *     null for the alternates without keywords.
+     * @throws NoSuchKeywordException if the NAXIS keyword is not found.
+     */
+    static KeywordCompiler[] compileAll(WCSKeywords keywords) throws NoSuchKeywordException {
+        return scan(keywords, -1);
+    }
+
+    // Compiles the WCS with the alternate index, or all of them if the index is -1.
+    private static KeywordCompiler[] scan(WCSKeywords keywords, int index) throws NoSuchKeywordException {
+        // NAXIS sizes the arrays, so it is read before the pass over the keywords.
+        if (!keywords.containsKey("NAXIS")) {
+            throw new NoSuchKeywordException("NAXIS");
+        }
+        int naxis = keywords.getIntValue("NAXIS");
+        KeywordCompiler[] compiled = new KeywordCompiler[ALTERNATES + 1];
+        // The compilers of all the alternates are created by the first key of each letter.
+        boolean all = index == -1;
+        int k0 = all ? 0 : index;
+        compiled[k0] = new KeywordCompiler(keywords, naxis, k0 == 0 ? ' ' : (char) ('A' + k0 - 1));
+
+        if (keywords instanceof CompactWCSKeywords) {
+            CompactWCSKeywords compact = (CompactWCSKeywords) keywords;
+            for (int n = 0; n < compact.size(); n++) {
+                card(compiled, all, compact.getKey(n), null);
+            }
+        } else {
+            Iterator<Map.Entry<String, Object>> iter = keywords.iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, Object> me = iter.next();
+                card(compiled, all, me.getKey(), me.getValue());
+            }
+        }
+
+        for (int k = 0; k <= ALTERNATES; k++) {
+            if (compiled[k] != null) {
+                compiled[k].finish();
+                if (k > 0 && compiled[k].cards == 0) {
+                    compiled[k] = null;
+                }
+            }
+        }
+        return compiled;
+    }
+
+    // Passes a keyword to the compiler of its WCS, if that WCS is being compiled.
+    private static void card(KeywordCompiler[] compiled, boolean all, String key, Object value) {
+        if (key.length() < 3) {
+            return;
+        }
+        int end = key.length();
+        int k = 0;
+        char last = key.charAt(end - 1);
+        // LONPOLE, LATPOLE, RESTFRQ and RESTWAV end with a letter in the primary WCS.
+        if (last >= 'A' && last <= 'Z' && !(end == 7 && isScalar(key))) {
+            k = last - 'A' + 1;
+            end--;
+            if (all && compiled[k] == null) {
+                compiled[k] = new KeywordCompiler(compiled[0].keywords, compiled[0].naxis, last);
+            }
+        }
+        if (compiled[k] != null) {
+            compiled[k].card(key, end, value);
+        }
+    }
+
+    private static boolean isScalar(String key) {
+        return key.startsWith("LONPOLE") || key.startsWith("LATPOLE") || key.startsWith("RESTFRQ")
+            || key.startsWith("RESTWAV");
+    }
+
+    // Classifies the keyword key[0] to key[end - 1] and stores its value, value is null
+    // to read it from the keywords.
+    private void card(String key, int end, Object value) {
+        int i;
+        switch (key.charAt(0)) {
+            case 'C':
+                if (key.startsWith("CRPIX")) {
+                    i = axisIndex(key, 5, end, naxis);
+                    if (i >= 0) {
+                        crpix = allocate(crpix, naxis);
+                        crpix[i] = doubleValue(key, value);
+                    }
+                } else if (key.startsWith("CDELT")) {
+                    i = axisIndex(key, 5, end, naxis);
+                    if (i >= 0) {
+                        cdelt = allocate(cdelt, naxis);
+                        cdelt[i] = doubleValue(key, value);
+                    }
+                } else if (key.startsWith("CRVAL")) {
+                    i = axisIndex(key, 5, end, naxis);
+                    if (i >= 0) {
+                        crval = allocate(crval, naxis);
+                        crval[i] = doubleValue(key, value);
+                    }
+                } else if (key.startsWith("CUNIT")) {
+                    i = axisIndex(key, 5, end, naxis);
+                    if (i >= 0) {
+                        cunit = allocate(cunit, naxis);
+                        cunit[i] = stringValue(key, value);
+                    }
+                } else if (key.startsWith("CTYPE")) {
+                    i = axisIndex(key, 5, end, naxis);
+                    if (i >= 0) {
+                        ctype = allocate(ctype, naxis);
+                        ctype[i] = stringValue(key, value);
+                    }
+                } else if (key.startsWith("CROTA")) {
+                    i = axisIndex(key, 5, end, naxis);
+                    if (i >= 0) {
+                        crota = allocate(crota, naxis);
+                        crota[i] = doubleValue(key, value);
+                    }
+                } else if (key.charAt(1) == 'D') {
+                    i = matrixIndex(key, end, naxis);
+                    if (i >= 0) {
+                        cd = allocate(cd, naxis * naxis);
+                        cd[i] = doubleValue(key, value);
+                        hasCD |= i == 0;
+                    }
+                }
+                break;
+            case 'P':
+                if (key.charAt(1) == 'C') {
+                    i = matrixIndex(key, end, naxis);
+                    if (i >= 0) {
+                        pc = allocate(pc, naxis * naxis);
+                        pc[i] = doubleValue(key, value);
+                        hasPC |= i == 0;
+                    }
+                } else if (key.charAt(1) == 'V') {
+                    i = parameterIndex(key, end, naxis);
+                    if (i >= 0) {
+                        if (pvValues == null) {
+                            pvValues = new double[naxis * naxis];
+                            pvFound = new boolean[naxis * naxis];
+                        }
+                        npv += pvFound[i] ? 0 : 1;
+                        pvFound[i] = true;
+                        pvValues[i] = doubleValue(key, value);
+                    }
+                } else if (key.charAt(1) == 'S') {
+                    i = parameterIndex(key, end, naxis);
+                    if (i >= 0) {
+                        psValues = allocate(psValues, naxis * naxis);
+                        nps += psValues[i] == null ? 1 : 0;
+                        psValues[i] = stringValue(key, value);
+                    }
+                }
+                break;
+            case 'L':
+                if (end == 7 && key.startsWith("LONPOLE")) {
+                    lonpole[0] = doubleValue(key, value);
+                } else if (end == 7 && key.startsWith("LATPOLE")) {
+                    latpole[0] = doubleValue(key, value);
+                }
+                break;
+            case 'R':
+                if (end == 7 && key.startsWith("RESTFRQ")) {
+                    restfrq[0] = doubleValue(key, value);
+                } else if (end == 7 && key.startsWith("RESTWAV")) {
+                    restwav[0] = doubleValue(key, value);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Drops the unused matrices and writes PVi_m and PSi_m in order of axis and parameter.
+    private void finish() {
+        if (!hasPC) {
+            pc = null;
+        }
+        if (!hasCD) {
+            cd = null;
+        }
+        if (npv > 0) {
+            pvi = new int[npv];
+            pvm = new int[npv];
+            pvv = new double[npv];
+            for (int n = 0, k = 0; k < pvFound.length; k++) {
+                if (pvFound[k]) {
+                    pvi[n] = k / naxis + 1;
+                    pvm[n] = k % naxis;
+                    pvv[n++] = pvValues[k];
+                }
+            }
+        }
+        if (nps > 0) {
+            psi = new int[nps];
+            psm = new int[nps];
+            psv = new String[nps];
+            for (int n = 0, k = 0; k < psValues.length; k++) {
+                if (psValues[k] != null) {
+                    psi[n] = k / naxis + 1;
+                    psm[n] = k % naxis;
+                    psv[n++] = psValues[k];
+                }
+            }
+        }
+        pvValues = null;
+        pvFound = null;
+        psValues = null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof KeywordCompiler)) {
+            return false;
+        }
+        KeywordCompiler other = (KeywordCompiler) obj;
+        return naxis == other.naxis && alternate == other.alternate && Arrays.equals(crpix, other.crpix)
+            && Arrays.equals(pc, other.pc) && Arrays.equals(cdelt, other.cdelt) && Arrays.equals(crval, other.crval)
+            && Arrays.equals(cunit, other.cunit) && Arrays.equals(ctype, other.ctype)
+            && Arrays.equals(lonpole, other.lonpole) && Arrays.equals(latpole, other.latpole)
+            && Arrays.equals(restfrq, other.restfrq) && Arrays.equals(restwav, other.restwav)
+            && Arrays.equals(pvi, other.pvi) && Arrays.equals(pvm, other.pvm) && Arrays.equals(pvv, other.pvv)
+            && Arrays.equals(psi, other.psi) && Arrays.equals(psm, other.psm) && Arrays.equals(psv, other.psv)
+            && Arrays.equals(cd, other.cd) && Arrays.equals(crota, other.crota);
+    }
+
+    @Override
+    public int hashCode() {
+        // The values that differ between the headers of one instrument.
+        int hash = 31 * naxis + alternate;
+        hash = 31 * hash + Arrays.hashCode(crval);
+        hash = 31 * hash + Arrays.hashCode(crpix);
+        hash = 31 * hash + Arrays.hashCode(ctype);
+        hash = 31 * hash + Arrays.hashCode(pc);
+        hash = 31 * hash + Arrays.hashCode(cd);
+        hash = 31 * hash + Arrays.hashCode(cdelt);
+        return 31 * hash + Arrays.hashCode(pvv);
+    }
+
+    // Parses a decimal number from key[start] to key[end - 1], -1 if it is not a number
+    // without leading zeros.
+    private static int parseNumber(String key, int start, int end) {
+        if (start >= end || end - start > 6 || (key.charAt(start) == '0' && end - start > 1)) {
+            return -1;
+        }
+        int number = 0;
+        for (int k = start; k < end; k++) {
+            char c = key.charAt(k);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    // Array index of the axis number in key[start] to key[end - 1], -1 if not 1 to naxis.
+    private static int axisIndex(String key, int start, int end, int naxis) {
+        int axis = parseNumber(key, start, end);
+        return axis >= 1 && axis <= naxis ? axis - 1 : -1;
+    }
+
+    // Array index of a PCi_j or CDi_j key in the naxis x naxis matrix, -1 if it is not one.
+    private static int matrixIndex(String key, int end, int naxis) {
+        int sep = key.indexOf('_', 2);
+        if (sep < 0) {
+            return -1;
+        }
+        int i = axisIndex(key, 2, sep, naxis);
+        int j = axisIndex(key, sep + 1, end, naxis);
+        return i >= 0 && j >= 0 ? i * naxis + j : -1;
+    }
+
+    // Index of a PVi_m or PSi_m key as (i - 1) * naxis + m, -1 if it is not one.
+    private static int parameterIndex(String key, int end, int naxis) {
+        int sep = key.indexOf('_', 2);
+        if (sep < 0) {
+            return -1;
+        }
+        int i = axisIndex(key, 2, sep, naxis);
+        int m = parseNumber(key, sep + 1, end);
+        return i >= 0 && m >= 0 && m < naxis ? i * naxis + m : -1;
+    }
+
+    private double doubleValue(String key, Object value) {
+        cards++;
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return keywords.getDoubleValue(key);
+    }
+
+    private String stringValue(String key, Object value) {
+        cards++;
+        if (value != null) {
+            return value.toString();
+        }
+        return keywords.getStringValue(key);
+    }
+
+    private static double[] allocate(double[] array, int length) {
+        return array == null ? new double[length] : array;
+    }
+
+    private static String[] allocate(String[] array, int length) {
+        return array == null ? new String[length] : array;
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Accounts for the native wcsprm structs held by all Transforms: the number of live
+ * structs and their estimated memory, see Transform.getNativeSize().
+ *
+ * <p>A struct is freed when its Transform is closed, when a TransformCache evicts its
+ * Transform, or by a daemon thread once its Transform has been garbage collected.
+ * getCleanedCount() counts the structs freed by the daemon thread, so it grows when
+ * Transforms are dropped without being closed.
+ *
+ * <p>The limit caps the native memory of cached Transforms: while the live memory
+ * exceeds the limit, TransformCache evicts and frees its least recently used Transforms.
+ * Transforms that are not cached are not refused when the limit is exceeded.
+ */
+public final class NativeMemory {
+    private static final Logger log = Logger.getLogger(NativeMemory.class);
+
+    private static final ReferenceQueue<Transform> queue = new ReferenceQueue<Transform>();
+
+    // Live handles, which keeps them reachable until their struct is freed.
+    private static final Set<Handle> handles = Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+
+    private static final AtomicLong bytes = new AtomicLong();
+    private static final AtomicLong peakBytes = new AtomicLong();
+    private static final AtomicLong cleaned = new AtomicLong();
+    private static volatile long limit = Long.MAX_VALUE;
+
+    static {
+        Thread cleaner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                clean();
+            }
+        }, "cadc-wcs-native-cleaner");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    private NativeMemory() {
+    }
+
+    /**
+     * @return number of live native wcsprm structs.
+     */
+    public static int getHandleCount() {
+        return handles.size();
+    }
+
+    /**
+     * @return estimated native memory of the live wcsprm structs in bytes.
+     */
+    public static long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return highest estimated native memory of the live wcsprm structs in bytes.
+     */
+    public static long getPeakBytes() {
+        return peakBytes.get();
+    }
+
+    /**
+     * @return number of wcsprm structs freed after their Transform was garbage collected.
+     */
+    public static long getCleanedCount() {
+        return cleaned.get();
+    }
+
+    /**
+     * @return the limit of the native memory in bytes, Long.MAX_VALUE if there is no limit.
+     */
+    public static long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets the limit of the native memory, see the class description.
+     *
+     * @param maxBytes the limit in bytes, Long.MAX_VALUE for no limit.
+     */
+    public static void setLimit(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        limit = maxBytes;
+    }
+
+    /**
+     * @return true if the live native memory exceeds the limit.
+     */
+    public static boolean isOverLimit() {
+        return bytes.get() > limit;
+    }
+
+    /**
+     * Registers a prepared wcsprm struct of a Transform.
+     *
+     * @param owner the Transform.
+     * @param lock the lock of the Transform that guards calls on the struct.
+     * @param address address of the struct.
+     * @param size estimated native memory of the struct.
+     * @return handle that frees the struct.
+     */
+    static Handle register(Transform owner, Object lock, long address, long size) {
+        Handle handle = new Handle(owner, lock, address, size);
+        handles.add(handle);
+        long total = bytes.addAndGet(size);
+        long peak = peakBytes.get();
+        while (total > peak && !peakBytes.compareAndSet(peak, total)) {
+            peak = peakBytes.get();
+        }
+        if (total > limit) {
+            log.debug("native memory " + total + " exceeds limit " + limit);
+        }
+        return handle;
+    }
+
+    // Frees the structs of the garbage collected Transforms.
+    private static void clean() {
+        while (true) {
+            try {
+                Handle handle = (Handle) queue.remove();
+                if (handle.free()) {
+                    cleaned.incrementAndGet();
+                }
+            } catch (InterruptedException ex) {
+                log.debug("native cleaner interrupted");
+                return;
+            } catch (Throwable t) {
+                log.error("failed to free native wcsprm struct", t);
+            }
+        }
+    }
+
+    /**
+     * Native wcsprm struct of a Transform, freed explicitly or once the Transform is
+     * phantom reachable. The struct is freed under the lock of the Transform, so it is
+     * not freed while a call on it is in progress.
+     */
+    static final class Handle extends PhantomReference<Transform> {
+        private final Object lock;
+        private final long size;
+
+        // Guarded by lock, 0 once freed.
+        private long address;
+
+        private Handle(Transform owner, Object lock, long address, long size) {
+            super(owner, queue);
+            this.lock = lock;
+            this.address = address;
+            this.size = size;
+        }
+
+        /**
+         * @return address of the struct, call with the lock held.
+         */
+        long getAddress() {
+            return address;
+        }
+
+        /**
+         * Frees the struct unless it was already freed.
+         *
+         * @return true if the struct was freed by this call.
+         */
+        boolean free() {
+            synchronized (lock) {
+                if (address == 0L) {
+                    return false;
+                }
+                WCSLib.free(address);
+                address = 0L;
+            }
+            clear();
+            if (handles.remove(this)) {
+                bytes.addAndGet(-size);
+            }
+            return true;
+        }
+    }
+}
@@ -70,10 +70,18 @@
 package ca.nrc.cadc.wcs;
 
 import ca.nrc.cadc.wcs.exceptions.NoSuchKeywordException;
+import ca.nrc.cadc.wcs.TransformMetrics.Call;
+import ca.nrc.cadc.wcs.exceptions.WCSLibRuntimeException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Java class to provide access to the WCSLIB 4.2 wcsp2s() and wcss2p() C methods
@@ -107,16 +115,48 @@ import java.util.Map;
  * CDi_j   - Spectrum coordinate matrix.
  * CROTAi  - Coordinate rotation.
  *
- * <p>The Transform constructor takes the WCS keywords and populates common variables and
- * arrays used as arguments to the WCSLIB methods. The pix2sky() and sky2pix() methods
- * take double arrays as the pixel or world coordinates to be transformed, and return
- * double arrays with the transformed coordinates.
+ * <p>The Transform constructor takes the WCS keywords, populates common variables and
+ * arrays, and uses them to build and set up a native WCSLIB wcsprm struct once. The
+ * pix2sky() and sky2pix() methods take double arrays as the pixel or world coordinates
+ * to be transformed, and return double arrays with the transformed coordinates.
+ *
+ * <p>close() frees the native wcsprm struct, otherwise it is freed once the Transform
+ * has been garbage collected, see NativeMemory. Transforms shared by a TransformCache
+ * must not be closed.
  *
  * @author jburke
  */
-public class Transform {
+public class Transform implements AutoCloseable {
+    /**
+     * Status of a coordinate when the pixel coordinate was invalid.
+     */
+    public static final int BAD_PIX = WCSLib.BAD_PIX;
+
+    /**
+     * Status of a coordinate when the world coordinate was invalid.
+     */
+    public static final int BAD_WORLD = WCSLib.BAD_WORLD;
+
+    /**
+     * System property which, when set to true, disables the pure Java transformations
+     * so all transformations use WCSLIB.
+     */
+    public static final String WCSLIB_ONLY_PROPERTY = Transform.class.getName() + ".wcslibOnly";
+
     private static final String LF = System.getProperty("line.separator");
 
+    // Number of grid points per WCSLib call when a grid is transformed by WCSLib.
+    private static final int GRID_CHUNK = 65536;
+
+    // Number of pixel intervals sampled along an axis by the interval methods.
+    private static final int INTERVAL_SAMPLES = 64;
+
+    // Maximum number of spectral translations kept by a Transform for translateTransform().
+    private static final int MAX_TRANSLATIONS = 8;
+
+    // Metrics of the calls of all transforms, null when metrics are disabled.
+    private static volatile TransformMetrics metrics;
+
     // Array index of spectral axis for spectral translation
     // value of -1 will let wcslib determine the spectral axis array index
     private static final int spectralAxis = -1;
@@ -175,227 +215,1462 @@ public class Transform {
     // PSi_ma - Parameter value.
     private String[] psv;
 
-    // CDi_j - Spectrum coordinate matrix.
-    private double[] cd;
+    // CDi_j - Spectrum coordinate matrix.
+    private double[] cd;
+
+    // CROTAi - Coordinate rotation.
+    private double[] crota;
+
+    // CTYPEi with TNX changed to TAN, as passed to WCSLib.
+    private String[] wcsctype;
+
+    // Native wcsprm struct prepared by WCSLib, null once released, guarded by nativeLock.
+    private NativeMemory.Handle nativeHandle;
+
+    // True once closed, set with nativeLock held.
+    private volatile boolean closed;
+
+    // Independent axis groups, the group of each axis is its lowest axis index.
+    private final int[] axisGroups;
+
+    // Units of the world coordinates, read once from the prepared wcsprm struct.
+    private final String[] units;
+    private final List<String> unitList;
+
+    // Pure Java transformations, null if the WCS needs WCSLib.
+    private final JavaTransform engine;
+
+    // The wcsprm struct is used by one thread at a time, independent Transforms run in parallel.
+    private final Object nativeLock = new Object();
+
+    // Prepared spectral translations of this Transform by spectral ctype, access ordered.
+    private final Map<String, Transform> translations = new LinkedHashMap<String, Transform>(16, 0.75f, true);
+
+    // Transform of the primary WCS of the keywords, null if this is the primary WCS.
+    private final Transform primary;
+
+    // Transform that owns this alternate or translation, null if it is not owned.
+    private final Transform owner;
+
+    // Estimated native memory of the owned alternates and translations, and of those they own.
+    private final AtomicLong ownedNativeSize = new AtomicLong();
+    private final boolean useJava;
+
+    // Alternate WCS A to Z at index 1 to 26, compiled together on first use.
+    private KeywordCompiler[] alternateKeywords;
+    private Transform[] alternates;
+
+    // force WCSLib to be loaded to we can immediately fail when JNI and native
+    // loadLibrary fails
+    static {
+        double d = WCSLib.UNDEFINED;
+    }
+
+    /**
+     * Sets the metrics recorded for the calls of all transforms. Metrics are disabled
+     * by default, and setting null disables them again.
+     *
+     * @param metrics the metrics to record calls to, or null.
+     * @see TransformStatistics#install()
+     */
+    public static void setMetrics(TransformMetrics metrics) {
+        Transform.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics recorded for the calls of all transforms, or null if disabled.
+     */
+    public static TransformMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Constructs a new Transform class initializing variable and array
+     * arguments to the native wrapper methods using the WCSKeywords.
+     *
+     * <p>Simple linear, TAN, SIN and CAR WCS are transformed in Java without calls
+     * to WCSLib, see WCSLIB_ONLY_PROPERTY. Their native wcsprm struct is only prepared
+     * when a call needs WCSLib.
+     *
+     * @param wcs implementation of WCSKeywords.
+     * @throws NoSuchKeywordException if NAXIS keyword is not found in WCSKeywords.
+     */
+    public Transform(WCSKeywords wcs) throws NoSuchKeywordException {
+        this(wcs, !Boolean.getBoolean(WCSLIB_ONLY_PROPERTY));
+    }
+
+    /**
+     * Constructs a new Transform, optionally with the pure Java transformations disabled.
+     *
+     * @param wcs implementation of WCSKeywords.
+     * @param useJava true to use the pure Java transformations when they support the WCS.
+     * @throws NoSuchKeywordException if NAXIS keyword is not found in WCSKeywords.
+     */
+    Transform(WCSKeywords wcs, boolean useJava) throws NoSuchKeywordException {
+        // Classify the WCS keywords in one pass, NAXIS keyword must be present.
+        this(wcs, KeywordCompiler.compile(wcs), useJava, null);
+    }
+
+    /**
+     * Constructs the Transform of the primary WCS of keywords compiled with all their
+     * alternates, so the keywords are not compiled again by getAlternate().
+     *
+     * @param wcs the WCS keywords.
+     * @param compiled the compiled WCS from KeywordCompiler.compileAll().
+     */
+    Transform(WCSKeywords wcs, KeywordCompiler[] compiled) {
+        this(wcs, compiled[0], !Boolean.getBoolean(WCSLIB_ONLY_PROPERTY), null);
+        alternateKeywords = compiled;
+    }
+
+    /**
+     * Constructs the Transform of compiled WCS keywords.
+     *
+     * @param wcs the WCS keywords.
+     * @param compiled the compiled primary or alternate WCS of the keywords.
+     * @param useJava true to use the pure Java transformations when they support the WCS.
+     * @param primary Transform of the primary WCS, or null if this is the primary WCS.
+     */
+    private Transform(WCSKeywords wcs, KeywordCompiler compiled, boolean useJava, Transform primary) {
+        keywords = wcs;
+        this.primary = primary;
+        owner = primary;
+        this.useJava = useJava;
+        naxis = compiled.naxis;
+        crpix = compiled.crpix;
+        pc = compiled.pc;
+        cdelt = compiled.cdelt;
+        crval = compiled.crval;
+        cunit = compiled.cunit;
+        ctype = compiled.ctype;
+        lonpole = compiled.lonpole;
+        latpole = compiled.latpole;
+        restfrq = compiled.restfrq;
+        restwav = compiled.restwav;
+        pvi = compiled.pvi;
+        pvm = compiled.pvm;
+        pvv = compiled.pvv;
+        psi = compiled.psi;
+        psm = compiled.psm;
+        psv = compiled.psv;
+        cd = compiled.cd;
+        crota = compiled.crota;
+
+        // Change TNX to TAN in ctype.
+        wcsctype = ctype == null ? null : (String[]) ctype.clone();
+        changeTNXToTAN(wcsctype);
+        axisGroups = findAxisGroups();
+
+        // Supported WCS are transformed in Java, without JNI calls or locking.
+        engine = useJava ? JavaTransform.create(naxis, crpix, pc, cdelt, crval, cunit, wcsctype, lonpole[0],
+                                                latpole[0], pvv, psv, cd, crota) : null;
+        String[] engineUnits = engine == null || cunit == null ? null : engine.getUnits(cunit);
+
+        if (engine != null && (cunit == null || engineUnits != null)) {
+            // The native wcsprm struct is prepared on demand by the calls that need WCSLib.
+            units = cunit == null ? new String[naxis] : engineUnits;
+        } else {
+            // Build and set up the native wcsprm struct once for all transformations.
+            long handle = WCSLib.prepare(naxis, crpix, pc, cdelt, crval, cunit, wcsctype, lonpole, latpole,
+                                         restfrq, restwav, pvi, pvm, pvv, psi, psm, psv, cd, crota);
+            register(handle);
+            units = cunit == null ? new String[naxis] : WCSLib.units(handle, naxis);
+        }
+        unitList = Collections.unmodifiableList(Arrays.asList(units.clone()));
+    }
+
+    /**
+     * Constructs the Transform of the WCS of source with the spectral axis translated
+     * to spectral_ctype, without a round trip through WCSKeywords.
+     *
+     * @param source Transform of the WCS to translate.
+     * @param spectral_ctype spectral CTYPE.
+     */
+    private Transform(Transform source, String spectral_ctype) {
+        keywords = source.keywords;
+        primary = source.getPrimary();
+        owner = source;
+        useJava = source.useJava;
+        naxis = source.naxis;
+
+        // WCSLib translates crpix, cdelt, crval, cunit, ctype and the scalar keywords in place.
+        crpix = source.crpix == null ? null : source.crpix.clone();
+        cdelt = source.cdelt == null ? null : source.cdelt.clone();
+        crval = source.crval == null ? null : source.crval.clone();
+        cunit = source.cunit == null ? null : source.cunit.clone();
+        ctype = source.wcsctype == null ? null : source.wcsctype.clone();
+        lonpole = source.lonpole.clone();
+        latpole = source.latpole.clone();
+        restfrq = source.restfrq.clone();
+        restwav = source.restwav.clone();
+        pc = source.pc;
+        cd = source.cd;
+        crota = source.crota;
+        pvi = source.pvi;
+        pvm = source.pvm;
+        pvv = source.pvv;
+        psi = source.psi;
+        psm = source.psm;
+        psv = source.psv;
+        WCSLib.translate(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav,
+                         pvi, pvm, pvv, psi, psm, psv, cd, crota, spectralAxis, spectral_ctype);
+        wcsctype = ctype;
+        axisGroups = source.axisGroups;
+
+        long handle = WCSLib.prepare(naxis, crpix, pc, cdelt, crval, cunit, wcsctype, lonpole, latpole, restfrq,
+                                     restwav, pvi, pvm, pvv, psi, psm, psv, cd, crota);
+        register(handle);
+        units = cunit == null ? new String[naxis] : WCSLib.units(handle, naxis);
+        unitList = Collections.unmodifiableList(Arrays.asList(units.clone()));
+
+        // A spectral axis always needs WCSLib.
+        engine = null;
+    }
+
+    /**
+     * Constructs the Transform of the given axes of the WCS of source. The keyword
+     * arrays are selected from those of source. If the axes need WCSLib, the native
+     * wcsprm struct is extracted from the prepared struct of source by WCSLib.
+     *
+     * @param source Transform of the WCS to extract the axes from.
+     * @param axes axis numbers (1-relative) of source, in the order of the new WCS.
+     */
+    private Transform(Transform source, int[] axes) {
+        primary = null;
+        owner = null;
+        useJava = source.useJava;
+        naxis = axes.length;
+
+        int[] position = new int[source.naxis + 1];
+        for (int k = 0; k < naxis; k++) {
+            position[axes[k]] = k + 1;
+        }
+        keywords = new CompactWCSKeywords();
+        keywords.put("NAXIS", naxis);
+        for (int k = 0; k < naxis; k++) {
+            String key = "NAXIS" + axes[k];
+            if (source.keywords.containsKey(key)) {
+                keywords.put("NAXIS" + (k + 1), source.keywords.getIntValue(key));
+            }
+        }
+
+        crpix = selectAxes(source.crpix, axes);
+        cdelt = selectAxes(source.cdelt, axes);
+        crval = selectAxes(source.crval, axes);
+        cunit = selectAxes(source.cunit, axes);
+        ctype = selectAxes(source.ctype, axes);
+        wcsctype = selectAxes(source.wcsctype, axes);
+        crota = selectAxes(source.crota, axes);
+        pc = selectMatrix(source.pc, source.naxis, axes);
+        cd = selectMatrix(source.cd, source.naxis, axes);
+        lonpole = source.lonpole.clone();
+        latpole = source.latpole.clone();
+        restfrq = source.restfrq.clone();
+        restwav = source.restwav.clone();
+
+        // Renumber the PVi_m and PSi_m parameters of the selected axes.
+        int count = 0;
+        for (int n = 0; source.pvi != null && n < source.pvi.length; n++) {
+            count += position[source.pvi[n]] == 0 ? 0 : 1;
+        }
+        pvi = source.pvi == null ? null : new int[count];
+        pvm = source.pvm == null ? null : new int[count];
+        pvv = source.pvv == null ? null : new double[count];
+        count = 0;
+        for (int k = 0; source.pvi != null && k < naxis; k++) {
+            for (int n = 0; n < source.pvi.length; n++) {
+                if (source.pvi[n] == axes[k]) {
+                    pvi[count] = k + 1;
+                    pvm[count] = source.pvm[n];
+                    pvv[count++] = source.pvv[n];
+                }
+            }
+        }
+        count = 0;
+        for (int n = 0; source.psi != null && n < source.psi.length; n++) {
+            count += position[source.psi[n]] == 0 ? 0 : 1;
+        }
+        psi = source.psi == null ? null : new int[count];
+        psm = source.psm == null ? null : new int[count];
+        psv = source.psv == null ? null : new String[count];
+        count = 0;
+        for (int k = 0; source.psi != null && k < naxis; k++) {
+            for (int n = 0; n < source.psi.length; n++) {
+                if (source.psi[n] == axes[k]) {
+                    psi[count] = k + 1;
+                    psm[count] = source.psm[n];
+                    psv[count++] = source.psv[n];
+                }
+            }
+        }
+        axisGroups = findAxisGroups();
+
+        engine = useJava ? JavaTransform.create(naxis, crpix, pc, cdelt, crval, cunit, wcsctype, lonpole[0],
+                                                latpole[0], pvv, psv, cd, crota) : null;
+        String[] engineUnits = engine == null || cunit == null ? null : engine.getUnits(cunit);
+
+        if (engine != null && (cunit == null || engineUnits != null)) {
+            // The native wcsprm struct is prepared from the selected keywords if a call needs WCSLib.
+            units = cunit == null ? new String[naxis] : engineUnits;
+        } else {
+            long handle;
+            if (WCSLib.isLegacy()) {
+                // A version 1 library cannot extract axes, so the selected keywords are prepared.
+                handle = WCSLib.prepare(naxis, crpix, pc, cdelt, crval, cunit, wcsctype, lonpole, latpole, restfrq,
+                                        restwav, pvi, pvm, pvv, psi, psm, psv, cd, crota);
+            } else {
+                synchronized (source.nativeLock) {
+                    handle = WCSLib.subimage(source.address(), axes);
+                }
+            }
+            register(handle);
+            units = cunit == null ? new String[naxis] : WCSLib.units(handle, naxis);
+        }
+        unitList = Collections.unmodifiableList(Arrays.asList(units.clone()));
+    }
+
+    /**
+     * Returns the independent axis groups of the WCS. Axes are in the same group if
+     * the PCi_j or CDi_j matrix couples them, if they are the celestial axes, or if
+     * they have a CROTAi rotation. The world coordinates of the axes in a group depend
+     * only on the pixel coordinates of those axes, so in a cube with no cross terms
+     * the spectral axis is a group of its own.
+     *
+     * @return the group of each axis, which is the lowest axis index in the group.
+     */
+    public int[] getAxisGroups() {
+        return axisGroups.clone();
+    }
+
+    /**
+     * @return true if the transformations run in Java rather than in WCSLib.
+     */
+    boolean isJava() {
+        return engine != null;
+    }
+
+    /**
+     * Estimates the native memory held by the prepared wcsprm struct: the struct and
+     * its lin, cel, prj and spc members, plus the per-axis arrays and parameters
+     * allocated by wcsini().
+     *
+     * @return estimated native memory in bytes.
+     */
+    long getNativeSize() {
+        long size = 8192L;
+        size += naxis * (3L * 72L + 12L * 8L);
+        size += naxis * (long) naxis * 3L * 8L;
+        size += (pvv == null ? 0 : pvv.length) * 16L;
+        size += (psv == null ? 0 : psv.length) * 80L;
+        return size;
+    }
+
+    /**
+     * Estimates the native memory of the Transform and of the alternates and spectral
+     * translations it owns, which are released with it.
+     *
+     * @return estimated native memory in bytes.
+     */
+    long getTotalNativeSize() {
+        return getNativeSize() + ownedNativeSize.get();
+    }
+
+    /**
+     * Returns the units of the world coordinate axes. The units do not change for
+     * a Transform, the elements are null if the WCS has no CUNITi keywords.
+     *
+     * @return unmodifiable list of the units of each axis.
+     */
+    public List<String> getUnits() {
+        return unitList;
+    }
+
+    /**
+     * Transforms pixel coordinates to world coordinates. Method takes a double array of
+     * pixel coordinates, and returns a double array of the translated world coordinates.
+     *
+     * @param pixcrd double array of pixel coordinates
+     * @return double array of world coordinates.
+     */
+    public Result pix2sky(double[] pixcrd) {
+        TransformMetrics m = metrics;
+        long start = m == null ? 0L : System.nanoTime();
+        double[] world = new double[pixcrd.length];
+        long call = m == null ? 0L : System.nanoTime();
+        int status = doPix2sky(1, pixcrd.length, pixcrd, 0, world, 0, null);
+        long returned = m == null ? 0L : System.nanoTime();
+        checkStatus(status);
+        Result result = new Result(world, unitsCopy(pixcrd.length));
+        if (m != null) {
+            m.recordMarshal(Call.PIX2SKY, 1, call - start + System.nanoTime() - returned);
+        }
+        return result;
+    }
+
+    /**
+     * Transforms world coordinates to pixel coordinates. Method takes a double array of
+     * world coordinates, and returns a double array of the transformed pixel coordinates.
+     *
+     * @param world double array of world coordinates.
+     * @return double array of pixel coordinates.
+     */
+    public Result sky2pix(double[] world) {
+        TransformMetrics m = metrics;
+        long start = m == null ? 0L : System.nanoTime();
+        double[] pixcrd = new double[world.length];
+        long call = m == null ? 0L : System.nanoTime();
+        int status = doSky2pix(1, world.length, world, 0, pixcrd, 0, null);
+        long returned = m == null ? 0L : System.nanoTime();
+        checkStatus(status);
+        Result result = new Result(pixcrd, unitsCopy(world.length));
+        if (m != null) {
+            m.recordMarshal(Call.SKY2PIX, 1, call - start + System.nanoTime() - returned);
+        }
+        return result;
+    }
+
+    /**
+     * Transforms one pixel coordinate of NAXIS elements to a world coordinate, writing
+     * the result into the caller's array so no arrays are allocated.
+     *
+     * @param pixcrd array holding the pixel coordinate.
+     * @param pixOffset index of the first element of the pixel coordinate.
+     * @param world array to hold the world coordinate.
+     * @param worldOffset index of the first element of the world coordinate.
+     * @return 0 if the coordinate was transformed, BAD_PIX if the pixel coordinate was invalid.
+     */
+    public int pix2sky(double[] pixcrd, int pixOffset, double[] world, int worldOffset) {
+        return pix2sky(pixcrd, pixOffset, world, worldOffset, 1, null);
+    }
+
+    /**
+     * Transforms ncoord pixel coordinates of NAXIS elements each to world coordinates in
+     * a single call to WCSLib, writing the results into the caller's arrays so no arrays
+     * are allocated.
+     *
+     * @param pixcrd array holding the pixel coordinates.
+     * @param pixOffset index of the first element of the pixel coordinates.
+     * @param world array to hold the world coordinates.
+     * @param worldOffset index of the first element of the world coordinates.
+     * @param ncoord number of coordinates.
+     * @param status array for the status of each coordinate, may be null.
+     * @return 0 if all coordinates were transformed, BAD_PIX if one or more of the pixel
+     *     coordinates were invalid.
+     */
+    public int pix2sky(double[] pixcrd, int pixOffset, double[] world, int worldOffset, int ncoord, int[] status) {
+        checkRange(pixcrd.length, pixOffset, ncoord);
+        checkRange(world.length, worldOffset, ncoord);
+        checkStatusLength(status, ncoord);
+        if (ncoord == 0) {
+            return 0;
+        }
+        return doPix2sky(ncoord, naxis, pixcrd, pixOffset, world, worldOffset, status);
+    }
+
+    /**
+     * Transforms one world coordinate of NAXIS elements to a pixel coordinate, writing
+     * the result into the caller's array so no arrays are allocated.
+     *
+     * @param world array holding the world coordinate.
+     * @param worldOffset index of the first element of the world coordinate.
+     * @param pixcrd array to hold the pixel coordinate.
+     * @param pixOffset index of the first element of the pixel coordinate.
+     * @return 0 if the coordinate was transformed, BAD_WORLD if the world coordinate was invalid.
+     */
+    public int sky2pix(double[] world, int worldOffset, double[] pixcrd, int pixOffset) {
+        return sky2pix(world, worldOffset, pixcrd, pixOffset, 1, null);
+    }
+
+    /**
+     * Transforms ncoord world coordinates of NAXIS elements each to pixel coordinates in
+     * a single call to WCSLib, writing the results into the caller's arrays so no arrays
+     * are allocated.
+     *
+     * @param world array holding the world coordinates.
+     * @param worldOffset index of the first element of the world coordinates.
+     * @param pixcrd array to hold the pixel coordinates.
+     * @param pixOffset index of the first element of the pixel coordinates.
+     * @param ncoord number of coordinates.
+     * @param status array for the status of each coordinate, may be null.
+     * @return 0 if all coordinates were transformed, BAD_WORLD if one or more of the world
+     *     coordinates were invalid.
+     */
+    public int sky2pix(double[] world, int worldOffset, double[] pixcrd, int pixOffset, int ncoord, int[] status) {
+        checkRange(world.length, worldOffset, ncoord);
+        checkRange(pixcrd.length, pixOffset, ncoord);
+        checkStatusLength(status, ncoord);
+        if (ncoord == 0) {
+            return 0;
+        }
+        return doSky2pix(ncoord, naxis, world, worldOffset, pixcrd, pixOffset, status);
+    }
+
+    /**
+     * Transforms ncoord pixel coordinates of NAXIS elements each to world coordinates in
+     * a single call to WCSLib. WCSLib reads the pixel coordinates and writes the world
+     * coordinates in place, so the buffers must be direct and in native byte order. The
+     * coordinates are read from the position of pixcrd and written at the position of
+     * world, and the position of both buffers is advanced past the coordinates.
+     *
+     * @param pixcrd direct buffer holding the pixel coordinates.
+     * @param world direct buffer to hold the world coordinates.
+     * @param ncoord number of coordinates.
+     * @param status array for the status of each coordinate, may be null.
+     * @return 0 if all coordinates were transformed, BAD_PIX if one or more of the pixel
+     *     coordinates were invalid.
+     */
+    public int pix2sky(DoubleBuffer pixcrd, DoubleBuffer world, int ncoord, int[] status) {
+        checkBuffer(pixcrd, ncoord);
+        checkBuffer(world, ncoord);
+        checkStatusLength(status, ncoord);
+        if (world.isReadOnly()) {
+            throw new IllegalArgumentException("World coordinates buffer is read-only.");
+        }
+        int ret = 0;
+        if (ncoord > 0) {
+            ret = doPix2sky(ncoord, pixcrd, world, status);
+        }
+        pixcrd.position(pixcrd.position() + ncoord * naxis);
+        world.position(world.position() + ncoord * naxis);
+        return ret;
+    }
+
+    /**
+     * Transforms ncoord world coordinates of NAXIS elements each to pixel coordinates in
+     * a single call to WCSLib. WCSLib reads the world coordinates and writes the pixel
+     * coordinates in place, so the buffers must be direct and in native byte order. The
+     * coordinates are read from the position of world and written at the position of
+     * pixcrd, and the position of both buffers is advanced past the coordinates.
+     *
+     * @param world direct buffer holding the world coordinates.
+     * @param pixcrd direct buffer to hold the pixel coordinates.
+     * @param ncoord number of coordinates.
+     * @param status array for the status of each coordinate, may be null.
+     * @return 0 if all coordinates were transformed, BAD_WORLD if one or more of the world
+     *     coordinates were invalid.
+     */
+    public int sky2pix(DoubleBuffer world, DoubleBuffer pixcrd, int ncoord, int[] status) {
+        checkBuffer(world, ncoord);
+        checkBuffer(pixcrd, ncoord);
+        checkStatusLength(status, ncoord);
+        if (pixcrd.isReadOnly()) {
+            throw new IllegalArgumentException("Pixel coordinates buffer is read-only.");
+        }
+        int ret = 0;
+        if (ncoord > 0) {
+            ret = doSky2pix(ncoord, world, pixcrd, status);
+        }
+        world.position(world.position() + ncoord * naxis);
+        pixcrd.position(pixcrd.position() + ncoord * naxis);
+        return ret;
+    }
+
+    /**
+     * Transforms a batch of pixel coordinates to world coordinates in a single call to
+     * WCSLib. The pixel coordinates are a flat array of ncoord coordinates, each with
+     * pixcrd.length / ncoord elements (at least NAXIS), and the world coordinates are
+     * returned in the same layout.
+     *
+     * <p>Invalid pixel coordinates do not fail the batch, they are flagged in the status
+     * array of the result.
+     *
+     * @param pixcrd double array of ncoord pixel coordinates.
+     * @param ncoord number of coordinates in the array.
+     * @return double array of ncoord world coordinates and the status of each coordinate.
+     */
+    public BatchResult pix2sky(double[] pixcrd, int ncoord) {
+        int[] stat = new int[ncoord];
+        Result result = pix2sky(pixcrd, ncoord, stat);
+        return new BatchResult(result.coordinates, result.units, stat);
+    }
+
+    /**
+     * Transforms a batch of pixel coordinates to world coordinates in a single call to
+     * WCSLib. The pixel coordinates are given as one array per axis, all of the same
+     * length, and the world coordinates are returned the same way.
+     *
+     * @param pixcrd array of pixel coordinate values for each axis.
+     * @return array of world coordinate values for each axis.
+     * @throws WCSLibRuntimeException if any of the pixel coordinates are invalid.
+     */
+    public double[][] pix2sky(double[][] pixcrd) {
+        return pix2sky(pixcrd, null);
+    }
+
+    /**
+     * Transforms a batch of pixel coordinates to world coordinates in a single call to
+     * WCSLib. The pixel coordinates are given as one array per axis, all of the same
+     * length, and the world coordinates are returned the same way. The status of each
+     * coordinate is written to the status array, see {@link BatchResult#status}.
+     *
+     * @param pixcrd array of pixel coordinate values for each axis.
+     * @param status array for the status of each coordinate, or null to fail if any
+     *               coordinate is invalid.
+     * @return array of world coordinate values for each axis.
+     */
+    public double[][] pix2sky(double[][] pixcrd, int[] status) {
+        int ncoord = pixcrd.length == 0 ? 0 : pixcrd[0].length;
+        Result result = pix2sky(interleave(pixcrd, ncoord), ncoord, status);
+        return deinterleave(result.coordinates, pixcrd.length, ncoord);
+    }
+
+    /**
+     * Transforms a batch of world coordinates to pixel coordinates in a single call to
+     * WCSLib. The world coordinates are a flat array of ncoord coordinates, each with
+     * world.length / ncoord elements (at least NAXIS), and the pixel coordinates are
+     * returned in the same layout.
+     *
+     * <p>Invalid world coordinates do not fail the batch, they are flagged in the status
+     * array of the result.
+     *
+     * @param world double array of ncoord world coordinates.
+     * @param ncoord number of coordinates in the array.
+     * @return double array of ncoord pixel coordinates and the status of each coordinate.
+     */
+    public BatchResult sky2pix(double[] world, int ncoord) {
+        int[] stat = new int[ncoord];
+        Result result = sky2pix(world, ncoord, stat);
+        return new BatchResult(result.coordinates, result.units, stat);
+    }
+
+    /**
+     * Transforms a batch of world coordinates to pixel coordinates in a single call to
+     * WCSLib. The world coordinates are given as one array per axis, all of the same
+     * length, and the pixel coordinates are returned the same way.
+     *
+     * @param world array of world coordinate values for each axis.
+     * @return array of pixel coordinate values for each axis.
+     * @throws WCSLibRuntimeException if any of the world coordinates are invalid.
+     */
+    public double[][] sky2pix(double[][] world) {
+        return sky2pix(world, null);
+    }
+
+    /**
+     * Transforms a batch of world coordinates to pixel coordinates in a single call to
+     * WCSLib. The world coordinates are given as one array per axis, all of the same
+     * length, and the pixel coordinates are returned the same way. The status of each
+     * coordinate is written to the status array, see {@link BatchResult#status}.
+     *
+     * @param world array of world coordinate values for each axis.
+     * @param status array for the status of each coordinate, or null to fail if any
+     *               coordinate is invalid.
+     * @return array of pixel coordinate values for each axis.
+     */
+    public double[][] sky2pix(double[][] world, int[] status) {
+        int ncoord = world.length == 0 ? 0 : world[0].length;
+        Result result = sky2pix(interleave(world, ncoord), ncoord, status);
+        return deinterleave(result.coordinates, world.length, ncoord);
+    }
+
+    // Batch pix2sky, invalid coordinates are flagged in stat if it is not null.
+    private Result pix2sky(double[] pixcrd, int ncoord, int[] stat) {
+        TransformMetrics m = metrics;
+        long start = m == null ? 0L : System.nanoTime();
+        int nelem = getElementCount(pixcrd.length, ncoord);
+        checkStatusLength(stat, ncoord);
+        double[] world = new double[pixcrd.length];
+        long call = m == null ? 0L : System.nanoTime();
+        if (ncoord > 0) {
+            int status = doPix2sky(ncoord, nelem, pixcrd, 0, world, 0, stat);
+            if (stat == null) {
+                checkStatus(status);
+            }
+        }
+        long returned = m == null ? 0L : System.nanoTime();
+        Result result = new Result(world, unitsCopy(nelem));
+        if (m != null) {
+            m.recordMarshal(Call.PIX2SKY, ncoord, call - start + System.nanoTime() - returned);
+        }
+        return result;
+    }
+
+    // Batch sky2pix, invalid coordinates are flagged in stat if it is not null.
+    private Result sky2pix(double[] world, int ncoord, int[] stat) {
+        TransformMetrics m = metrics;
+        long start = m == null ? 0L : System.nanoTime();
+        int nelem = getElementCount(world.length, ncoord);
+        checkStatusLength(stat, ncoord);
+        double[] pixcrd = new double[world.length];
+        long call = m == null ? 0L : System.nanoTime();
+        if (ncoord > 0) {
+            int status = doSky2pix(ncoord, nelem, world, 0, pixcrd, 0, stat);
+            if (stat == null) {
+                checkStatus(status);
+            }
+        }
+        long returned = m == null ? 0L : System.nanoTime();
+        Result result = new Result(pixcrd, unitsCopy(nelem));
+        if (m != null) {
+            m.recordMarshal(Call.SKY2PIX, ncoord, call - start + System.nanoTime() - returned);
+        }
+        return result;
+    }
+
+    /**
+     * Transforms a regular grid of pixel coordinates to world coordinates. Along pixel
+     * axis i the grid has count[i] points at start[i] + k * stride[i], k = 0 .. count[i] - 1.
+     * The grid points are ordered with the first pixel axis varying fastest, so grid
+     * point (k1, k2, ...) has index k1 + count[0] * (k2 + count[1] * (...)).
+     *
+     * <p>The pure Java transformations step the linear transformation along each row
+     * of the grid, and WCSLib transforms many rows in each call.
+     *
+     * @param start pixel coordinates of the first grid point, NAXIS elements.
+     * @param stride pixel step between grid points along each axis, NAXIS elements.
+     * @param count number of grid points along each axis, NAXIS elements.
+     * @return one plane of world coordinates per axis and the status of each grid point.
+     */
+    public GridResult pix2skyGrid(double[] start, double[] stride, int[] count) {
+        if (start.length != naxis || stride.length != naxis || count.length != naxis) {
+            throw new IllegalArgumentException("Grid start, stride and count must have " + naxis + " elements.");
+        }
+        long size = 1L;
+        for (int c : count) {
+            if (c < 0) {
+                throw new IllegalArgumentException("Grid count must not be negative: " + c);
+            }
+            size *= c;
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Grid has more than " + Integer.MAX_VALUE + " points.");
+            }
+        }
+
+        int npix = (int) size;
+        double[][] planes = new double[naxis][npix];
+        int[] status = new int[npix];
+        if (npix > 0) {
+            if (isSeparable(count)) {
+                separableGrid(start, stride, count, planes, status);
+            } else {
+                transformGrid(start, stride, count, planes, status);
+            }
+        }
+        return new GridResult(count.clone(), planes, status, unitsCopy(naxis));
+    }
+
+    private void transformGrid(double[] start, double[] stride, int[] count, double[][] planes, int[] status) {
+        if (engine != null) {
+            checkOpen();
+            TransformMetrics m = metrics;
+            long begin = m == null ? 0L : System.nanoTime();
+            engine.grid(start, stride, count, planes, status);
+            if (m != null) {
+                m.record(Call.PIX2SKY, true, status.length, 0L, System.nanoTime() - begin, 0);
+            }
+        } else {
+            wcslibGrid(start, stride, count, planes, status);
+        }
+    }
+
+    // True if the grid spans more than one axis group along axes with more than one point.
+    private boolean isSeparable(int[] count) {
+        int group = -1;
+        for (int i = 0; i < naxis; i++) {
+            if (count[i] > 1) {
+                if (group == -1) {
+                    group = axisGroups[i];
+                } else if (axisGroups[i] != group) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Transforms the sub-grid of each axis group once and combines the sub-grids into
+    // the full grid, grid point (k1, k2, ...) takes the world coordinates of each group
+    // from the sub-grid point with the pixel indices of the group's axes.
+    private void separableGrid(double[] start, double[] stride, int[] count, double[][] planes, int[] status) {
+        double[][][] subPlanes = new double[naxis][][];
+        int[][] subStatus = new int[naxis][];
+        int[][] subStride = new int[naxis][];
+        for (int g = 0; g < naxis; g++) {
+            if (axisGroups[g] != g) {
+                continue;
+            }
+            int[] subCount = new int[naxis];
+            subStride[g] = new int[naxis];
+            int size = 1;
+            for (int i = 0; i < naxis; i++) {
+                if (axisGroups[i] == g) {
+                    subCount[i] = count[i];
+                    subStride[g][i] = size;
+                    size *= count[i];
+                } else {
+                    subCount[i] = 1;
+                }
+            }
+            subPlanes[g] = new double[naxis][size];
+            subStatus[g] = new int[size];
+            transformGrid(start, stride, subCount, subPlanes[g], subStatus[g]);
+        }
+
+        // Step the pixel indices through the grid, keeping the sub-grid index of each group.
+        int[] k = new int[naxis];
+        int[] subIndex = new int[naxis];
+        for (int n = 0; n < status.length; n++) {
+            int stat = 0;
+            for (int i = 0; i < naxis; i++) {
+                int g = axisGroups[i];
+                planes[i][n] = subPlanes[g][i][subIndex[g]];
+                if (g == i) {
+                    stat |= subStatus[g][subIndex[g]];
+                }
+            }
+            status[n] = stat;
+            for (int i = 0; i < naxis; i++) {
+                int g = axisGroups[i];
+                if (++k[i] < count[i]) {
+                    subIndex[g] += subStride[g][i];
+                    break;
+                }
+                k[i] = 0;
+                subIndex[g] -= (count[i] - 1) * subStride[g][i];
+            }
+        }
+    }
+
+    // Transforms the grid with WCSLib, many rows per call.
+    private void wcslibGrid(double[] start, double[] stride, int[] count, double[][] planes, int[] status) {
+        int ncol = count[0];
+        int nrow = planes[0].length / ncol;
+        int rowsPerCall = Math.max(1, GRID_CHUNK / ncol);
+        int ncoord = Math.min(nrow, rowsPerCall) * ncol;
+        double[] pixcrd = new double[ncoord * naxis];
+        double[] world = new double[ncoord * naxis];
+        int[] stat = new int[ncoord];
+
+        for (int first = 0; first < nrow; first += rowsPerCall) {
+            int rows = Math.min(rowsPerCall, nrow - first);
+            int n = 0;
+            for (int row = first; row < first + rows; row++) {
+                for (int k = 0; k < ncol; k++, n++) {
+                    int offset = n * naxis;
+                    pixcrd[offset] = start[0] + k * stride[0];
+                    int r = row;
+                    for (int j = 1; j < naxis; j++) {
+                        pixcrd[offset + j] = start[j] + (r % count[j]) * stride[j];
+                        r /= count[j];
+                    }
+                }
+            }
+
+            doPix2sky(n, naxis, pixcrd, 0, world, 0, stat);
+
+            int index = first * ncol;
+            for (int p = 0; p < n; p++, index++) {
+                for (int i = 0; i < naxis; i++) {
+                    planes[i][index] = world[p * naxis + i];
+                }
+                status[index] = stat[p];
+            }
+        }
+    }
+
+    /**
+     * Maps a range of pixel coordinates along one non-celestial axis to the range of
+     * world coordinates along the same axis, with the other pixel axes held at CRPIXi.
+     * The range is sampled in a single batch. If the sampled world coordinates are not
+     * monotonic, the lowest and highest samples are refined between their neighbouring
+     * samples, which finds a turning point unless the world coordinate turns more than
+     * once between two samples.
+     *
+     * @param axis axis number, 1 to NAXIS, as in CTYPEi.
+     * @param lo lower pixel coordinate, 0.5 is the lower edge of the first pixel.
+     * @param hi upper pixel coordinate.
+     * @return minimum and maximum world coordinate, or null if no pixel in the range is valid.
+     */
+    public double[] getWorldBounds(int axis, double lo, double hi) {
+        int i = checkIntervalAxis(axis);
+        int ncoord = INTERVAL_SAMPLES + 1;
+        double[] pixcrd = new double[ncoord * naxis];
+        double[] world = new double[ncoord * naxis];
+        int[] stat = new int[ncoord];
+        for (int k = 0; k < ncoord; k++) {
+            setReferencePixel(pixcrd, k * naxis);
+            pixcrd[k * naxis + i] = lo + (hi - lo) * k / INTERVAL_SAMPLES;
+        }
+        doPix2sky(ncoord, naxis, pixcrd, 0, world, 0, stat);
+
+        int kmin = -1;
+        int kmax = -1;
+        boolean monotonic = true;
+        for (int k = 0; k < ncoord; k++) {
+            if (stat[k] != 0) {
+                monotonic = false;
+                continue;
+            }
+            double w = world[k * naxis + i];
+            if (kmin == -1 || w < world[kmin * naxis + i]) {
+                kmin = k;
+            }
+            if (kmax == -1 || w > world[kmax * naxis + i]) {
+                kmax = k;
+            }
+        }
+        if (kmin == -1) {
+            return null;
+        }
+        boolean increasing = true;
+        boolean decreasing = true;
+        for (int k = 1; k < ncoord && monotonic; k++) {
+            double diff = world[k * naxis + i] - world[(k - 1) * naxis + i];
+            increasing &= diff >= 0.0;
+            decreasing &= diff <= 0.0;
+        }
+        monotonic &= increasing || decreasing;
+        double min = world[kmin * naxis + i];
+        double max = world[kmax * naxis + i];
+        if (!monotonic) {
+            min = refineExtremum(i, pixcrd[Math.max(kmin - 1, 0) * naxis + i],
+                                 pixcrd[Math.min(kmin + 1, ncoord - 1) * naxis + i], min, false);
+            max = refineExtremum(i, pixcrd[Math.max(kmax - 1, 0) * naxis + i],
+                                 pixcrd[Math.min(kmax + 1, ncoord - 1) * naxis + i], max, true);
+        }
+        return new double[] {min, max};
+    }
+
+    // Golden section search for the extremum of the world coordinate of axis i between pixel
+    // coordinates a and b, returns the sampled extremum w if no better value is found.
+    private double refineExtremum(int i, double a, double b, double w, boolean maximum) {
+        double sign = maximum ? 1.0 : -1.0;
+        double r = 0.5 * (Math.sqrt(5.0) - 1.0);
+        double tolerance = 1.0E-9 * Math.max(1.0, Math.abs(b - a));
+        double[] pixcrd = new double[naxis];
+        double[] world = new double[naxis];
+        setReferencePixel(pixcrd, 0);
+
+        double c = b - r * (b - a);
+        double d = a + r * (b - a);
+        double fc = sign * worldAt(i, c, pixcrd, world);
+        double fd = sign * worldAt(i, d, pixcrd, world);
+        double best = sign * w;
+        for (int n = 0; n < 100 && b - a > tolerance; n++) {
+            best = maxValid(best, fc, fd);
+            if (fc > fd || Double.isNaN(fd)) {
+                b = d;
+                d = c;
+                fd = fc;
+                c = b - r * (b - a);
+                fc = sign * worldAt(i, c, pixcrd, world);
+            } else {
+                a = c;
+                c = d;
+                fc = fd;
+                d = a + r * (b - a);
+                fd = sign * worldAt(i, d, pixcrd, world);
+            }
+        }
+        return sign * maxValid(best, fc, fd);
+    }
+
+    // Maximum of best and the values that are not NaN.
+    private static double maxValid(double best, double v1, double v2) {
+        if (v1 > best) {
+            best = v1;
+        }
+        if (v2 > best) {
+            best = v2;
+        }
+        return best;
+    }
+
+    // World coordinate of axis i at pixel coordinate p of that axis, NaN if the pixel is invalid.
+    private double worldAt(int i, double p, double[] pixcrd, double[] world) {
+        pixcrd[i] = p;
+        int[] stat = new int[1];
+        doPix2sky(1, naxis, pixcrd, 0, world, 0, stat);
+        return stat[0] == 0 ? world[i] : Double.NaN;
+    }
+
+    /**
+     * Maps a range of world coordinates along one non-celestial axis, such as an energy
+     * band or a time range, to the range of pixels of that axis it overlaps, clipped to
+     * the length of the axis. The other axes are held at the reference point. When the
+     * world coordinate is monotonic along the axis the end points are transformed with
+     * one sky2pix call. Otherwise the crossings of the range are bracketed by samples
+     * along the axis and bisected, assuming the world coordinate is monotonic between
+     * samples and skipping the samples where the transformation fails.
+     *
+     * @param axis axis number, 1 to NAXIS, as in CTYPEi.
+     * @param lo lower world coordinate.
+     * @param hi upper world coordinate.
+     * @param length number of pixels along the axis.
+     * @return first and last overlapping pixel, 1 to length, or null if there is no overlap.
+     */
+    public long[] getPixelBounds(int axis, double lo, double hi, long length) {
+        int i = checkIntervalAxis(axis);
+        if (length < 1) {
+            throw new IllegalArgumentException("Axis length must be positive: " + length);
+        }
+        double wmin = Math.min(lo, hi);
+        double wmax = Math.max(lo, hi);
+
+        // Sample the world coordinate along the whole axis to check it is monotonic.
+        int nsample = (int) Math.min(length, INTERVAL_SAMPLES);
+        int ncoord = nsample + 1;
+        double[] pixcrd = new double[ncoord * naxis];
+        double[] world = new double[ncoord * naxis];
+        int[] stat = new int[ncoord];
+        for (int k = 0; k < ncoord; k++) {
+            setReferencePixel(pixcrd, k * naxis);
+            pixcrd[k * naxis + i] = 0.5 + (double) length * k / nsample;
+        }
+        int status = doPix2sky(ncoord, naxis, pixcrd, 0, world, 0, stat);
+        boolean increasing = true;
+        boolean decreasing = true;
+        for (int k = 1; k < ncoord; k++) {
+            double diff = world[k * naxis + i] - world[(k - 1) * naxis + i];
+            increasing &= diff >= 0.0;
+            decreasing &= diff <= 0.0;
+        }
+
+        if (status == 0 && (increasing || decreasing)) {
+            double[] coords = new double[2 * naxis];
+            for (int k = 0; k < 2; k++) {
+                for (int j = 0; j < naxis; j++) {
+                    coords[k * naxis + j] = crval == null ? 0.0 : crval[j];
+                }
+            }
+            coords[i] = wmin;
+            coords[naxis + i] = wmax;
+            double[] pix = new double[2 * naxis];
+            if (doSky2pix(2, naxis, coords, 0, pix, 0, new int[2]) == 0) {
+                return clipPixelBounds(Math.min(pix[i], pix[naxis + i]), Math.max(pix[i], pix[naxis + i]), length);
+            }
+        }
+
+        // Not monotonic or not invertible, bisect the crossings of the range between samples.
+        double pmin = Double.POSITIVE_INFINITY;
+        double pmax = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < nsample; k++) {
+            if (stat[k] != 0 || stat[k + 1] != 0) {
+                continue;
+            }
+            double p0 = pixcrd[k * naxis + i];
+            double p1 = pixcrd[(k + 1) * naxis + i];
+            double w0 = world[k * naxis + i];
+            double w1 = world[(k + 1) * naxis + i];
+            if (Math.max(w0, w1) < wmin || Math.min(w0, w1) > wmax) {
+                continue;
+            }
+            double a = w0 < wmin || w0 > wmax ? bisectCrossing(i, p0, p1, w0 < wmin ? wmin : wmax, w0) : p0;
+            double b = w1 < wmin || w1 > wmax ? bisectCrossing(i, p1, p0, w1 < wmin ? wmin : wmax, w1) : p1;
+            pmin = Math.min(pmin, Math.min(a, b));
+            pmax = Math.max(pmax, Math.max(a, b));
+        }
+        return pmin <= pmax ? clipPixelBounds(pmin, pmax, length) : null;
+    }
+
+    // Bisects the pixel coordinate of axis i where the world coordinate reaches target, between
+    // outside with world coordinate w beyond target and inside, returns a coordinate inside.
+    private double bisectCrossing(int i, double outside, double inside, double target, double w) {
+        boolean below = w < target;
+        double[] pixcrd = new double[naxis];
+        double[] world = new double[naxis];
+        setReferencePixel(pixcrd, 0);
+        for (int n = 0; n < 100 && Math.abs(inside - outside) > 1.0E-6; n++) {
+            double mid = 0.5 * (outside + inside);
+            double wmid = worldAt(i, mid, pixcrd, world);
+            if (Double.isNaN(wmid) || ((wmid < target) == below && wmid != target)) {
+                outside = mid;
+            } else {
+                inside = mid;
+            }
+        }
+        return inside;
+    }
+
+    // Returns the array index of a non-celestial axis number.
+    private int checkIntervalAxis(int axis) {
+        if (axis < 1 || axis > naxis) {
+            throw new IllegalArgumentException("Axis must be from 1 to " + naxis + ": " + axis);
+        }
+        if (isLongitude(axis - 1) || isLatitude(axis - 1)) {
+            throw new IllegalArgumentException("Axis " + axis + " is a celestial axis: " + wcsctype[axis - 1]);
+        }
+        // The other pixel axes are held at CRPIXi and the other world axes at CRVALi,
+        // which are only consistent if the axis is independent of them.
+        for (int j = 0; j < naxis; j++) {
+            if (j != axis - 1 && axisGroups[j] == axisGroups[axis - 1]) {
+                throw new IllegalArgumentException("Axis " + axis + " is coupled to axis " + (j + 1));
+            }
+        }
+        return axis - 1;
+    }
+
+    /**
+     * @return true if the WCS has a celestial longitude and latitude axis.
+     */
+    boolean hasCelestialAxes() {
+        boolean lng = false;
+        boolean lat = false;
+        for (int i = 0; i < naxis; i++) {
+            lng |= isLongitude(i);
+            lat |= isLatitude(i);
+        }
+        return lng && lat;
+    }
+
+    private boolean isLongitude(int i) {
+        return isLongitude(wcsctype == null || wcsctype[i] == null ? "" : wcsctype[i].trim());
+    }
+
+    private boolean isLatitude(int i) {
+        return isLatitude(wcsctype == null || wcsctype[i] == null ? "" : wcsctype[i].trim());
+    }
+
+    private static boolean isLongitude(String type) {
+        return type.startsWith("RA") || type.matches("^.?LON.*") || type.matches("^..LN.*");
+    }
+
+    private static boolean isLatitude(String type) {
+        return type.startsWith("DEC") || type.matches("^.?LAT.*") || type.matches("^..LT.*");
+    }
+
+    // Number of axes, for the JFR events.
+    int getAxisCount() {
+        return naxis;
+    }
+
+    // Projection code of the celestial axes, e.g. TAN, or null, for the JFR events.
+    String getProjectionCode() {
+        return getProjectionCode(wcsctype);
+    }
+
+    static String getProjectionCode(String[] ctype) {
+        if (ctype != null) {
+            for (String c : ctype) {
+                String type = c == null ? "" : c.trim();
+                if ((isLongitude(type) || isLatitude(type)) && type.length() >= 8) {
+                    return type.substring(5, 8);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Finds the independent axis groups, see getAxisGroups().
+    private int[] findAxisGroups() {
+        int[] groups = new int[naxis];
+        for (int i = 0; i < naxis; i++) {
+            groups[i] = i;
+        }
+        double[] matrix = cd != null ? cd : pc;
+        int celestial = -1;
+        int rotated = -1;
+        for (int i = 0; i < naxis; i++) {
+            for (int j = 0; matrix != null && j < naxis; j++) {
+                if (i != j && matrix[i * naxis + j] != 0.0) {
+                    joinAxisGroups(groups, i, j);
+                }
+            }
+            if (isLongitude(i) || isLatitude(i)) {
+                if (celestial != -1) {
+                    joinAxisGroups(groups, celestial, i);
+                }
+                celestial = i;
+            }
+            if (crota != null && crota[i] != 0.0) {
+                if (rotated != -1) {
+                    joinAxisGroups(groups, rotated, i);
+                }
+                rotated = i;
+            }
+        }
+        return groups;
+    }
+
+    // Selects the values of the axes (1-relative).
+    private static double[] selectAxes(double[] values, int[] axes) {
+        if (values == null) {
+            return null;
+        }
+        double[] selected = new double[axes.length];
+        for (int k = 0; k < axes.length; k++) {
+            selected[k] = values[axes[k] - 1];
+        }
+        return selected;
+    }
+
+    // Selects the values of the axes (1-relative).
+    private static String[] selectAxes(String[] values, int[] axes) {
+        if (values == null) {
+            return null;
+        }
+        String[] selected = new String[axes.length];
+        for (int k = 0; k < axes.length; k++) {
+            selected[k] = values[axes[k] - 1];
+        }
+        return selected;
+    }
+
+    // Selects the rows and columns of the axes (1-relative) from a row-major matrix.
+    private static double[] selectMatrix(double[] matrix, int n, int[] axes) {
+        if (matrix == null) {
+            return null;
+        }
+        double[] selected = new double[axes.length * axes.length];
+        for (int k = 0; k < axes.length; k++) {
+            for (int l = 0; l < axes.length; l++) {
+                selected[k * axes.length + l] = matrix[(axes[k] - 1) * n + axes[l] - 1];
+            }
+        }
+        return selected;
+    }
 
-    // CROTAi - Coordinate rotation.
-    private double[] crota;
+    // Merges the groups of axes i and j into the group with the lower index.
+    private static void joinAxisGroups(int[] groups, int i, int j) {
+        int from = Math.max(groups[i], groups[j]);
+        int to = Math.min(groups[i], groups[j]);
+        for (int k = 0; k < groups.length; k++) {
+            if (groups[k] == from) {
+                groups[k] = to;
+            }
+        }
+    }
 
-    // Lists to hold PV & PC arrays
-    private List<Integer> pviList;
-    private List<Integer> pvmList;
-    private List<Double> pvvList;
-    private List<Integer> psiList;
-    private List<Integer> psmList;
-    private List<String> psvList;
+    // Sets a coordinate to the reference pixel.
+    private void setReferencePixel(double[] pixcrd, int offset) {
+        for (int j = 0; j < naxis; j++) {
+            pixcrd[offset + j] = crpix == null ? 0.0 : crpix[j];
+        }
+    }
 
-    // force WCSLib to be loaded to we can immediately fail when JNI and native
-    // loadLibrary fails
-    static {
-        double d = WCSLib.UNDEFINED;
+    // Converts pixel coordinates to the overlapping pixels, pixel p covers p - 0.5 to p + 0.5.
+    private static long[] clipPixelBounds(double pmin, double pmax, long length) {
+        if (pmax < 0.5 || pmin > length + 0.5) {
+            return null;
+        }
+        long first = Math.max(1L, (long) Math.floor(pmin + 0.5));
+        long last = Math.min(length, (long) Math.ceil(pmax - 0.5));
+        if (last < first) {
+            last = first;
+        }
+        return new long[] {first, last};
     }
 
     /**
-     * Constructs a new Transform class initializing variable and array
-     * arguments to the native wrapper methods using the WCSKeywords.
+     * Returns the sky footprint of the image described by the NAXIS1 and NAXIS2
+     * keywords, see {@link #getFootprint(long, long, double)}.
      *
-     * @param wcs implementation of WCSKeywords.
-     * @throws NoSuchKeywordException if NAXIS keyword is not found in WCSKeywords.
+     * @param tolerance maximum deviation in degrees of an edge from the polygon.
+     * @return the footprint, or null if fewer than three boundary pixels are valid.
+     * @throws NoSuchKeywordException if the NAXIS1 or NAXIS2 keyword is not found.
      */
-    public Transform(WCSKeywords wcs) throws NoSuchKeywordException {
-        keywords = wcs;
-
-        // NAXIS keyword must be present, else throw NoSuchKeywordException.
-        // Check/allow WCSAXES as well?
-        if (!keywords.containsKey("NAXIS")) {
-            throw new NoSuchKeywordException("NAXIS");
+    public Footprint getFootprint(double tolerance) throws NoSuchKeywordException {
+        if (!keywords.containsKey("NAXIS1")) {
+            throw new NoSuchKeywordException("NAXIS1");
         }
-
-        // NAXIS - Number of axes in WCS description
-        naxis = keywords.getIntValue("NAXIS");
-
-        // LONPOLE - Native longitude of the celestial pole
-        lonpole = new double[] { WCSLib.UNDEFINED };
-        if (keywords.containsKey("LONPOLE")) {
-            lonpole[0] = keywords.getDoubleValue("LONPOLE");
+        if (!keywords.containsKey("NAXIS2")) {
+            throw new NoSuchKeywordException("NAXIS2");
         }
+        return getFootprint(keywords.getIntValue("NAXIS1"), keywords.getIntValue("NAXIS2"), tolerance);
+    }
 
-        // LATPOLE - Native latitude of the celestial pole
-        latpole = new double[] { WCSLib.UNDEFINED };
-        if (keywords.containsKey("LATPOLE")) {
-            latpole[0] = keywords.getDoubleValue("LATPOLE");
+    /**
+     * Returns the sky footprint of an image of naxis1 by naxis2 pixels: the outer pixel
+     * edges of the first two pixel axes transformed to a polygon of celestial coordinates.
+     * Any other pixel axes are held at CRPIXi. Edges are subdivided only where they bend
+     * by more than the tolerance, and invalid pixels are left out of the polygon.
+     *
+     * @param naxis1 number of pixels along the first axis.
+     * @param naxis2 number of pixels along the second axis.
+     * @param tolerance maximum deviation in degrees of an edge from the polygon.
+     * @return the footprint, or null if fewer than three boundary pixels are valid.
+     */
+    public Footprint getFootprint(long naxis1, long naxis2, double tolerance) {
+        if (naxis < 2) {
+            throw new IllegalStateException("Footprint requires at least 2 axes, NAXIS = " + naxis);
         }
-
-        // RESTFRQ - Line rest frequency (Hz)
-        restfrq = new double[] { WCSLib.UNDEFINED };
-        if (keywords.containsKey("RESTFRQ")) {
-            restfrq[0] = keywords.getDoubleValue("RESTFRQ");
+        if (naxis1 < 1 || naxis2 < 1) {
+            throw new IllegalArgumentException("Invalid image size " + naxis1 + " x " + naxis2);
         }
-
-        // RESTWAV - Line rest wavelength in vacuum (m)
-        restwav = new double[] { WCSLib.UNDEFINED };
-        if (keywords.containsKey("RESTWAV")) {
-            restwav[0] = keywords.getDoubleValue("RESTWAV");
+        if (!(tolerance > 0.0)) {
+            throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
         }
 
-        // PCi_j - Pixel coordinate transformation matrix
-        if (keywords.containsKey("PC1_1")) {
-            int index = 0;
-            pc = new double[naxis * naxis];
-
-            for (int i = 1; i <= naxis; i++) {
-                for (int j = 1; j <= naxis; j++) {
-                    pc[index++] = keywords.getDoubleValue("PC" + i + "_" + j);
-                }
+        int lng = 0;
+        int lat = 1;
+        for (int i = 0; wcsctype != null && i < naxis; i++) {
+            if (isLongitude(i)) {
+                lng = i;
+            } else if (isLatitude(i)) {
+                lat = i;
             }
         }
+        double[] reference = crpix == null ? new double[naxis] : crpix.clone();
+        return Footprint.create(this, naxis, lng, lat, reference, naxis1, naxis2, tolerance);
+    }
 
-        // CDi_j - Spectrum coordinate matrix
-        if (keywords.containsKey("CD1_1")) {
-            int index = 0;
-            cd = new double[naxis * naxis];
+    /**
+     * Returns the Transform of an alternate WCS description of the keywords, such as
+     * the one with keys CTYPEiA and CRPIXiA for alternate A. All the alternates are
+     * compiled in one pass over the keywords on the first call, and each alternate
+     * Transform is prepared once and returned by later calls.
+     *
+     * @param alternate alternate WCS letter A to Z, or a space for the primary WCS.
+     * @return the Transform of the alternate WCS.
+     * @throws NoSuchKeywordException if the keywords have no alternate WCS with the letter.
+     */
+    public Transform forAlternate(char alternate) throws NoSuchKeywordException {
+        if (alternate == ' ') {
+            return getPrimary();
+        }
+        if (alternate < 'A' || alternate > 'Z') {
+            throw new IllegalArgumentException("Alternate WCS must be A to Z: " + alternate);
+        }
+        return getPrimary().getAlternate(alternate - 'A' + 1);
+    }
 
-            for (int i = 1; i <= naxis; i++) {
-                for (int j = 1; j <= naxis; j++) {
-                    cd[index++] = keywords.getDoubleValue("CD" + i + "_" + j);
-                }
+    /**
+     * @return the letters of the alternate WCS descriptions in the keywords.
+     * @throws NoSuchKeywordException if NAXIS keyword is not found in WCSKeywords.
+     */
+    public String getAlternates() throws NoSuchKeywordException {
+        KeywordCompiler[] compiled = getPrimary().getAlternateKeywords();
+        StringBuilder sb = new StringBuilder();
+        for (int k = 1; k < compiled.length; k++) {
+            if (compiled[k] != null) {
+                sb.append(compiled[k].alternate);
             }
         }
+        return sb.toString();
+    }
 
-        for (int i = 0; i < naxis; i++) {
-            int axis = i + 1;
+    private Transform getPrimary() {
+        return primary == null ? this : primary;
+    }
 
-            // CRPIXi - Pixel coordinate of the reference point
-            if (keywords.containsKey("CRPIX" + axis)) {
-                if (crpix == null) {
-                    crpix = new double[naxis];
-                }
-                crpix[i] = keywords.getDoubleValue("CRPIX" + axis);
-            }
+    private synchronized Transform getAlternate(int index) throws NoSuchKeywordException {
+        KeywordCompiler[] compiled = getAlternateKeywords();
+        if (compiled[index] == null) {
+            throw new NoSuchKeywordException("CTYPE1" + (char) ('A' + index - 1));
+        }
+        if (alternates == null) {
+            alternates = new Transform[compiled.length];
+        }
+        if (alternates[index] == null) {
+            alternates[index] = new Transform(keywords, compiled[index], useJava, this);
+            addOwnedNativeSize(alternates[index].getNativeSize());
+        }
+        return alternates[index];
+    }
 
-            // CDELTi - Coordinate increment
-            if (keywords.containsKey("CDELT" + axis)) {
-                if (cdelt == null) {
-                    cdelt = new double[naxis];
-                }
-                cdelt[i] = keywords.getDoubleValue("CDELT" + axis);
-            }
+    private synchronized KeywordCompiler[] getAlternateKeywords() throws NoSuchKeywordException {
+        if (alternateKeywords == null) {
+            alternateKeywords = KeywordCompiler.compileAll(keywords);
+        }
+        return alternateKeywords;
+    }
 
-            // CRVALi - Coordinate value at reference point
-            if (keywords.containsKey("CRVAL" + axis)) {
-                if (crval == null) {
-                    crval = new double[naxis];
-                }
-                crval[i] = keywords.getDoubleValue("CRVAL" + axis);
+    /**
+     * Translates the spectral axis and returns a prepared Transform of the translated
+     * WCS. The translated Transform is created once per spectral ctype and reused by
+     * later calls on this Transform, which keeps the most recently used translations.
+     * Translations are not shared between Transforms of identical WCS keywords, so a
+     * TransformCache is needed for each WCS to be translated once per ctype.
+     * For the spectral CTYPE wild carding may be used as for translate().
+     *
+     * @param spectral_ctype spectral CTYPE.
+     * @return the Transform of the translated WCS.
+     */
+    public Transform translateTransform(String spectral_ctype) {
+        // Spectral ctype must be 8 characters or less
+        if (spectral_ctype.length() > 8) {
+            throw new IllegalArgumentException("Spectral ctype must be 8 or less characters.");
+        }
+        Transform translated;
+        Transform eldest = null;
+        synchronized (translations) {
+            translated = translations.get(spectral_ctype);
+            if (translated != null) {
+                return translated;
             }
-
-            // CUNITi - Units of CRVAL and CDELT
-            if (keywords.containsKey("CUNIT" + axis)) {
-                if (cunit == null) {
-                    cunit = new String[naxis];
-                }
-                cunit[i] = keywords.getStringValue("CUNIT" + axis);
+            translated = new Transform(this, spectral_ctype);
+            translations.put(spectral_ctype, translated);
+            addOwnedNativeSize(translated.getNativeSize());
+            if (translations.size() > MAX_TRANSLATIONS) {
+                Iterator<Transform> iter = translations.values().iterator();
+                eldest = iter.next();
+                iter.remove();
+                addOwnedNativeSize(-eldest.getTotalNativeSize());
             }
+        }
+        // Callers may still hold the dropped translation, so it is freed but not closed.
+        if (eldest != null) {
+            eldest.release();
+        }
+        return translated;
+    }
 
-            // CTYPEi - Axis type
-            if (keywords.containsKey("CTYPE" + axis)) {
-                if (ctype == null) {
-                    ctype = new String[naxis];
-                }
-                ctype[i] = keywords.getStringValue("CTYPE" + axis);
+    /**
+     * Returns a prepared Transform of the given axes of the WCS, such as the two
+     * spatial axes of a cube. Axes transformed in Java have no native wcsprm struct
+     * until a call needs WCSLib. Otherwise the struct is extracted with the WCSLIB
+     * wcssub() C method, so the keywords are not parsed again. The axes must not be
+     * coupled to the other axes, see getAxisGroups().
+     *
+     * @param axes axis numbers (1-relative) to extract, in the order of the new WCS.
+     * @return the Transform of the axes.
+     * @throws IllegalArgumentException if an axis is invalid or coupled to an axis not extracted.
+     */
+    public Transform subTransform(int... axes) {
+        checkOpen();
+        if (axes == null || axes.length == 0) {
+            throw new IllegalArgumentException("No axes to extract");
+        }
+        boolean[] selected = new boolean[naxis];
+        for (int axis : axes) {
+            if (axis < 1 || axis > naxis) {
+                throw new IllegalArgumentException("Invalid axis " + axis + ", NAXIS = " + naxis);
             }
-
-            // CROTAi - Coordinate rotation
-            if (keywords.containsKey("CROTA" + axis)) {
-                if (crota == null) {
-                    crota = new double[naxis];
-                }
-                crota[i] = keywords.getDoubleValue("CROTA" + axis);
+            if (selected[axis - 1]) {
+                throw new IllegalArgumentException("Duplicate axis " + axis);
             }
-
-            for (int parameter = 0; parameter < naxis; parameter++) {
-                // PVi_ma
-                if (keywords.containsKey("PV" + axis + "_" + parameter)) {
-                    if (pviList == null) {
-                        pviList = new ArrayList<Integer>();
-                    }
-                    pviList.add(axis);
-                    if (pvmList == null) {
-                        pvmList = new ArrayList<Integer>();
-                    }
-                    pvmList.add(parameter);
-                    if (pvvList == null) {
-                        pvvList = new ArrayList<Double>();
-                    }
-                    pvvList.add(keywords.getDoubleValue("PV" + axis + "_" + parameter));
-                }
-
-                // PSi_ma
-                if (keywords.containsKey("PS" + axis + "_" + parameter)) {
-                    if (psi == null) {
-                        psiList = new ArrayList<Integer>();
-                    }
-                    psiList.add(axis);
-                    if (psm == null) {
-                        psmList = new ArrayList<Integer>();
-                    }
-                    psmList.add(parameter);
-                    if (psv == null) {
-                        psvList = new ArrayList<String>();
-                    }
-                    psvList.add(keywords.getStringValue("PS" + axis + "_" + parameter));
+            selected[axis - 1] = true;
+        }
+        for (int i = 0; i < naxis; i++) {
+            for (int j = 0; j < naxis; j++) {
+                if (selected[i] && !selected[j] && axisGroups[i] == axisGroups[j]) {
+                    throw new IllegalArgumentException("Axis " + (i + 1) + " is coupled to axis " + (j + 1));
                 }
             }
-
-            // Write PV & PS Lists to arrays.
-            if (pviList != null && pvmList != null && pvvList != null) {
-                pvi = toIntArray(pviList);
-                pvm = toIntArray(pvmList);
-                pvv = toDoubleArray(pvvList);
-            }
-            if (psiList != null && psmList != null && psvList != null) {
-                psi = toIntArray(psiList);
-                psm = toIntArray(psmList);
-                psv = (String[]) psvList.toArray(new String[0]);
-            }
-
         }
+        return new Transform(this, axes.clone());
     }
 
     /**
-     * Transforms pixel coordinates to world coordinates. Method takes a double array of
-     * pixel coordinates, and returns a double array of the translated world coordinates.
-     *
-     * @param pixcrd double array of pixel coordinates
-     * @return double array of world coordinates.
+     * @return the Transform of the celestial axes, or null if the WCS has no celestial axes.
+     * @throws IllegalArgumentException if the celestial axes are coupled to another axis.
      */
-    public Result pix2sky(double[] pixcrd) {
-        // Change TNX to TAN in ctype.
-        String[] _ctype = (String[]) ctype.clone();
-        changeTNXToTAN(_ctype);
-
-        synchronized (WCSLib.class) {
-            return WCSLib.pix2sky(naxis, crpix, pc, cdelt, crval, cunit, _ctype, lonpole, latpole, restfrq, restwav,
-                                  pvi, pvm, pvv, psi, psm, psv, cd, crota, pixcrd);
+    public Transform getCelestialTransform() {
+        if (!hasCelestialAxes()) {
+            return null;
+        }
+        int[] axes = new int[2];
+        int count = 0;
+        for (int i = 0; i < naxis && count < 2; i++) {
+            if (isLongitude(i) || isLatitude(i)) {
+                axes[count++] = i + 1;
+            }
         }
+        return subTransform(axes);
     }
 
     /**
-     * Transforms world coordinates to pixel coordinates. Method takes a double array of
-     * world coordinates, and returns a double array of the transformed pixel coordinates.
-     *
-     * @param world double array of world coordinates.
-     * @return double array of pixel coordinates.
+     * @return the Transform of the spectral axis, or null if the WCS has no spectral axis.
+     * @throws IllegalArgumentException if the spectral axis is coupled to another axis.
      */
-    public Result sky2pix(double[] world) {
-        // Change TNX to TAN in ctype.
-        String[] _ctype = (String[]) ctype.clone();
-        changeTNXToTAN(_ctype);
-
-        synchronized (WCSLib.class) {
-            return WCSLib.sky2pix(naxis, crpix, pc, cdelt, crval, cunit, _ctype, lonpole, latpole, restfrq, restwav,
-                                  pvi, pvm, pvv, psi, psm, psv, cd, crota, world);
+    public Transform getSpectralTransform() {
+        for (int i = 0; i < naxis; i++) {
+            String type = wcsctype == null || wcsctype[i] == null ? "" : wcsctype[i].trim().toUpperCase();
+            if (type.length() >= 4 && SpectralUtil.SPECTRAL_CTYPES.contains(type.substring(0, 4))) {
+                return subTransform(i + 1);
+            }
         }
+        return null;
     }
 
     /**
@@ -420,19 +1695,14 @@ public class Transform {
         double[] _cdelt = cdelt == null ? null : (double[]) cdelt.clone();
         double[] _crval = crval == null ? null : (double[]) crval.clone();
         String[] _cunit = cunit == null ? null : (String[]) cunit.clone();
-        String[] _ctype = ctype == null ? null : (String[]) ctype.clone();
+        String[] _ctype = wcsctype == null ? null : (String[]) wcsctype.clone();
         double[] _lonpole = lonpole == null ? null : (double[]) lonpole.clone();
         double[] _latpole = latpole == null ? null : (double[]) latpole.clone();
         double[] _restfrq = restfrq == null ? null : (double[]) restfrq.clone();
         double[] _restwav = restwav == null ? null : (double[]) restwav.clone();
 
-        // Change TNX to TAN in ctype.
-        changeTNXToTAN(_ctype);
-
-        synchronized (WCSLib.class) {
-            WCSLib.translate(naxis, _crpix, pc, _cdelt, _crval, _cunit, _ctype, _lonpole, _latpole, _restfrq, _restwav,
-                             pvi, pvm, pvv, psi, psm, psv, cd, crota, spectralAxis, spectral_ctype);
-        }
+        WCSLib.translate(naxis, _crpix, pc, _cdelt, _crval, _cunit, _ctype, _lonpole, _latpole, _restfrq, _restwav,
+                         pvi, pvm, pvv, psi, psm, psv, cd, crota, spectralAxis, spectral_ctype);
 
         WCSKeywords wcs = keywordsCopy();
         if (_lonpole[0] != WCSLib.UNDEFINED) {
@@ -568,6 +1838,103 @@ public class Transform {
         return sb.toString();
     }
 
+    /**
+     * Frees the native wcsprm struct of the Transform and closes the Transforms of its
+     * alternate WCS and spectral translations. Transformations of a closed Transform
+     * throw IllegalStateException, and closing it again has no effect.
+     */
+    @Override
+    public void close() {
+        synchronized (nativeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            releaseStruct();
+        }
+        for (Transform transform : getOwned()) {
+            transform.close();
+        }
+    }
+
+    /**
+     * Frees the native wcsprm structs of the Transform and of its alternate WCS and
+     * spectral translations without closing them. The structs are prepared again from
+     * the keywords if the Transforms need WCSLib later, so a TransformCache can free
+     * the structs of evicted Transforms that are still shared.
+     */
+    void release() {
+        releaseStruct();
+        for (Transform transform : getOwned()) {
+            transform.release();
+        }
+    }
+
+    private void releaseStruct() {
+        synchronized (nativeLock) {
+            if (nativeHandle != null) {
+                nativeHandle.free();
+                nativeHandle = null;
+            }
+        }
+    }
+
+    // The alternates and translations created by this Transform.
+    private List<Transform> getOwned() {
+        List<Transform> owned = new ArrayList<Transform>();
+        synchronized (this) {
+            if (alternates != null) {
+                for (Transform alternate : alternates) {
+                    if (alternate != null) {
+                        owned.add(alternate);
+                    }
+                }
+            }
+        }
+        synchronized (translations) {
+            owned.addAll(translations.values());
+        }
+        return owned;
+    }
+
+    // Counts the native memory of a new alternate or translation for this Transform and its owners.
+    private void addOwnedNativeSize(long size) {
+        for (Transform transform = this; transform != null; transform = transform.owner) {
+            transform.ownedNativeSize.addAndGet(size);
+        }
+    }
+
+    /**
+     * @return true if the native wcsprm struct is prepared.
+     */
+    boolean isPrepared() {
+        synchronized (nativeLock) {
+            return nativeHandle != null;
+        }
+    }
+
+    private void register(long handle) {
+        synchronized (nativeLock) {
+            nativeHandle = NativeMemory.register(this, nativeLock, handle, getNativeSize());
+        }
+    }
+
+    // Address of the native wcsprm struct, prepared again if it was released. Call with nativeLock held.
+    private long address() {
+        if (nativeHandle == null) {
+            checkOpen();
+            register(WCSLib.prepare(naxis, crpix, pc, cdelt, crval, cunit, wcsctype, lonpole, latpole, restfrq,
+                                    restwav, pvi, pvm, pvv, psi, psm, psv, cd, crota));
+        }
+        return nativeHandle.getAddress();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Transform is closed.");
+        }
+    }
+
     /**
      * @return copy of the WCSKeywords.
      */
@@ -592,22 +1959,294 @@ public class Transform {
         return wcs;
     }
 
-    // Write an Integer List to an int array.
-    private static int[] toIntArray(List<Integer> integerList) {
-        int[] array = new int[integerList.size()];
-        for (int i = 0; i < integerList.size(); i++) {
-            array[i] = integerList.get(i);
+    // Number of elements in each coordinate of a flat array of ncoord coordinates.
+    private int getElementCount(int length, int ncoord) {
+        if (ncoord < 0) {
+            throw new IllegalArgumentException("Number of coordinates must not be negative: " + ncoord);
+        }
+        if (ncoord == 0) {
+            if (length != 0) {
+                throw new IllegalArgumentException("Expected an empty coordinate array for 0 coordinates.");
+            }
+            return naxis;
+        }
+        if (length % ncoord != 0 || length / ncoord < naxis) {
+            throw new IllegalArgumentException("Coordinate array length " + length + " is not " + ncoord
+                                                   + " coordinates of at least " + naxis + " elements.");
+        }
+        return length / ncoord;
+    }
+
+    // Transforms in Java when supported, and records a JFR event when JFR is available.
+    private int doPix2sky(int ncoord, int nelem, double[] pixcrd, int pixoff, double[] world, int worldoff,
+                          int[] stat) {
+        checkOpen();
+        if (!Events.AVAILABLE) {
+            return meteredPix2sky(ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+        }
+        TransformEvent event = new TransformEvent();
+        event.begin();
+        int status = -1;
+        try {
+            status = meteredPix2sky(ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+            return status;
+        } catch (WCSLibRuntimeException ex) {
+            status = ex.getStatus();
+            throw ex;
+        } finally {
+            event.complete(this, "pix2sky", useEngine(ncoord, nelem, pixcrd, pixoff, world, worldoff), ncoord, status);
+        }
+    }
+
+    // The Java engine writes the output as it reads the input.
+    private int meteredPix2sky(int ncoord, int nelem, double[] pixcrd, int pixoff, double[] world, int worldoff,
+                               int[] stat) {
+        TransformMetrics m = metrics;
+        if (useEngine(ncoord, nelem, pixcrd, pixoff, world, worldoff)) {
+            if (m == null) {
+                return engine.pix2sky(ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+            }
+            long start = System.nanoTime();
+            int status = engine.pix2sky(ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+            m.record(Call.PIX2SKY, true, ncoord, 0L, System.nanoTime() - start, status);
+            return status;
+        }
+        if (m == null) {
+            synchronized (nativeLock) {
+                return WCSLib.pix2sky(address(), ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+            }
+        }
+        long start = System.nanoTime();
+        long locked = 0L;
+        int status;
+        try {
+            synchronized (nativeLock) {
+                locked = System.nanoTime();
+                status = WCSLib.pix2sky(address(), ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+            }
+        } catch (WCSLibRuntimeException ex) {
+            record(m, Call.PIX2SKY, ncoord, start, locked, ex.getStatus());
+            throw ex;
+        }
+        record(m, Call.PIX2SKY, ncoord, start, locked, status);
+        return status;
+    }
+
+    // Transforms in Java when supported, and records a JFR event when JFR is available.
+    private int doSky2pix(int ncoord, int nelem, double[] world, int worldoff, double[] pixcrd, int pixoff,
+                          int[] stat) {
+        checkOpen();
+        if (!Events.AVAILABLE) {
+            return meteredSky2pix(ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+        }
+        TransformEvent event = new TransformEvent();
+        event.begin();
+        int status = -1;
+        try {
+            status = meteredSky2pix(ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+            return status;
+        } catch (WCSLibRuntimeException ex) {
+            status = ex.getStatus();
+            throw ex;
+        } finally {
+            event.complete(this, "sky2pix", useEngine(ncoord, nelem, pixcrd, pixoff, world, worldoff), ncoord, status);
+        }
+    }
+
+    // The Java engine writes the output as it reads the input.
+    private int meteredSky2pix(int ncoord, int nelem, double[] world, int worldoff, double[] pixcrd, int pixoff,
+                               int[] stat) {
+        TransformMetrics m = metrics;
+        if (useEngine(ncoord, nelem, pixcrd, pixoff, world, worldoff)) {
+            if (m == null) {
+                return engine.sky2pix(ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+            }
+            long start = System.nanoTime();
+            int status = engine.sky2pix(ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+            m.record(Call.SKY2PIX, true, ncoord, 0L, System.nanoTime() - start, status);
+            return status;
+        }
+        if (m == null) {
+            synchronized (nativeLock) {
+                return WCSLib.sky2pix(address(), ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+            }
+        }
+        long start = System.nanoTime();
+        long locked = 0L;
+        int status;
+        try {
+            synchronized (nativeLock) {
+                locked = System.nanoTime();
+                status = WCSLib.sky2pix(address(), ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+            }
+        } catch (WCSLibRuntimeException ex) {
+            record(m, Call.SKY2PIX, ncoord, start, locked, ex.getStatus());
+            throw ex;
+        }
+        record(m, Call.SKY2PIX, ncoord, start, locked, status);
+        return status;
+    }
+
+    // True if a transformation is done by the Java engine rather than WCSLib.
+    private boolean useEngine(int ncoord, int nelem, double[] pixcrd, int pixoff, double[] world, int worldoff) {
+        return engine != null && nelem >= naxis && (pixcrd != world || !overlaps(pixoff, worldoff, ncoord * nelem));
+    }
+
+    // Transforms direct buffers with WCSLib, and records a JFR event when JFR is available.
+    private int doPix2sky(int ncoord, DoubleBuffer pixcrd, DoubleBuffer world, int[] stat) {
+        checkOpen();
+        if (!Events.AVAILABLE) {
+            return meteredPix2sky(ncoord, pixcrd, world, stat);
+        }
+        TransformEvent event = new TransformEvent();
+        event.begin();
+        int status = -1;
+        try {
+            status = meteredPix2sky(ncoord, pixcrd, world, stat);
+            return status;
+        } catch (WCSLibRuntimeException ex) {
+            status = ex.getStatus();
+            throw ex;
+        } finally {
+            event.complete(this, "pix2sky", false, ncoord, status);
+        }
+    }
+
+    private int meteredPix2sky(int ncoord, DoubleBuffer pixcrd, DoubleBuffer world, int[] stat) {
+        TransformMetrics m = metrics;
+        long start = m == null ? 0L : System.nanoTime();
+        long locked = 0L;
+        int status;
+        try {
+            synchronized (nativeLock) {
+                locked = m == null ? 0L : System.nanoTime();
+                status = WCSLib.pix2sky(address(), ncoord, naxis, pixcrd, pixcrd.position(), world, world.position(),
+                                        stat);
+            }
+        } catch (WCSLibRuntimeException ex) {
+            record(m, Call.PIX2SKY, ncoord, start, locked, ex.getStatus());
+            throw ex;
+        }
+        record(m, Call.PIX2SKY, ncoord, start, locked, status);
+        return status;
+    }
+
+    // Transforms direct buffers with WCSLib, and records a JFR event when JFR is available.
+    private int doSky2pix(int ncoord, DoubleBuffer world, DoubleBuffer pixcrd, int[] stat) {
+        checkOpen();
+        if (!Events.AVAILABLE) {
+            return meteredSky2pix(ncoord, world, pixcrd, stat);
+        }
+        TransformEvent event = new TransformEvent();
+        event.begin();
+        int status = -1;
+        try {
+            status = meteredSky2pix(ncoord, world, pixcrd, stat);
+            return status;
+        } catch (WCSLibRuntimeException ex) {
+            status = ex.getStatus();
+            throw ex;
+        } finally {
+            event.complete(this, "sky2pix", false, ncoord, status);
+        }
+    }
+
+    private int meteredSky2pix(int ncoord, DoubleBuffer world, DoubleBuffer pixcrd, int[] stat) {
+        TransformMetrics m = metrics;
+        long start = m == null ? 0L : System.nanoTime();
+        long locked = 0L;
+        int status;
+        try {
+            synchronized (nativeLock) {
+                locked = m == null ? 0L : System.nanoTime();
+                status = WCSLib.sky2pix(address(), ncoord, naxis, world, world.position(), pixcrd, pixcrd.position(),
+                                        stat);
+            }
+        } catch (WCSLibRuntimeException ex) {
+            record(m, Call.SKY2PIX, ncoord, start, locked, ex.getStatus());
+            throw ex;
+        }
+        record(m, Call.SKY2PIX, ncoord, start, locked, status);
+        return status;
+    }
+
+    // Records a WCSLib call that waited for the monitor from start until locked.
+    private static void record(TransformMetrics m, Call call, int ncoord, long start, long locked, int status) {
+        if (m != null) {
+            long end = System.nanoTime();
+            // a call that failed before taking the monitor did not wait
+            long from = locked == 0L ? end : locked;
+            m.record(call, false, ncoord, from - start, end - from, status);
+        }
+    }
+
+    private static boolean overlaps(int offset1, int offset2, int length) {
+        return offset1 < offset2 + length && offset2 < offset1 + length;
+    }
+
+    // Checks that ncoord coordinates of NAXIS elements fit in the array from the offset.
+    private void checkRange(int length, int offset, int ncoord) {
+        if (ncoord < 0) {
+            throw new IllegalArgumentException("Number of coordinates must not be negative: " + ncoord);
+        }
+        if (offset < 0 || (long) offset + (long) ncoord * naxis > length) {
+            throw new IllegalArgumentException("Array length " + length + " from offset " + offset
+                                                   + " does not hold " + ncoord + " coordinates of " + naxis
+                                                   + " elements.");
+        }
+    }
+
+    // Checks that the buffer can be used by WCSLib in place and holds ncoord coordinates.
+    private void checkBuffer(DoubleBuffer buffer, int ncoord) {
+        if (!buffer.isDirect() || buffer.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Coordinate buffer must be direct and in native byte order.");
+        }
+        checkRange(buffer.limit(), buffer.position(), ncoord);
+    }
+
+    // Single coordinate transforms fail when the coordinate is invalid.
+    private static void checkStatus(int status) {
+        if (status != 0) {
+            throw new WCSLibRuntimeException(WCSLib.getErrorMessage(status), status);
+        }
+    }
+
+    // Units for a coordinate of nelem elements, extra elements have no units.
+    private String[] unitsCopy(int nelem) {
+        return Arrays.copyOf(units, nelem);
+    }
+
+    private static void checkStatusLength(int[] stat, int ncoord) {
+        if (stat != null && stat.length < ncoord) {
+            throw new IllegalArgumentException("Status array length " + stat.length + " is less than " + ncoord);
+        }
+    }
+
+    // Write one array per axis to a flat array of ncoord coordinates.
+    private static double[] interleave(double[][] axes, int ncoord) {
+        int nelem = axes.length;
+        double[] coords = new double[ncoord * nelem];
+        for (int i = 0; i < nelem; i++) {
+            if (axes[i].length != ncoord) {
+                throw new IllegalArgumentException("Axis " + (i + 1) + " has " + axes[i].length
+                                                       + " values, expected " + ncoord);
+            }
+            for (int k = 0; k < ncoord; k++) {
+                coords[k * nelem + i] = axes[i][k];
+            }
         }
-        return array;
+        return coords;
     }
 
-    // Write an Double List to an double array.
-    private static double[] toDoubleArray(List<Double> doubleList) {
-        double[] array = new double[doubleList.size()];
-        for (int i = 0; i < doubleList.size(); i++) {
-            array[i] = doubleList.get(i);
+    // Write a flat array of ncoord coordinates to one array per axis.
+    private static double[][] deinterleave(double[] coords, int nelem, int ncoord) {
+        double[][] axes = new double[nelem][ncoord];
+        for (int k = 0; k < ncoord; k++) {
+            for (int i = 0; i < nelem; i++) {
+                axes[i][k] = coords[k * nelem + i];
+            }
         }
-        return array;
+        return axes;
     }
 
     // Convert a spatial ctype from TNX to TAN.
@@ -636,4 +2275,60 @@ public class Transform {
 
     }
 
+    /**
+     * World coordinates of a grid of pixel coordinates, see pix2skyGrid(). The grid
+     * has shape[i] points along pixel axis i, planes[i][n] is the world coordinate of
+     * axis i at grid point n, and status[n] is the WCSLIB status of grid point n as
+     * for a BatchResult.
+     */
+    public static class GridResult {
+        public int[] shape;
+        public double[][] planes;
+        public int[] status;
+        public String[] units;
+
+        public GridResult(int[] shape, double[][] planes, int[] status, String[] units) {
+            this.shape = shape;
+            this.planes = planes;
+            this.status = status;
+            this.units = units;
+        }
+    }
+
+    /**
+     * Result of a batch transformation. The coordinates are a flat array of ncoord
+     * coordinates, and status holds the WCSLIB status of each coordinate: 0 if the
+     * coordinate is valid, otherwise a bit mask of the invalid input elements. The
+     * output values of an invalid coordinate are undefined.
+     */
+    public static class BatchResult extends Result {
+        public int[] status;
+
+        public BatchResult(double[] coordinates, String[] units, int[] status) {
+            super(coordinates, units);
+            this.status = status;
+        }
+
+        /**
+         * @param index index of the coordinate in the batch.
+         * @return true if the coordinate was transformed successfully.
+         */
+        public boolean isValid(int index) {
+            return status[index] == 0;
+        }
+
+        /**
+         * @return number of coordinates that could not be transformed.
+         */
+        public int getInvalidCount() {
+            int count = 0;
+            for (int s : status) {
+                if (s != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
 }
@@ -0,0 +1,304 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.wcs.exceptions.NoSuchKeywordException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Thread-safe cache of prepared Transforms keyed by the content of the WCS keywords.
+ *
+ * <p>Headers from the same instrument often share an identical WCS, and preparing the
+ * native wcsprm struct is much more expensive than a transformation. The cache key is
+ * the primary and alternate WCS compiled by KeywordCompiler, the same arrays of NAXIS,
+ * CRPIXi, CRVALi, CDELTi, CTYPEi, CUNITi, CROTAi, PCi_j, CDi_j, PVi_m, PSi_m, LONPOLE,
+ * LATPOLE, RESTFRQ and RESTWAV that the Transform is built from, so other header keywords
+ * do not prevent sharing and getAlternate() of a cached Transform is that of the header.
+ *
+ * <p>The least recently used Transforms are evicted when the cache holds more than the
+ * maximum number of entries, when the estimated native memory of the cached Transforms
+ * exceeds the maximum number of bytes, or when the native memory of all Transforms
+ * exceeds the limit of NativeMemory and evicting the cached Transforms brings it under
+ * the limit. Only as many Transforms as needed are evicted for the limit. The native
+ * memory of a cached Transform includes its alternate WCS and spectral translations,
+ * counted again each time get() returns it. The native wcsprm structs of an evicted
+ * Transform and of its alternates and translations are freed at once. An evicted
+ * Transform remains usable by callers that still hold it, and prepares its structs
+ * again if it needs WCSLib.
+ *
+ * <p>The Transforms are shared, so calls on the same Transform from different threads
+ * are serialized. The translate() method of a shared Transform copies the keywords of
+ * the header that first created it, and the Transforms returned by translateTransform()
+ * are shared with it. The Transforms are shared, so callers must not close them.
+ */
+public class TransformCache {
+    private static final Logger log = Logger.getLogger(TransformCache.class);
+
+    private final int maxEntries;
+    private final long maxNativeBytes;
+
+    // Access ordered, guarded by this.
+    private final Map<Key, Entry> cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long nativeBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a cache bounded by the number of entries and the estimated native memory.
+     *
+     * @param maxEntries maximum number of cached Transforms.
+     * @param maxNativeBytes maximum estimated native memory of the cached Transforms.
+     */
+    public TransformCache(int maxEntries, long maxNativeBytes) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        if (maxNativeBytes < 1) {
+            throw new IllegalArgumentException("maxNativeBytes must be positive: " + maxNativeBytes);
+        }
+        this.maxEntries = maxEntries;
+        this.maxNativeBytes = maxNativeBytes;
+    }
+
+    /**
+     * Returns a prepared Transform for the WCS keywords, creating and caching it
+     * if the cache does not hold a Transform for identical WCS keywords.
+     *
+     * @param wcs implementation of WCSKeywords.
+     * @return shared Transform for the WCS keywords.
+     * @throws NoSuchKeywordException if NAXIS keyword is not found in WCSKeywords.
+     */
+    public Transform get(WCSKeywords wcs) throws NoSuchKeywordException {
+        Key key = getKey(wcs);
+        synchronized (this) {
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                // Count the alternates and translations created since the last call.
+                long size = entry.transform.getTotalNativeSize();
+                nativeBytes += size - entry.size;
+                entry.size = size;
+                return entry.transform;
+            }
+        }
+
+        // Prepare outside the lock so other headers are not blocked.
+        misses.incrementAndGet();
+        Transform transform = new Transform(wcs, key.compiled);
+        List<Transform> evicted;
+        synchronized (this) {
+            Entry existing = cache.get(key);
+            if (existing != null) {
+                return existing.transform;
+            }
+            Entry entry = new Entry(transform);
+            cache.put(key, entry);
+            nativeBytes += entry.size;
+            evicted = evict(entry);
+        }
+        // Free outside the lock, release() waits for calls in progress on the Transform.
+        release(evicted);
+        return transform;
+    }
+
+    /**
+     * Removes all Transforms from the cache.
+     */
+    public void clear() {
+        List<Transform> evicted;
+        synchronized (this) {
+            evicted = new ArrayList<Transform>();
+            for (Entry entry : cache.values()) {
+                evicted.add(entry.transform);
+            }
+            cache.clear();
+            nativeBytes = 0;
+        }
+        release(evicted);
+    }
+
+    /**
+     * @return number of cached Transforms.
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return estimated native memory of the cached Transforms in bytes.
+     */
+    public synchronized long getNativeBytes() {
+        return nativeBytes;
+    }
+
+    /**
+     * @return number of calls to get() that returned a cached Transform.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of calls to get() that prepared a new Transform.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of Transforms evicted from the cache.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    // Evict least recently used entries, keeping at least the newest one.
+    private List<Transform> evict(Entry newest) {
+        // Native memory over the limit of NativeMemory, which only drops once the evicted
+        // Transforms are released. Evicting does not help if the other Transforms exceed
+        // the limit on their own, so the cache is not emptied for them. The excess is not
+        // negative, so subtracting the evicted Transforms cannot overflow.
+        long excess = Math.max(0L, NativeMemory.getBytes() - NativeMemory.getLimit());
+        if (excess > nativeBytes - newest.size) {
+            excess = 0;
+        }
+
+        List<Transform> evicted = new ArrayList<Transform>();
+        Iterator<Entry> iter = cache.values().iterator();
+        while (cache.size() > 1 && (cache.size() > maxEntries || nativeBytes > maxNativeBytes || excess > 0)) {
+            Entry eldest = iter.next();
+            iter.remove();
+            nativeBytes -= eldest.size;
+            excess -= eldest.transform.getTotalNativeSize();
+            evicted.add(eldest.transform);
+            evictions.incrementAndGet();
+        }
+        log.debug("cache size: " + cache.size() + " native bytes: " + nativeBytes);
+        return evicted;
+    }
+
+    private static void release(List<Transform> evicted) {
+        for (Transform transform : evicted) {
+            transform.release();
+        }
+    }
+
+    // Cached Transform and its native memory as counted in nativeBytes, guarded by the cache.
+    private static final class Entry {
+        final Transform transform;
+        long size;
+
+        Entry(Transform transform) {
+            this.transform = transform;
+            this.size = transform.getTotalNativeSize();
+        }
+    }
+
+    /**
+     * Compiles the cache key of the WCS keywords in one pass over the keywords.
+     *
+     * @param wcs implementation of WCSKeywords.
+     * @return cache key of the WCS keywords.
+     * @throws NoSuchKeywordException if NAXIS keyword is not found in WCSKeywords.
+     */
+    static Key getKey(WCSKeywords wcs) throws NoSuchKeywordException {
+        return new Key(KeywordCompiler.compileAll(wcs));
+    }
+
+    // Compiled primary and alternate WCS of a header, the hash is computed once.
+    static final class Key {
+        final KeywordCompiler[] compiled;
+        private final int hash;
+
+        Key(KeywordCompiler[] compiled) {
+            this.compiled = compiled;
+            this.hash = Arrays.hashCode(compiled);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && hash == ((Key) obj).hash && Arrays.equals(compiled, ((Key) obj).compiled);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
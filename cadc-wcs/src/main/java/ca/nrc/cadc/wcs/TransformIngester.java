@@ -0,0 +1,372 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Builds prepared Transforms from a stream of FITS headers in parallel. Each header
+ * source is read, a Transform is built, validated by transforming the centre pixel to
+ * world coordinates and back, and optionally the sky footprint of a celestial WCS is
+ * computed. Sources are processed by a work-stealing pool, and at most maxPending
+ * sources are read ahead of the outcomes delivered to the listener, so a slow listener
+ * holds back the reading of the sources.
+ *
+ * <p>The listener receives one Outcome per source, with the Transform or the error,
+ * either in the order of the sources or as they complete. Listener calls are made one
+ * at a time from the pool threads, so a listener does not need to be thread-safe.
+ *
+ * <p>Reading headers, compiling keywords and transforming coordinates run in
+ * parallel. Setting up the native wcsprm struct is serialized by WCSLib.
+ */
+public class TransformIngester {
+    private static final Logger log = Logger.getLogger(TransformIngester.class);
+
+    // Maximum pixel difference of the centre pixel after the validation round trip.
+    private static final double VALIDATION_TOLERANCE = 1.0e-6;
+
+    private final int parallelism;
+    private final int maxPending;
+    private final boolean ordered;
+    private final double footprintTolerance;
+    private final TransformCache cache;
+
+    /**
+     * Receives the outcome of each header source.
+     */
+    public interface Listener {
+        /**
+         * @param outcome the Transform or the error of one header source.
+         */
+        void accept(Outcome outcome);
+    }
+
+    /**
+     * Constructs an ingester.
+     *
+     * @param parallelism number of pool threads.
+     * @param maxPending maximum number of sources read before their outcome is delivered.
+     * @param ordered true to deliver the outcomes in the order of the sources.
+     * @param footprintTolerance tolerance of the footprints in degrees, 0 for no footprints.
+     * @param cache cache shared by headers with the same WCS, or null to build each Transform.
+     */
+    public TransformIngester(int parallelism, int maxPending, boolean ordered, double footprintTolerance,
+                             TransformCache cache) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Maximum pending sources must be positive: " + maxPending);
+        }
+        if (!(footprintTolerance >= 0.0)) {
+            throw new IllegalArgumentException("Footprint tolerance must not be negative: " + footprintTolerance);
+        }
+        this.parallelism = parallelism;
+        this.maxPending = maxPending;
+        this.ordered = ordered;
+        this.footprintTolerance = footprintTolerance;
+        this.cache = cache;
+    }
+
+    /**
+     * Processes all the header sources and returns when every outcome has been delivered
+     * to the listener. A source that throws an exception or error gives an Outcome with it.
+     *
+     * @param sources header sources, each returns the WCS keywords of one header.
+     * @param listener receives the outcome of each source.
+     * @return the throughput of each stage.
+     * @throws InterruptedException if interrupted while waiting for outcomes.
+     */
+    public Stats ingest(Iterator<? extends Callable<? extends WCSKeywords>> sources, Listener listener)
+        throws InterruptedException {
+        final Stats stats = new Stats();
+        final Semaphore permits = new Semaphore(maxPending);
+        final Emitter emitter = new Emitter(listener, permits, stats);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            long index = 0;
+            while (sources.hasNext()) {
+                permits.acquire();
+                final Outcome outcome = new Outcome(index++);
+                final Callable<? extends WCSKeywords> source = sources.next();
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            process(outcome, source, stats);
+                        } catch (Throwable ex) {
+                            // Errors of the native layer are recorded too, so every Outcome
+                            // has either a Transform or an error.
+                            outcome.error = ex;
+                        } finally {
+                            emitter.emit(outcome);
+                        }
+                    }
+                });
+            }
+            // All permits are back when every outcome has been delivered.
+            permits.acquire(maxPending);
+            permits.release(maxPending);
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1L, TimeUnit.MINUTES);
+        }
+        stats.wallNanos = System.nanoTime() - stats.startNanos;
+        log.debug("ingested " + stats);
+        return stats;
+    }
+
+    // Reads, builds and validates the Transform of one source.
+    private void process(Outcome outcome, Callable<? extends WCSKeywords> source, Stats stats) throws Exception {
+        long t0 = System.nanoTime();
+        WCSKeywords wcs = source.call();
+        long t1 = System.nanoTime();
+        stats.read.add(t1 - t0);
+
+        Transform transform = cache == null ? new Transform(wcs) : cache.get(wcs);
+        long t2 = System.nanoTime();
+        stats.build.add(t2 - t1);
+
+        validate(wcs, transform);
+        long t3 = System.nanoTime();
+        stats.validate.add(t3 - t2);
+        outcome.transform = transform;
+
+        if (footprintTolerance > 0.0 && transform.hasCelestialAxes() && wcs.containsKey("NAXIS1")
+            && wcs.containsKey("NAXIS2")) {
+            // A cached Transform is shared by headers that differ in NAXISi.
+            outcome.footprint = transform.getFootprint(wcs.getIntValue("NAXIS1"), wcs.getIntValue("NAXIS2"),
+                                                       footprintTolerance);
+            stats.footprint.add(System.nanoTime() - t3);
+        }
+    }
+
+    // Transforms the centre pixel to world coordinates and back.
+    private static void validate(WCSKeywords wcs, Transform transform) {
+        int naxis = wcs.getIntValue("NAXIS");
+        double[] pix = new double[naxis];
+        for (int i = 0; i < naxis; i++) {
+            pix[i] = (Math.max(1, wcs.getIntValue("NAXIS" + (i + 1), 1)) + 1) / 2.0;
+        }
+        Transform.BatchResult world = transform.pix2sky(pix, 1);
+        if (!world.isValid(0)) {
+            throw new IllegalArgumentException("invalid WCS: centre pixel has no world coordinates");
+        }
+        Transform.BatchResult back = transform.sky2pix(world.coordinates, 1);
+        for (int i = 0; i < naxis; i++) {
+            if (!back.isValid(0) || !(Math.abs(back.coordinates[i] - pix[i]) <= VALIDATION_TOLERANCE)) {
+                throw new IllegalArgumentException("invalid WCS: centre pixel does not transform back, axis "
+                                                       + (i + 1) + ": " + pix[i] + " -> " + back.coordinates[i]);
+            }
+        }
+    }
+
+    // Delivers outcomes to the listener one at a time, in source order if required.
+    private class Emitter {
+        private final Listener listener;
+        private final Semaphore permits;
+        private final Stats stats;
+        private final Map<Long, Outcome> waiting = new HashMap<Long, Outcome>();
+        private long next = 0;
+
+        Emitter(Listener listener, Semaphore permits, Stats stats) {
+            this.listener = listener;
+            this.permits = permits;
+            this.stats = stats;
+        }
+
+        synchronized void emit(Outcome outcome) {
+            if (!ordered) {
+                deliver(outcome);
+                return;
+            }
+            waiting.put(outcome.index, outcome);
+            Outcome o = waiting.remove(next);
+            while (o != null) {
+                deliver(o);
+                next++;
+                o = waiting.remove(next);
+            }
+        }
+
+        private void deliver(Outcome outcome) {
+            try {
+                if (outcome.error != null) {
+                    stats.errors.incrementAndGet();
+                }
+                listener.accept(outcome);
+            } catch (RuntimeException ex) {
+                log.error("listener failed on source " + outcome.index, ex);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Outcome of one header source: the Transform and optional footprint, or the error.
+     */
+    public static class Outcome {
+        public final long index;
+        public Transform transform;
+        public Footprint footprint;
+        public Throwable error;
+
+        public Outcome(long index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Number of items and time spent in one stage, summed over the pool threads.
+     */
+    public static class StageStats {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void add(long elapsed) {
+            count.incrementAndGet();
+            nanos.addAndGet(elapsed);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getNanos() {
+            return nanos.get();
+        }
+
+        /**
+         * @return items per second of one thread in this stage.
+         */
+        public double getThroughput() {
+            long n = nanos.get();
+            return n == 0 ? 0.0 : count.get() * 1.0e9 / n;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d in %.3f s (%.1f/s per thread)", name, getCount(), getNanos() / 1.0e9,
+                                 getThroughput());
+        }
+    }
+
+    /**
+     * Throughput of an ingest() call by stage.
+     */
+    public static class Stats {
+        public final StageStats read = new StageStats("read");
+        public final StageStats build = new StageStats("build");
+        public final StageStats validate = new StageStats("validate");
+        public final StageStats footprint = new StageStats("footprint");
+        private final AtomicLong errors = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+        private volatile long wallNanos;
+
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * @return validated Transforms per second of elapsed time.
+         */
+        public double getThroughput() {
+            return wallNanos == 0 ? 0.0 : validate.getCount() * 1.0e9 / wallNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f/s, %d errors; %s; %s; %s; %s", getThroughput(), getErrorCount(), read, build,
+                                 validate, footprint);
+        }
+    }
+
+}
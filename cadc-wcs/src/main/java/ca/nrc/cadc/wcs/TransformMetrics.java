@@ -0,0 +1,125 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+/**
+ * Service provider interface for metrics of the Transform calls, see
+ * {@link Transform#setMetrics(TransformMetrics)}. Implementations are called from
+ * every thread that transforms coordinates, so they must be thread safe and should
+ * not block or allocate. TransformStatistics is the built in implementation.
+ *
+ * <p>Times are in nanoseconds and split into three stages:
+ * <ul>
+ * <li>marshal - time in Java copying coordinates into and out of the arrays of the result.</li>
+ * <li>wait - time waiting for the monitor of the prepared wcsprm struct, or for the
+ * lock that serializes setting up wcsprm structs.</li>
+ * <li>exec - time in the native WCSLib call, or in the pure Java transformations.</li>
+ * </ul>
+ */
+public interface TransformMetrics {
+
+    /**
+     * The calls measured.
+     */
+    enum Call {
+        /** Building and setting up a wcsprm struct from the keywords. */
+        PREPARE,
+        /** Translating the spectral axis. */
+        TRANSLATE,
+        /** Extracting the axes of a prepared wcsprm struct. */
+        SUBIMAGE,
+        /** Transforming pixel coordinates to world coordinates. */
+        PIX2SKY,
+        /** Transforming world coordinates to pixel coordinates. */
+        SKY2PIX
+    }
+
+    /**
+     * Records a call to WCSLib or to the pure Java transformations.
+     *
+     * @param call the call.
+     * @param java true if the call was transformed in Java rather than in WCSLib.
+     * @param ncoord number of coordinates transformed, 0 for calls without coordinates.
+     * @param waitNanos time waiting for the monitor or lock.
+     * @param execNanos time in the call.
+     * @param status status of the call: 0, BAD_PIX or BAD_WORLD from a transformation,
+     *     or the WCSLib status the call failed with.
+     */
+    void record(Call call, boolean java, int ncoord, long waitNanos, long execNanos, int status);
+
+    /**
+     * Records the time in Java copying coordinates into and out of the arrays of a result.
+     *
+     * @param call the call.
+     * @param ncoord number of coordinates.
+     * @param marshalNanos time copying the coordinates.
+     */
+    void recordMarshal(Call call, int ncoord, long marshalNanos);
+}
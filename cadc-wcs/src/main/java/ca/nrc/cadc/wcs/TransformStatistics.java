@@ -0,0 +1,365 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.wcs.TransformMetrics.Call;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ * Lock free TransformMetrics that counts calls, coordinates and failures by status,
+ * and records latency histograms of the marshal, wait and exec stages of each call.
+ * Recording does not allocate, so the statistics can stay installed in production;
+ * the maps are only built when they are read.
+ *
+ * <p>The histograms have four buckets per power of two, so a percentile is accurate
+ * to within 25% of its value.
+ *
+ * <pre>
+ * TransformStatistics stats = TransformStatistics.install();
+ * ...
+ * Map&lt;String, Double&gt; latency = stats.getLatencyMicros();
+ * </pre>
+ */
+public class TransformStatistics implements TransformMetrics, TransformStatisticsMXBean {
+    private static final Logger log = Logger.getLogger(TransformStatistics.class);
+
+    /**
+     * ObjectName the statistics are registered at by install().
+     */
+    public static final String OBJECT_NAME = "ca.nrc.cadc.wcs:type=TransformStatistics";
+
+    private static final Call[] CALLS = Call.values();
+    private static final String[] ENGINES = {"java", "native"};
+
+    // Histogram stages of a call, in the order of the histogram index.
+    private static final String[] STAGES = {"marshal", "wait", "java", "native"};
+    private static final int MARSHAL = 0;
+    private static final int WAIT = 1;
+    private static final int EXEC = 2;
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    // Statuses counted individually, larger statuses are counted together.
+    private static final int MAX_STATUS = 128;
+
+    // Four buckets per power of two up to 2^63.
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray calls = new AtomicLongArray(CALLS.length * ENGINES.length);
+    private final AtomicLongArray coordinates = new AtomicLongArray(CALLS.length * ENGINES.length);
+    private final AtomicLongArray failures = new AtomicLongArray(MAX_STATUS + 1);
+    private final AtomicLongArray buckets = new AtomicLongArray(CALLS.length * STAGES.length * BUCKETS);
+    private final AtomicLongArray max = new AtomicLongArray(CALLS.length * STAGES.length);
+
+    /**
+     * Constructs empty statistics. Use install() or Transform.setMetrics() to record
+     * the calls of all transforms.
+     */
+    public TransformStatistics() {
+    }
+
+    /**
+     * Creates statistics, records the calls of all transforms to them, and registers
+     * them with the platform MBean server at OBJECT_NAME, replacing statistics
+     * installed before.
+     *
+     * @return the installed statistics.
+     * @throws IllegalStateException if the statistics cannot be registered.
+     */
+    public static synchronized TransformStatistics install() {
+        TransformStatistics statistics = new TransformStatistics();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(statistics, name);
+        } catch (JMException ex) {
+            throw new IllegalStateException("failed to register " + OBJECT_NAME, ex);
+        }
+        Transform.setMetrics(statistics);
+        log.debug("installed " + OBJECT_NAME);
+        return statistics;
+    }
+
+    /**
+     * Stops recording the calls of all transforms and unregisters the statistics
+     * registered by install().
+     *
+     * @throws IllegalStateException if the statistics cannot be unregistered.
+     */
+    public static synchronized void uninstall() {
+        Transform.setMetrics(null);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            throw new IllegalStateException("failed to unregister " + OBJECT_NAME, ex);
+        }
+    }
+
+    @Override
+    public void record(Call call, boolean java, int ncoord, long waitNanos, long execNanos, int status) {
+        int i = call.ordinal() * ENGINES.length + (java ? 0 : 1);
+        calls.incrementAndGet(i);
+        if (ncoord > 0) {
+            coordinates.addAndGet(i, ncoord);
+        }
+        if (status != 0) {
+            failures.incrementAndGet(status > 0 && status < MAX_STATUS ? status : MAX_STATUS);
+        }
+        if (!java) {
+            add(call, WAIT, waitNanos);
+        }
+        add(call, java ? EXEC : EXEC + 1, execNanos);
+    }
+
+    @Override
+    public void recordMarshal(Call call, int ncoord, long marshalNanos) {
+        add(call, MARSHAL, marshalNanos);
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        return getCounts(calls);
+    }
+
+    @Override
+    public Map<String, Long> getCoordinates() {
+        return getCounts(coordinates);
+    }
+
+    @Override
+    public Map<String, Long> getFailures() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (int status = 1; status <= MAX_STATUS; status++) {
+            long count = failures.get(status);
+            if (count > 0) {
+                String key = status < MAX_STATUS ? status + " " + WCSLib.getErrorMessage(status) : "other";
+                result.put(key, count);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMicros() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Call call : CALLS) {
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                int h = call.ordinal() * STAGES.length + stage;
+                long count = 0;
+                for (int b = 0; b < BUCKETS; b++) {
+                    count += buckets.get(h * BUCKETS + b);
+                }
+                if (count == 0) {
+                    continue;
+                }
+                String prefix = call.name().toLowerCase(Locale.ROOT) + "." + STAGES[stage] + ".";
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    result.put(prefix + PERCENTILE_NAMES[p], getPercentile(h, count, PERCENTILES[p]) / 1000.0);
+                }
+                result.put(prefix + "max", max.get(h) / 1000.0);
+                result.put(prefix + "count", (double) count);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getNativeMemory() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        result.put("handles", (long) NativeMemory.getHandleCount());
+        result.put("bytes", NativeMemory.getBytes());
+        result.put("peakBytes", NativeMemory.getPeakBytes());
+        result.put("cleaned", NativeMemory.getCleanedCount());
+        result.put("limit", NativeMemory.getLimit());
+        return result;
+    }
+
+    /**
+     * Returns a latency percentile of a stage of a call.
+     *
+     * @param call the call.
+     * @param stage marshal, wait, java or native.
+     * @param percentile percentile between 0 and 1.
+     * @return upper bound of the histogram bucket of the percentile in nanoseconds,
+     *     or 0 if no latency was recorded.
+     */
+    public long getPercentileNanos(Call call, String stage, double percentile) {
+        int s = -1;
+        for (int i = 0; i < STAGES.length; i++) {
+            if (STAGES[i].equals(stage)) {
+                s = i;
+            }
+        }
+        if (s < 0) {
+            throw new IllegalArgumentException("unknown stage: " + stage);
+        }
+        if (percentile < 0.0 || percentile > 1.0) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1: " + percentile);
+        }
+        int h = call.ordinal() * STAGES.length + s;
+        long count = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            count += buckets.get(h * BUCKETS + b);
+        }
+        return count == 0 ? 0L : getPercentile(h, count, percentile);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < calls.length(); i++) {
+            calls.set(i, 0L);
+            coordinates.set(i, 0L);
+        }
+        for (int i = 0; i < failures.length(); i++) {
+            failures.set(i, 0L);
+        }
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0L);
+        }
+        for (int i = 0; i < max.length(); i++) {
+            max.set(i, 0L);
+        }
+    }
+
+    private Map<String, Long> getCounts(AtomicLongArray counts) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Call call : CALLS) {
+            for (int e = 0; e < ENGINES.length; e++) {
+                long count = counts.get(call.ordinal() * ENGINES.length + e);
+                if (count > 0) {
+                    result.put(call.name().toLowerCase(Locale.ROOT) + "." + ENGINES[e], count);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void add(Call call, int stage, long nanos) {
+        long value = Math.max(0L, nanos);
+        int h = call.ordinal() * STAGES.length + stage;
+        buckets.incrementAndGet(h * BUCKETS + getBucket(value));
+        long current = max.get(h);
+        while (value > current && !max.compareAndSet(h, current, value)) {
+            current = max.get(h);
+        }
+    }
+
+    private long getPercentile(int h, long count, double percentile) {
+        long rank = Math.max(1L, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(h * BUCKETS + b);
+            if (seen >= rank) {
+                return Math.min(getUpperBound(b), max.get(h));
+            }
+        }
+        return max.get(h);
+    }
+
+    // Values below SUB_BUCKETS have a bucket each, larger values share a bucket with
+    // the values that have the same highest SUB_BITS + 1 bits.
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value of a bucket.
+    static long getUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -69,11 +69,13 @@
 
 package ca.nrc.cadc.wcs;
 
-import ca.nrc.cadc.wcs.Transform.Result;
 import ca.nrc.cadc.wcs.exceptions.WCSLibInitializationException;
 import ca.nrc.cadc.wcs.exceptions.WCSLibRuntimeException;
+import java.nio.DoubleBuffer;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 
 /**
@@ -86,6 +88,12 @@ import org.apache.log4j.Logger;
 final class WCSLib {
     private static final Logger LOGGER = Logger.getLogger(WCSLib.class);
     private static final String JNI_SO_PREFIX = "libwcsLibJNI";
+
+    // Version of the JNI functions in wcslib.c, see jniversion().
+    static final int JNI_VERSION = 2;
+
+    // Version of the JNI functions of the loaded library, set by loadNativeLibrary().
+    private static int loadedVersion;
     private static final String[] JNI_FILES = new String[] { 
         JNI_SO_PREFIX + ".8",
         JNI_SO_PREFIX + ".7",
@@ -105,29 +113,49 @@ final class WCSLib {
     protected static double UNDEFINED = 987654321.0e99;
 
     /**
-     * Load and return the located version.
+     * Status returned when one or more of the pixel coordinates were invalid.
+     */
+    protected static final int BAD_PIX = 8;
+
+    /**
+     * Status returned when one or more of the world coordinates were invalid.
+     */
+    protected static final int BAD_WORLD = 9;
+
+    /**
+     * Load and return the located version. The version found is remembered by
+     * NativeUtil, so later JVMs try it first.
      *
      * @return The JNI file that was successfully loaded.
      * @throws WCSLibInitializationException If none found.
      */
     private static String loadNativeLibrary() throws WCSLibInitializationException {
-        final ClassLoader classLoader = WCSLib.class.getClassLoader();
-        for (final String libraryFile : JNI_FILES) {
-            try {
-                LOGGER.info("Checking library file " + libraryFile);
-                NativeUtil.loadJNI(classLoader, libraryFile);
-
-                // Found one that is valid.
-                LOGGER.info("Checking library file " + libraryFile + ": OK");
-
-                return libraryFile;
-            } catch (NativeInitializationException ex) {
-                LOGGER.info("Checking library file " + libraryFile + ": FAIL");
-                // Check next version.
-            }
+        String name;
+        try {
+            name = NativeUtil.loadFirstJNI(WCSLib.class.getClassLoader(), JNI_SO_PREFIX, JNI_FILES);
+        } catch (NativeInitializationException ex) {
+            throw new WCSLibInitializationException(ex.getMessage(), -1, ex);
         }
 
-        throw new WCSLibInitializationException("failed to find a valid file beginning with " + JNI_SO_PREFIX, -1);
+        // A library built from an older wcslib.c has other native signatures, so check
+        // the version before any other native method is called. A library built before
+        // the versioning only has wcsp2s(), wcss2p() and wcssptr(), which set up a wcsprm
+        // struct in each call, and is used through the LegacyStruct of each handle.
+        int version;
+        try {
+            version = jniversion();
+        } catch (UnsatisfiedLinkError ex) {
+            version = 1;
+        }
+        if (version == 1) {
+            LOGGER.warn(name + " has JNI version 1, expected " + JNI_VERSION + ": each transformation sets up"
+                            + " the wcsprm struct again until it is rebuilt with build-jni.gradle");
+        } else if (version != JNI_VERSION) {
+            throw new WCSLibInitializationException(name + " has JNI version " + version + ", expected "
+                                                    + JNI_VERSION + ": rebuild it with build-jni.gradle", -1);
+        }
+        loadedVersion = version;
+        return name;
     }
 
     /**
@@ -175,14 +203,38 @@ final class WCSLib {
         ERROR_MAP.put(116, "Pixel coordinates array index out of bounds.");
         ERROR_MAP.put(117, "World coordinates array index out of bounds.");
         ERROR_MAP.put(118, "Result array index out of bounds.");
+        ERROR_MAP.put(119, "Pixel coordinates buffer is not a direct buffer.");
+        ERROR_MAP.put(120, "World coordinates buffer is not a direct buffer.");
+        ERROR_MAP.put(121, "Axes array index out of bounds.");
     }
 
+    /**
+     * Serializes calls that build and set up a wcsprm struct. Older WCSLIB versions
+     * parse units and spectral types with non-reentrant scanners, while transformations
+     * on an already prepared wcsprm struct are safe to run in parallel.
+     */
+    private static final Object SETUP_LOCK = new Object();
+
+    // Keywords of the handles of a version 1 library, see LegacyStruct.
+    private static final Map<Long, LegacyStruct> LEGACY_STRUCTS = new ConcurrentHashMap<Long, LegacyStruct>();
+    private static final AtomicLong LEGACY_HANDLES = new AtomicLong();
+
     private WCSLib() {
     }
 
     /**
-     * Transforms pixel coordinates to world coordinates using the
-     * native WCSLIB wcsp2s() C method.
+     * @return true if the loaded library has the JNI functions of version 1, which set up
+     *     the wcsprm struct in each call and cannot extract axes with subimage().
+     */
+    static boolean isLegacy() {
+        return loadedVersion < JNI_VERSION;
+    }
+
+    /**
+     * Builds a native WCSLIB wcsprm struct from the WCS keywords and calls
+     * the WCSLIB wcsset() C method on it. The returned handle is passed to
+     * pix2sky() and sky2pix() so each transformation only has to pass the
+     * coordinates, and must be released with free().
      *
      * @param naxis NAXIS - Number of axes in WCS description.
      * @param crpix CRPIXi - Pixel coordinate of the reference point.
@@ -203,86 +255,251 @@ final class WCSLib {
      * @param psv PSi_ma - Parameter value.
      * @param cd CDi_j - Spectrum coordinate matrix.
      * @param crota CROTAi - Coordinate rotation.
-     * @param pixcrd Pixel coordinates.
-     * @return World coordinates.
-     * @throws WCSLibInitializationException if initialization of the WCSLIB C wcsprm struct fails.
+     * @return handle to the prepared native wcsprm struct.
      * @throws WCSLibRuntimeException if WCSLIB function execution fails.
      */
-    protected static Result pix2sky(int naxis, double[] crpix, double[] pc, double[] cdelt, double[] crval,
-                                    String[] cunit, String[] ctype, double[] lonpole, double[] latpole,
-                                    double[] restfrq, double[] restwav, int[] pvi, int[] pvm, double[] pvv, int[] psi,
-                                    int[] psm, String[] psv, double[] cd, double[] crota, double[] pixcrd) {
+    protected static long prepare(int naxis, double[] crpix, double[] pc, double[] cdelt, double[] crval,
+                                  String[] cunit, String[] ctype, double[] lonpole, double[] latpole,
+                                  double[] restfrq, double[] restwav, int[] pvi, int[] pvm, double[] pvv, int[] psi,
+                                  int[] psm, String[] psv, double[] cd, double[] crota) {
         // Bug fix for wcslib 6 only to check for invalid spectral CUNIT's
         // which cause a segmentation fault.
         // JB 2021.07.09
         SpectralUtil.isValidCunit(ctype, cunit);
 
-        double[] world = new double[pixcrd.length];
-        String[] worldUnits = new String[pixcrd.length];
-        int status = wcsp2s(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav, pvi, pvm,
-                            pvv, psi, psm, psv, cd, crota, pixcrd, world, worldUnits);
+        long[] handle = new long[1];
+        int status;
+        SetupEvent event = null;
+        if (Events.AVAILABLE) {
+            event = new SetupEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        long locked;
+        synchronized (SETUP_LOCK) {
+            locked = System.nanoTime();
+            if (isLegacy()) {
+                handle[0] = LEGACY_HANDLES.incrementAndGet();
+                LEGACY_STRUCTS.put(handle[0], new LegacyStruct(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole,
+                                                               latpole, restfrq, restwav, pvi, pvm, pvv, psi, psm,
+                                                               psv, cd, crota));
+                status = 0;
+            } else {
+                status = wcsprep(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav,
+                                 pvi, pvm, pvv, psi, psm, psv, cd, crota, handle);
+            }
+        }
+        record(TransformMetrics.Call.PREPARE, start, locked, status);
+        if (event != null) {
+            event.complete("prepare", naxis, ctype, null, status);
+        }
 
         if (status == 0) {
-            return new Result(world, worldUnits);
+            return handle[0];
         } else {
-            String message = ERROR_MAP.get(status);
-            if (message == null) {
-                message = "BUG: unknown status value returned by wcsLibJNI";
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
+        }
+    }
+
+    /**
+     * Extracts the given axes of a prepared wcsprm struct into a new wcsprm struct
+     * using the WCSLIB wcssub() C method, and calls wcsset() on it. The returned
+     * handle must be released with free(). Not available if isLegacy().
+     *
+     * @param handle handle to the prepared native wcsprm struct.
+     * @param axes axis numbers (1-relative) to extract, in the order of the new struct.
+     * @return handle to the prepared native sub wcsprm struct.
+     * @throws WCSLibRuntimeException if WCSLIB function execution fails.
+     */
+    protected static long subimage(long handle, int[] axes) {
+        long[] result = new long[1];
+        int status;
+        SetupEvent event = null;
+        if (Events.AVAILABLE) {
+            event = new SetupEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        long locked;
+        synchronized (SETUP_LOCK) {
+            locked = System.nanoTime();
+            status = wcssub(handle, axes.clone(), result);
+        }
+        record(TransformMetrics.Call.SUBIMAGE, start, locked, status);
+        if (event != null) {
+            event.complete("subimage", axes.length, null, null, status);
+        }
+
+        if (status == 0) {
+            return result[0];
+        } else {
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
+        }
+    }
+
+    /**
+     * Releases the native wcsprm struct created by prepare().
+     *
+     * @param handle handle to the prepared native wcsprm struct.
+     */
+    protected static void free(long handle) {
+        if (handle != 0L) {
+            if (isLegacy()) {
+                LEGACY_STRUCTS.remove(handle);
+            } else {
+                wcsfree(handle);
             }
-            throw new WCSLibRuntimeException(message, status);
         }
     }
 
     /**
-     * Transforms world coordinates to pixel coordinates using the
-     * native WCSLIB wcss2p() C method.
+     * Returns the units of the coordinate axes of a prepared wcsprm struct.
      *
-     * @param naxis NAXIS - Number of axes in WCS description.
-     * @param crpix CRPIXi - Pixel coordinate of the reference point.
-     * @param pc PCi_j - Pixel coordinate transformation matrix.
-     * @param cdelt CDELTi - Coordinate increment.
-     * @param crval CRVALi - Coordinate value at reference point.
-     * @param cunit CUNITi - Units of CRVAL and CDELT.
-     * @param ctype CTYPEi - Axis type.
-     * @param lonpole LONPOLE - Native longitude of the celestial pole.
-     * @param latpole LATPOLE - Native latitude of the celestial pole.
-     * @param restfrq RESTFRQ - Line rest frequency (Hz).
-     * @param restwav RESTWAV - Line rest wavelength in vacuum (m).
-     * @param pvi PVi_ma - Axis number i (1-relative).
-     * @param pvm PVi_ma - Parameter number m (0-relative).
-     * @param pvv PVi_ma - Parameter value.
-     * @param psi PSi_ma - Axis number i (1-relative).
-     * @param psm PSi_ma - Parameter number m (0-relative).
-     * @param psv PSi_ma - Parameter value.
-     * @param cd CDi_j - Spectrum coordinate matrix.
-     * @param crota CROTAi - Coordinate rotation.
-     * @param world World coordinates.
-     * @return Pixel coordinates.
-     * @throws WCSLibInitializationException if initialization of the WCSLIB C wcsprm struct fails.
+     * @param handle handle to the prepared native wcsprm struct.
+     * @param naxis number of axes.
+     * @return coordinate units for each axis.
+     * @throws WCSLibRuntimeException if WCSLIB function execution fails.
+     */
+    protected static String[] units(long handle, int naxis) {
+        String[] units = new String[naxis];
+        int status = isLegacy() ? getLegacyStruct(handle).units(units) : wcsunits(handle, units);
+
+        if (status == 0) {
+            return units;
+        } else {
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
+        }
+    }
+
+    /**
+     * Transforms a batch of pixel coordinates to world coordinates using a
+     * single call to the native WCSLIB wcsp2s() C method. The coordinates
+     * are read from and written to the arrays starting at the given offsets.
+     *
+     * @param handle handle to the prepared native wcsprm struct.
+     * @param ncoord number of coordinates.
+     * @param nelem vector length of each coordinate.
+     * @param pixcrd Pixel coordinates, ncoord x nelem.
+     * @param pixoff offset of the first pixel coordinate.
+     * @param world World coordinates, ncoord x nelem.
+     * @param worldoff offset of the first world coordinate.
+     * @param stat Status for each coordinate, may be null.
+     * @return 0 if all coordinates are valid, BAD_PIX if one or more of the pixel
+     *     coordinates were invalid.
+     * @throws WCSLibRuntimeException if WCSLIB function execution fails.
+     */
+    protected static int pix2sky(long handle, int ncoord, int nelem, double[] pixcrd, int pixoff, double[] world,
+                                 int worldoff, int[] stat) {
+        int status;
+        if (isLegacy()) {
+            status = getLegacyStruct(handle).transform(true, ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+        } else {
+            status = wcsp2sarr(handle, ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+        }
+
+        if (status == 0 || status == BAD_PIX) {
+            return status;
+        } else {
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
+        }
+    }
+
+    /**
+     * Transforms a batch of world coordinates to pixel coordinates using a
+     * single call to the native WCSLIB wcss2p() C method. The coordinates
+     * are read from and written to the arrays starting at the given offsets.
+     *
+     * @param handle handle to the prepared native wcsprm struct.
+     * @param ncoord number of coordinates.
+     * @param nelem vector length of each coordinate.
+     * @param world World coordinates, ncoord x nelem.
+     * @param worldoff offset of the first world coordinate.
+     * @param pixcrd Pixel coordinates, ncoord x nelem.
+     * @param pixoff offset of the first pixel coordinate.
+     * @param stat Status for each coordinate, may be null.
+     * @return 0 if all coordinates are valid, BAD_WORLD if one or more of the world
+     *     coordinates were invalid.
      * @throws WCSLibRuntimeException if WCSLIB method execution fails.
      */
-    protected static Result sky2pix(int naxis, double[] crpix, double[] pc, double[] cdelt, double[] crval,
-                                    String[] cunit, String[] ctype, double[] lonpole, double[] latpole,
-                                    double[] restfrq, double[] restwav, int[] pvi, int[] pvm, double[] pvv, int[] psi,
-                                    int[] psm, String[] psv, double[] cd, double[] crota, double[] world) {
-        // Bug fix for wcslib 6 only to check for invalid spectral CUNIT's
-        // which cause a segmentation fault.
-        // JB 2021.07.09
-        SpectralUtil.isValidCunit(ctype, cunit);
+    protected static int sky2pix(long handle, int ncoord, int nelem, double[] world, int worldoff, double[] pixcrd,
+                                 int pixoff, int[] stat) {
+        int status;
+        if (isLegacy()) {
+            status = getLegacyStruct(handle).transform(false, ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+        } else {
+            status = wcss2parr(handle, ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+        }
 
-        double[] pixcrd = new double[world.length];
-        String[] pixcrdUnits = new String[pixcrd.length];
-        int status = wcss2p(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav, pvi, pvm,
-                            pvv, psi, psm, psv, cd, crota, world, pixcrd, pixcrdUnits);
+        if (status == 0 || status == BAD_WORLD) {
+            return status;
+        } else {
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
+        }
+    }
 
-        if (status == 0) {
-            return new Result(pixcrd, pixcrdUnits);
+    /**
+     * Transforms a batch of pixel coordinates to world coordinates using a
+     * single call to the native WCSLIB wcsp2s() C method, reading and writing
+     * the coordinates in place in direct buffers in native byte order.
+     *
+     * @param handle handle to the prepared native wcsprm struct.
+     * @param ncoord number of coordinates.
+     * @param nelem vector length of each coordinate.
+     * @param pixcrd Pixel coordinates, ncoord x nelem.
+     * @param pixoff index of the first pixel coordinate in the buffer.
+     * @param world World coordinates, ncoord x nelem.
+     * @param worldoff index of the first world coordinate in the buffer.
+     * @param stat Status for each coordinate, may be null.
+     * @return 0 if all coordinates are valid, BAD_PIX if one or more of the pixel
+     *     coordinates were invalid.
+     * @throws WCSLibRuntimeException if WCSLIB function execution fails.
+     */
+    protected static int pix2sky(long handle, int ncoord, int nelem, DoubleBuffer pixcrd, int pixoff,
+                                 DoubleBuffer world, int worldoff, int[] stat) {
+        int status;
+        if (isLegacy()) {
+            status = getLegacyStruct(handle).transform(true, ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
         } else {
-            String message = ERROR_MAP.get(status);
-            if (message == null) {
-                message = "BUG: unknown status value returned by wcsLibJNI";
-            }
-            throw new WCSLibRuntimeException(message, status);
+            status = wcsp2sbuf(handle, ncoord, nelem, pixcrd, pixoff, world, worldoff, stat);
+        }
+
+        if (status == 0 || status == BAD_PIX) {
+            return status;
+        } else {
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
+        }
+    }
+
+    /**
+     * Transforms a batch of world coordinates to pixel coordinates using a
+     * single call to the native WCSLIB wcss2p() C method, reading and writing
+     * the coordinates in place in direct buffers in native byte order.
+     *
+     * @param handle handle to the prepared native wcsprm struct.
+     * @param ncoord number of coordinates.
+     * @param nelem vector length of each coordinate.
+     * @param world World coordinates, ncoord x nelem.
+     * @param worldoff index of the first world coordinate in the buffer.
+     * @param pixcrd Pixel coordinates, ncoord x nelem.
+     * @param pixoff index of the first pixel coordinate in the buffer.
+     * @param stat Status for each coordinate, may be null.
+     * @return 0 if all coordinates are valid, BAD_WORLD if one or more of the world
+     *     coordinates were invalid.
+     * @throws WCSLibRuntimeException if WCSLIB method execution fails.
+     */
+    protected static int sky2pix(long handle, int ncoord, int nelem, DoubleBuffer world, int worldoff,
+                                 DoubleBuffer pixcrd, int pixoff, int[] stat) {
+        int status;
+        if (isLegacy()) {
+            status = getLegacyStruct(handle).transform(false, ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+        } else {
+            status = wcss2pbuf(handle, ncoord, nelem, world, worldoff, pixcrd, pixoff, stat);
+        }
+
+        if (status == 0 || status == BAD_WORLD) {
+            return status;
+        } else {
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
         }
     }
 
@@ -320,28 +537,270 @@ final class WCSLib {
                                    double[] restwav, int[] pvi, int[] pvm, double[] pvv, int[] psi, int[] psm,
                                    String[] psv, double[] cd, double[] crota, int spectral_axis,
                                    String spectral_ctype) {
-        // Bug fix for wcslib 6 only to check for invalid spectral CUNIT's
-        // which cause a segmentation fault.
-        // JB 2021.07.09
-        SpectralUtil.isValidCunit(ctype, cunit);
-
-        int status = wcssptr(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav, pvi, pvm,
-                             pvv, psi, psm, psv, cd, crota, spectral_axis, spectral_ctype);
+        // CUNIT's have already been checked by prepare() when the Transform was created.
+        int status;
+        SetupEvent event = null;
+        if (Events.AVAILABLE) {
+            event = new SetupEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        long locked;
+        synchronized (SETUP_LOCK) {
+            locked = System.nanoTime();
+            status = wcssptr(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav, pvi,
+                             pvm, pvv, psi, psm, psv, cd, crota, spectral_axis, spectral_ctype);
+        }
+        record(TransformMetrics.Call.TRANSLATE, start, locked, status);
+        if (event != null) {
+            event.complete("translate", naxis, ctype, spectral_ctype, status);
+        }
 
         if (status == 0) {
             return status;
         } else {
-            String message = ERROR_MAP.get(status);
-            if (message == null) {
-                message = "BUG: unknown status value returned by wcsLibJNI";
+            throw new WCSLibRuntimeException(getErrorMessage(status), status);
+        }
+    }
+
+    private static LegacyStruct getLegacyStruct(long handle) {
+        LegacyStruct struct = LEGACY_STRUCTS.get(handle);
+        if (struct == null) {
+            throw new IllegalStateException("wcsprm handle " + handle + " is not prepared");
+        }
+        return struct;
+    }
+
+    /**
+     * The WCS keywords of a handle prepared with a version 1 library. Its wcsp2s() and
+     * wcss2p() build and set up a wcsprm struct from the keywords for one coordinate in
+     * each call, so the calls are serialized by SETUP_LOCK.
+     */
+    private static final class LegacyStruct {
+        private final int naxis;
+        private final double[] crpix;
+        private final double[] pc;
+        private final double[] cdelt;
+        private final double[] crval;
+        private final String[] cunit;
+        private final String[] ctype;
+        private final double[] lonpole;
+        private final double[] latpole;
+        private final double[] restfrq;
+        private final double[] restwav;
+        private final int[] pvi;
+        private final int[] pvm;
+        private final double[] pvv;
+        private final int[] psi;
+        private final int[] psm;
+        private final String[] psv;
+        private final double[] cd;
+        private final double[] crota;
+
+        LegacyStruct(int naxis, double[] crpix, double[] pc, double[] cdelt, double[] crval, String[] cunit,
+                     String[] ctype, double[] lonpole, double[] latpole, double[] restfrq, double[] restwav,
+                     int[] pvi, int[] pvm, double[] pvv, int[] psi, int[] psm, String[] psv, double[] cd,
+                     double[] crota) {
+            this.naxis = naxis;
+            this.crpix = crpix == null ? null : crpix.clone();
+            this.pc = pc == null ? null : pc.clone();
+            this.cdelt = cdelt == null ? null : cdelt.clone();
+            this.crval = crval == null ? null : crval.clone();
+            this.cunit = cunit == null ? null : cunit.clone();
+            this.ctype = ctype == null ? null : ctype.clone();
+            this.lonpole = lonpole.clone();
+            this.latpole = latpole.clone();
+            this.restfrq = restfrq.clone();
+            this.restwav = restwav.clone();
+            this.pvi = pvi;
+            this.pvm = pvm;
+            this.pvv = pvv;
+            this.psi = psi;
+            this.psm = psm;
+            this.psv = psv;
+            this.cd = cd == null ? null : cd.clone();
+            this.crota = crota;
+        }
+
+        // Reads the units by transforming the reference pixel.
+        int units(String[] units) {
+            double[] pixcrd = new double[naxis];
+            for (int i = 0; crpix != null && i < naxis; i++) {
+                pixcrd[i] = crpix[i];
+            }
+            int status;
+            synchronized (SETUP_LOCK) {
+                status = wcsp2s(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav,
+                                pvi, pvm, pvv, psi, psm, psv, cd, crota, pixcrd, new double[naxis], units);
+            }
+            return status == BAD_PIX ? 0 : status;
+        }
+
+        int transform(boolean toWorld, int ncoord, int nelem, DoubleBuffer in, int inoff, DoubleBuffer out,
+                      int outoff, int[] stat) {
+            double[] from = new double[ncoord * nelem];
+            double[] to = new double[ncoord * nelem];
+            for (int n = 0; n < from.length; n++) {
+                from[n] = in.get(inoff + n);
             }
-            throw new WCSLibRuntimeException(message, status);
+            int status = transform(toWorld, ncoord, nelem, from, 0, to, 0, stat);
+            for (int n = 0; n < to.length; n++) {
+                out.put(outoff + n, to[n]);
+            }
+            return status;
+        }
+
+        int transform(boolean toWorld, int ncoord, int nelem, double[] in, int inoff, double[] out, int outoff,
+                      int[] stat) {
+            // The input is copied first, the output may overlap it.
+            double[] from = new double[ncoord * nelem];
+            System.arraycopy(in, inoff, from, 0, from.length);
+            double[] coordinate = new double[nelem];
+            double[] result = new double[nelem];
+            String[] units = new String[nelem];
+            int invalid = toWorld ? BAD_PIX : BAD_WORLD;
+            int status = 0;
+            for (int k = 0; k < ncoord; k++) {
+                System.arraycopy(from, k * nelem, coordinate, 0, nelem);
+                int s;
+                synchronized (SETUP_LOCK) {
+                    if (toWorld) {
+                        s = wcsp2s(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav,
+                                   pvi, pvm, pvv, psi, psm, psv, cd, crota, coordinate, result, units);
+                    } else {
+                        s = wcss2p(naxis, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole, restfrq, restwav,
+                                   pvi, pvm, pvv, psi, psm, psv, cd, crota, coordinate, result, units);
+                    }
+                }
+                if (s != 0 && s != invalid) {
+                    return s;
+                }
+                if (stat != null) {
+                    stat[k] = s == 0 ? 0 : 1;
+                }
+                if (s != 0) {
+                    status = invalid;
+                }
+                System.arraycopy(result, 0, out, outoff + k * nelem, nelem);
+            }
+            return status;
         }
     }
 
+    // Records a setup call that waited for SETUP_LOCK from start until locked.
+    private static void record(TransformMetrics.Call call, long start, long locked, int status) {
+        TransformMetrics m = Transform.getMetrics();
+        if (m != null) {
+            m.record(call, false, 0, locked - start, System.nanoTime() - locked, status);
+        }
+    }
+
+    /**
+     * @param status native method status value.
+     * @return the message for the status value.
+     */
+    protected static String getErrorMessage(int status) {
+        String message = ERROR_MAP.get(status);
+        if (message == null) {
+            message = "BUG: unknown status value returned by wcsLibJNI";
+        }
+        return message;
+    }
+
+    /**
+     * Native method to build a wcsprm struct from the WCS keywords and set it
+     * up using the WCSLIB wcsset() C method.
+     *
+     * @return native method status value, 0 indicates success, other values
+     * indicate a problem during method exection. The STATUS_ERRORS
+     * array maps the status value to an error message.
+     */
+    private static native int wcsprep(int naxis, double[] crpix, double[] pc, double[] cdelt, double[] crval,
+                                      String[] cunit, String[] ctype, double[] lonpole, double[] latpole,
+                                      double[] restfrq, double[] restwav, int[] pvi, int[] pvm, double[] pvv, int[] psi,
+                                      int[] psm, String[] psv, double[] cd, double[] crota, long[] handle);
+
+    /**
+     * Native method returning the version of the JNI functions, which must equal
+     * JNI_VERSION. Libraries built before the versioning do not have it.
+     *
+     * @return the version of the JNI functions the library was built from.
+     */
+    private static native int jniversion();
+
+    /**
+     * Native method to release a wcsprm struct created by wcsprep().
+     */
+    private static native void wcsfree(long handle);
+
+    /**
+     * Native method to extract axes of a prepared wcsprm struct into a new
+     * prepared wcsprm struct using the WCSLIB wcssub() C method.
+     *
+     * @return native method status value, 0 indicates success, other values
+     * indicate a problem during method exection. The STATUS_ERRORS
+     * array maps the status value to an error message.
+     */
+    private static native int wcssub(long handle, int[] axes, long[] result);
+
+    /**
+     * Native method to read the coordinate units of a prepared wcsprm struct.
+     *
+     * @return native method status value, 0 indicates success, other values
+     * indicate a problem during method exection. The STATUS_ERRORS
+     * array maps the status value to an error message.
+     */
+    private static native int wcsunits(long handle, String[] units);
+
     /**
      * Native method to transforms pixel coordinates to world coordinates
-     * using the WCSLIB 4.2 wcsp2s() C method.
+     * using the WCSLIB wcsp2s() C method on a prepared wcsprm struct.
+     *
+     * @return native method status value, 0 indicates success, other values
+     * indicate a problem during method exection. The STATUS_ERRORS
+     * array maps the status value to an error message.
+     */
+    private static native int wcsp2sarr(long handle, int ncoord, int nelem, double[] pixcrd, int pixoff,
+                                        double[] world, int worldoff, int[] stat);
+
+    /**
+     * Native method to transforms world coordinates to pixel coordinates
+     * using the WCSLIB wcss2p() C method on a prepared wcsprm struct.
+     *
+     * @return native method status value, 0 indicates success, other values
+     * indicate a problem during method exection. The STATUS_ERRORS
+     * array maps the status value to an error message.
+     */
+    private static native int wcss2parr(long handle, int ncoord, int nelem, double[] world, int worldoff,
+                                        double[] pixcrd, int pixoff, int[] stat);
+
+    /**
+     * Native method to transforms pixel coordinates in a direct buffer to world
+     * coordinates in a direct buffer using the WCSLIB wcsp2s() C method on a
+     * prepared wcsprm struct.
+     *
+     * @return native method status value, 0 indicates success, other values
+     * indicate a problem during method exection. The STATUS_ERRORS
+     * array maps the status value to an error message.
+     */
+    private static native int wcsp2sbuf(long handle, int ncoord, int nelem, DoubleBuffer pixcrd, int pixoff,
+                                        DoubleBuffer world, int worldoff, int[] stat);
+
+    /**
+     * Native method to transforms world coordinates in a direct buffer to pixel
+     * coordinates in a direct buffer using the WCSLIB wcss2p() C method on a
+     * prepared wcsprm struct.
+     *
+     * @return native method status value, 0 indicates success, other values
+     * indicate a problem during method exection. The STATUS_ERRORS
+     * array maps the status value to an error message.
+     */
+    private static native int wcss2pbuf(long handle, int ncoord, int nelem, DoubleBuffer world, int worldoff,
+                                        DoubleBuffer pixcrd, int pixoff, int[] stat);
+
+    /**
+     * Native method of version 1 libraries to transform pixel coordinates to world
+     * coordinates, building and setting up a wcsprm struct in the call.
      *
      * @return native method status value, 0 indicates success, other values
      * indicate a problem during method exection. The STATUS_ERRORS
@@ -354,8 +813,8 @@ final class WCSLib {
                                      double[] world, String[] worldUnits);
 
     /**
-     * Native method to transforms world coordinates to pixel coordinates
-     * using the WCSLIB 4.2 wcss2p() C method.
+     * Native method of version 1 libraries to transform world coordinates to pixel
+     * coordinates, building and setting up a wcsprm struct in the call.
      *
      * @return native method status value, 0 indicates success, other values
      * indicate a problem during method exection. The STATUS_ERRORS
@@ -76,8 +76,18 @@ package ca.nrc.cadc.wcs.exceptions;
  */
 public class WCSLibRuntimeException extends RuntimeException {
 
+    private final int status;
+
     public WCSLibRuntimeException(String message, int status) {
         super(message + "(" + status + ")");
+        this.status = status;
+    }
+
+    /**
+     * @return the status value the wcslib function or the native wrapper returned.
+     */
+    public int getStatus() {
+        return status;
     }
 
 }
@@ -0,0 +1,239 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactWCSKeywordsTest {
+    private static final Logger log = Logger.getLogger(CompactWCSKeywordsTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public CompactWCSKeywordsTest() {
+    }
+
+    @Test
+    public void testValues() {
+        try {
+            CompactWCSKeywords wcs = new CompactWCSKeywords(2);
+            wcs.put("NAXIS", 2);
+            wcs.put("CRVAL1", 150.25);
+            wcs.put("CTYPE1", "RA---TAN");
+            wcs.put("CTYPE2", "");
+            wcs.put("CUNIT1", (String) null);
+            wcs.put("CDELT1", (Double) null);
+            wcs.put("NAXIS1", (Integer) null);
+
+            Assert.assertEquals(3, wcs.size());
+            Assert.assertTrue(wcs.containsKey("NAXIS"));
+            Assert.assertFalse(wcs.containsKey("CTYPE2"));
+            Assert.assertFalse(wcs.containsKey("CUNIT1"));
+            Assert.assertFalse(wcs.containsKey(null));
+
+            Assert.assertEquals(2, wcs.getIntValue("NAXIS"));
+            Assert.assertEquals(2.0, wcs.getDoubleValue("NAXIS"), 0.0);
+            Assert.assertEquals("2", wcs.getStringValue("NAXIS"));
+            Assert.assertEquals(150.25, wcs.getDoubleValue("CRVAL1"), 0.0);
+            Assert.assertEquals(150, wcs.getIntValue("CRVAL1"));
+            Assert.assertEquals(150.25f, wcs.getFloatValue("CRVAL1"), 0.0f);
+            Assert.assertEquals("150.25", wcs.getStringValue("CRVAL1"));
+            Assert.assertEquals("RA---TAN", wcs.getStringValue("CTYPE1"));
+
+            Assert.assertEquals(0.0, wcs.getDoubleValue("CRPIX1"), 0.0);
+            Assert.assertEquals(1.5, wcs.getDoubleValue("CRPIX1", 1.5), 0.0);
+            Assert.assertEquals(7, wcs.getIntValue("NAXIS3", 7));
+            Assert.assertNull(wcs.getStringValue("CUNIT1"));
+            Assert.assertEquals("deg", wcs.getStringValue("CUNIT1", "deg"));
+
+            // replacing a value keeps the position and changes the type
+            wcs.put("NAXIS", 3.0);
+            Assert.assertEquals(3, wcs.size());
+            Assert.assertEquals("3.0", wcs.getStringValue("NAXIS"));
+
+            try {
+                wcs.getDoubleValue("CTYPE1");
+                Assert.fail("expected ClassCastException");
+            } catch (ClassCastException expected) {
+                log.debug("expected exception: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testIterator() {
+        try {
+            CompactWCSKeywords wcs = new CompactWCSKeywords();
+            for (int i = 1; i <= 100; i++) {
+                wcs.put("CRPIX" + i, (double) i);
+                wcs.put("CTYPE" + i, "TYPE" + i);
+            }
+            wcs.put("NAXIS", 100);
+            Assert.assertEquals(201, wcs.size());
+
+            Iterator<Map.Entry<String, Object>> iter = wcs.iterator();
+            for (int i = 1; i <= 100; i++) {
+                Map.Entry<String, Object> me = iter.next();
+                Assert.assertEquals("CRPIX" + i, me.getKey());
+                Assert.assertEquals((double) i, me.getValue());
+                me = iter.next();
+                Assert.assertEquals("CTYPE" + i, me.getKey());
+                Assert.assertEquals("TYPE" + i, me.getValue());
+            }
+            Assert.assertEquals(100, iter.next().getValue());
+            Assert.assertFalse(iter.hasNext());
+
+            // copy of the map based keywords
+            WCSKeywordsImpl impl = new WCSKeywordsImpl();
+            impl.put("NAXIS", 2);
+            impl.put("CRVAL2", -30.0);
+            impl.put("CTYPE2", "DEC--TAN");
+            CompactWCSKeywords copy = new CompactWCSKeywords(impl);
+            Assert.assertEquals(3, copy.size());
+            Assert.assertEquals(2, copy.getIntValue("NAXIS"));
+            Assert.assertEquals(-30.0, copy.getDoubleValue("CRVAL2"), 0.0);
+            Assert.assertEquals("DEC--TAN", copy.getStringValue("CTYPE2"));
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSerialization() {
+        try {
+            CompactWCSKeywords wcs = new CompactWCSKeywords();
+            wcs.put("NAXIS", 1);
+            wcs.put("CRVAL1", 1.4e9);
+            wcs.put("CTYPE1", "FREQ");
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(wcs);
+            oos.close();
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+            CompactWCSKeywords copy = (CompactWCSKeywords) ois.readObject();
+
+            Assert.assertEquals(3, copy.size());
+            Assert.assertEquals(1, copy.getIntValue("NAXIS"));
+            Assert.assertEquals(1.4e9, copy.getDoubleValue("CRVAL1"), 0.0);
+            Assert.assertEquals("FREQ", copy.getStringValue("CTYPE1"));
+            copy.put("CUNIT1", "Hz");
+            Assert.assertEquals("Hz", copy.getStringValue("CUNIT1"));
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testCompile() {
+        try {
+            WCSKeywordsImpl impl = new WCSKeywordsImpl();
+            impl.put("NAXIS", 2);
+            impl.put("CTYPE1", "RA---TAN");
+            impl.put("CTYPE2", "DEC--TAN");
+            impl.put("CRPIX1", 10.0);
+            impl.put("CRPIX2", 20.0);
+            impl.put("CRVAL1", 150.0);
+            impl.put("CRVAL2", -30.0);
+            impl.put("CD1_1", -1.0e-4);
+            impl.put("CD2_2", 1.0e-4);
+            impl.put("PV2_1", 0.5);
+
+            KeywordCompiler expected = KeywordCompiler.compile(impl);
+            KeywordCompiler actual = KeywordCompiler.compile(new CompactWCSKeywords(impl));
+            Assert.assertArrayEquals(expected.ctype, actual.ctype);
+            Assert.assertArrayEquals(expected.crpix, actual.crpix, 0.0);
+            Assert.assertArrayEquals(expected.crval, actual.crval, 0.0);
+            Assert.assertArrayEquals(expected.cd, actual.cd, 0.0);
+            Assert.assertArrayEquals(expected.pvi, actual.pvi);
+            Assert.assertArrayEquals(expected.pvv, actual.pvv, 0.0);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Runs Transform instances concurrently: independent instances on two threads,
+ * which must be inside their calls at the same time, and one instance shared by
+ * all threads. The throughput is measured by the benchmark harness rather than
+ * asserted here, as it depends on the machine.
+ */
+public class ConcurrencyTest {
+    private static final Logger log = Logger.getLogger(ConcurrencyTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public ConcurrencyTest() {
+    }
+
+    @Test
+    public void testIndependentTransforms() {
+        TransformMetrics previous = Transform.getMetrics();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            // The released structs are prepared again within pix2sky, which records the
+            // prepare while it holds the lock of its Transform. Each thread waits there for
+            // the other, so both pass only if the calls run at the same time.
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            final AtomicInteger parallel = new AtomicInteger();
+            List<Callable<double[]>> tasks = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                final Transform transform = new Transform(getKeywords(), false);
+                transform.release();
+                tasks.add(new Callable<double[]>() {
+                    @Override
+                    public double[] call() {
+                        return transform.pix2sky(new double[] {100.0, 200.0}).coordinates;
+                    }
+                });
+            }
+            Transform.setMetrics(new TransformMetrics() {
+                @Override
+                public void record(Call call, boolean java, int ncoord, long waitNanos, long execNanos, int status) {
+                    if (call == Call.PREPARE) {
+                        try {
+                            barrier.await(10, TimeUnit.SECONDS);
+                            parallel.incrementAndGet();
+                        } catch (Exception ex) {
+                            log.debug("not in parallel: " + ex);
+                        }
+                    }
+                }
+
+                @Override
+                public void recordMarshal(Call call, int ncoord, long marshalNanos) {
+                }
+            });
+
+            List<Future<double[]>> futures = pool.invokeAll(tasks);
+            Assert.assertArrayEquals(futures.get(0).get(), futures.get(1).get(), 0.0);
+            Assert.assertEquals("calls in parallel", 2, parallel.get());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            Transform.setMetrics(previous);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedTransform() {
+        try {
+            final Transform transform = new Transform(getKeywords());
+            final double[] expected = transform.pix2sky(new double[] {100.0, 200.0}).coordinates;
+
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Integer>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    futures.add(pool.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            for (int i = 0; i < 1000; i++) {
+                                double[] actual = transform.pix2sky(new double[] {100.0, 200.0}).coordinates;
+                                Assert.assertEquals(expected[0], actual[0], 0.0);
+                                Assert.assertEquals(expected[1], actual[1], 0.0);
+                            }
+                            return 1000;
+                        }
+                    }));
+                }
+                for (Future<Integer> f : futures) {
+                    Assert.assertEquals(1000, f.get().intValue());
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    private static WCSKeywords getKeywords() {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        wcs.put("NAXIS", 2);
+        wcs.put("CTYPE1", "RA---ZEA");
+        wcs.put("CTYPE2", "DEC--ZEA");
+        wcs.put("CUNIT1", "deg");
+        wcs.put("CUNIT2", "deg");
+        wcs.put("CRPIX1", 512.0);
+        wcs.put("CRVAL1", 210.0);
+        wcs.put("CRPIX2", 512.0);
+        wcs.put("CRVAL2", -45.0);
+        wcs.put("CDELT1", -1.0E-3);
+        wcs.put("CDELT2", 1.0E-3);
+        return wcs;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventsTest {
+    private static final Logger log = Logger.getLogger(EventsTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public EventsTest() {
+    }
+
+    @Test
+    public void testProjectionCode() {
+        Assert.assertEquals("TAN", Transform.getProjectionCode(new String[] {"RA---TAN", "DEC--TAN"}));
+        Assert.assertEquals("CAR", Transform.getProjectionCode(new String[] {"FREQ", "GLAT-CAR", "GLON-CAR"}));
+        Assert.assertNull(Transform.getProjectionCode(new String[] {"FREQ", "STOKES"}));
+        Assert.assertNull(Transform.getProjectionCode(new String[] {"RA", "DEC"}));
+        Assert.assertNull(Transform.getProjectionCode(null));
+    }
+
+    @Test
+    public void testTransformEvents() {
+        if (!Events.AVAILABLE) {
+            log.info("skipping testTransformEvents: JFR is not available");
+            return;
+        }
+        File file = null;
+        try {
+            List<RecordedEvent> events;
+            try (Recording recording = new Recording()) {
+                recording.enable("ca.nrc.cadc.wcs.Transform").withThreshold(Duration.ZERO);
+                recording.enable("ca.nrc.cadc.wcs.Setup").withThreshold(Duration.ZERO);
+                recording.start();
+
+                // WCSLib prepares the wcsprm struct and transforms
+                Transform transform = new Transform(getKeywords(), false);
+                transform.pix2sky(new double[] {1.0, 1.0, 2.0, 2.0, 3.0, 3.0}, 3);
+
+                recording.stop();
+                file = File.createTempFile("EventsTest", ".jfr");
+                recording.dump(file.toPath());
+                events = RecordingFile.readAllEvents(file.toPath());
+            }
+
+            RecordedEvent prepare = null;
+            RecordedEvent pix2sky = null;
+            for (RecordedEvent event : events) {
+                log.debug("event: " + event);
+                String name = event.getEventType().getName();
+                if ("ca.nrc.cadc.wcs.Setup".equals(name) && "prepare".equals(event.getString("call"))) {
+                    prepare = event;
+                } else if ("ca.nrc.cadc.wcs.Transform".equals(name) && "pix2sky".equals(event.getString("call"))) {
+                    pix2sky = event;
+                }
+            }
+
+            Assert.assertNotNull("prepare event", prepare);
+            Assert.assertEquals(2, prepare.getInt("naxis"));
+            Assert.assertEquals("TAN", prepare.getString("projection"));
+            Assert.assertEquals(0, prepare.getInt("status"));
+
+            Assert.assertNotNull("pix2sky event", pix2sky);
+            Assert.assertEquals(2, pix2sky.getInt("naxis"));
+            Assert.assertEquals("TAN", pix2sky.getString("projection"));
+            Assert.assertEquals(3, pix2sky.getInt("ncoord"));
+            Assert.assertEquals(0, pix2sky.getInt("status"));
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    private static WCSKeywords getKeywords() {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        wcs.put("NAXIS", 2);
+        wcs.put("CTYPE1", "RA---TAN");
+        wcs.put("CTYPE2", "DEC--TAN");
+        wcs.put("CUNIT1", "deg");
+        wcs.put("CUNIT2", "deg");
+        wcs.put("CRPIX1", 512.0);
+        wcs.put("CRPIX2", 512.0);
+        wcs.put("CRVAL1", 10.0);
+        wcs.put("CRVAL2", 20.0);
+        wcs.put("CD1_1", -1.0E-4);
+        wcs.put("CD1_2", 0.0);
+        wcs.put("CD2_1", 0.0);
+        wcs.put("CD2_2", 1.0E-4);
+        return wcs;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FitsHeaderReaderTest {
+    private static final Logger log = Logger.getLogger(FitsHeaderReaderTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public FitsHeaderReaderTest() {
+    }
+
+    @Test
+    public void testReadBuffer() {
+        try {
+            byte[] file = getFile();
+            ByteBuffer buffer = ByteBuffer.wrap(file);
+            CompactWCSKeywords wcs = FitsHeaderReader.read(buffer);
+            checkKeywords(wcs);
+            Assert.assertEquals(2 * FitsHeaderReader.BLOCK_SIZE, buffer.position());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testReadChannel() {
+        try {
+            byte[] file = getFile();
+            ByteArrayInputStream in = new ByteArrayInputStream(file);
+            ReadableByteChannel channel = Channels.newChannel(in);
+            CompactWCSKeywords wcs = FitsHeaderReader.read(channel);
+            checkKeywords(wcs);
+            Assert.assertEquals(FitsHeaderReader.BLOCK_SIZE, in.available());
+
+            Transform transform = new Transform(wcs);
+            double[] world = transform.pix2sky(new double[] {512.0, 512.0, 1.0}).coordinates;
+            Assert.assertEquals(150.0, world[0], 1.0e-9);
+            Assert.assertEquals(-30.0, world[1], 1.0e-9);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testMissingEnd() {
+        try {
+            byte[] block = new byte[FitsHeaderReader.BLOCK_SIZE];
+            StringBuilder sb = new StringBuilder();
+            card(sb, "SIMPLE  =                    T");
+            card(sb, "NAXIS   =                    0");
+            pad(sb, ' ');
+            System.arraycopy(sb.toString().getBytes(StandardCharsets.US_ASCII), 0, block, 0, block.length);
+            FitsHeaderReader.read(ByteBuffer.wrap(block));
+            Assert.fail("expected EOFException");
+        } catch (EOFException expected) {
+            log.debug("expected exception: " + expected);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testRestFreq() {
+        try {
+            // the legacy RESTFREQ card gives RESTFRQ
+            CompactWCSKeywords wcs = FitsHeaderReader.read(ByteBuffer.wrap(getHeader(
+                "RESTFREQ=        1.420405752E9")));
+            Assert.assertEquals(1.420405752E9, wcs.getDoubleValue("RESTFRQ"), 0.0);
+
+            // RESTFRQ is used in preference to RESTFREQ, in any order
+            wcs = FitsHeaderReader.read(ByteBuffer.wrap(getHeader(
+                "RESTFREQ=        1.420405752E9", "RESTFRQ =          1.0E9")));
+            Assert.assertEquals(1.0E9, wcs.getDoubleValue("RESTFRQ"), 0.0);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        try {
+            String[] values = {"0", "-0.0", "1.0", "-30.5", "1.0E-4", "1.0D-4", "1.420405752E9", "6.0221409e+23",
+                "1.2345678901234567", "123456789012345678901234", ".5", "5.", "+2.5E+2", "1E-300", "0.000001"};
+            for (String value : values) {
+                byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+                double expected = Double.parseDouble(value.replace('D', 'E'));
+                Assert.assertEquals(value, expected, FitsHeaderReader.parseDouble(b, 0, b.length), 0.0);
+            }
+
+            Random random = new Random(42);
+            for (int i = 0; i < 10000; i++) {
+                String value = Double.toString((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20));
+                byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+                Assert.assertEquals(value, Double.parseDouble(value), FitsHeaderReader.parseDouble(b, 0, b.length),
+                                    0.0);
+            }
+
+            for (String value : new String[] {"", "-", "1.0E", "abc", "1.0E5x"}) {
+                byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+                try {
+                    FitsHeaderReader.parseDouble(b, 0, b.length);
+                    Assert.fail("expected NumberFormatException for " + value);
+                } catch (NumberFormatException expected) {
+                    log.debug("expected exception: " + expected);
+                }
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    private void checkKeywords(CompactWCSKeywords wcs) {
+        Assert.assertEquals(3, wcs.getIntValue("NAXIS"));
+        Assert.assertEquals(1024, wcs.getIntValue("NAXIS1"));
+        Assert.assertEquals("RA---TAN", wcs.getStringValue("CTYPE1"));
+        Assert.assertEquals("DEC--TAN", wcs.getStringValue("CTYPE2"));
+        Assert.assertEquals("deg", wcs.getStringValue("CUNIT1"));
+        Assert.assertEquals(512.0, wcs.getDoubleValue("CRPIX1"), 0.0);
+        Assert.assertEquals(-30.0, wcs.getDoubleValue("CRVAL2"), 0.0);
+        Assert.assertEquals(-2.5E-4, wcs.getDoubleValue("CD1_1"), 0.0);
+        Assert.assertEquals(1.0E-3, wcs.getDoubleValue("CD3_3"), 0.0);
+        Assert.assertEquals(1.420405752E9, wcs.getDoubleValue("RESTFRQ"), 0.0);
+        Assert.assertEquals("it's", wcs.getStringValue("WCSNAME"));
+        Assert.assertEquals("GLON-CAR", wcs.getStringValue("CTYPE1A"));
+        Assert.assertEquals(0.5, wcs.getDoubleValue("PV2_1A"), 0.0);
+
+        Assert.assertFalse(wcs.containsKey("SIMPLE"));
+        Assert.assertFalse(wcs.containsKey("BITPIX"));
+        Assert.assertFalse(wcs.containsKey("OBJECT"));
+        Assert.assertFalse(wcs.containsKey("PCOUNT"));
+        Assert.assertFalse(wcs.containsKey("CDELTX"));
+        Assert.assertFalse(wcs.containsKey("AFTER"));
+    }
+
+    // A header of two blocks followed by one block of data.
+    private static byte[] getFile() {
+        StringBuilder sb = new StringBuilder();
+        card(sb, "SIMPLE  =                    T / conforms to FITS standard");
+        card(sb, "BITPIX  =                  -32");
+        card(sb, "NAXIS   =                    3");
+        card(sb, "NAXIS1  =                 1024");
+        card(sb, "NAXIS2  =                 1024");
+        card(sb, "NAXIS3  =                    1");
+        card(sb, "PCOUNT  =                    0");
+        card(sb, "OBJECT  = 'M31     '");
+        card(sb, "CTYPE1  = 'RA---TAN'           / right ascension");
+        card(sb, "CTYPE2  = 'DEC--TAN'");
+        card(sb, "CTYPE3  = 'FREQ    '");
+        card(sb, "CUNIT1  = 'deg     '");
+        card(sb, "CUNIT2  = 'deg     '");
+        card(sb, "CUNIT3  = 'Hz      '");
+        card(sb, "CRPIX1  =                512.0");
+        card(sb, "CRPIX2  =                  512");
+        card(sb, "CRPIX3  =                  1.0");
+        card(sb, "CRVAL1  =                150.0");
+        card(sb, "CRVAL2  =                -30.0");
+        card(sb, "CRVAL3  =         1.4204057E+9");
+        card(sb, "CD1_1   =              -2.5D-4");
+        card(sb, "CD1_2   =                  0.0");
+        card(sb, "CD2_1   =                  0.0");
+        card(sb, "CD2_2   =               2.5E-4");
+        card(sb, "CD3_3   =               1.0E-3");
+        card(sb, "CDELTX  =                  1.0");
+        card(sb, "RESTFRQ =        1.420405752E9");
+        card(sb, "WCSNAME = 'it''s   '");
+        card(sb, "CTYPE1A = 'GLON-CAR'");
+        card(sb, "PV2_1A  =                  0.5");
+        card(sb, "COMMENT   CTYPE1  = 'not a card'");
+        for (int i = 0; i < 20; i++) {
+            card(sb, "HISTORY  more cards to fill the first block");
+        }
+        card(sb, "END");
+        pad(sb, ' ');
+        card(sb, "AFTER   =                    1");
+        pad(sb, '\0');
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // A header of one block with the cards.
+    private static byte[] getHeader(String... cards) {
+        StringBuilder sb = new StringBuilder();
+        card(sb, "SIMPLE  =                    T");
+        card(sb, "NAXIS   =                    0");
+        for (String card : cards) {
+            card(sb, card);
+        }
+        card(sb, "END");
+        pad(sb, ' ');
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void card(StringBuilder sb, String card) {
+        sb.append(card);
+        for (int i = card.length(); i < 80; i++) {
+            sb.append(' ');
+        }
+    }
+
+    private static void pad(StringBuilder sb, char c) {
+        while (sb.length() % FitsHeaderReader.BLOCK_SIZE != 0) {
+            sb.append(c);
+        }
+    }
+
+}
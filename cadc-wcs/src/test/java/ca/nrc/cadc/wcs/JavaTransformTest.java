@@ -0,0 +1,259 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.util.Random;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Verifies the pure Java transformations against WCSLIB.
+ */
+public class JavaTransformTest {
+    private static final Logger log = Logger.getLogger(JavaTransformTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    // Agreement with WCSLIB in degrees and pixels.
+    private static final double TOLERANCE = 1.0e-9;
+
+    public JavaTransformTest() {
+    }
+
+    @Test
+    public void testDispatch() {
+        try {
+            Assert.assertTrue(new Transform(getCelestialKeywords("TAN", 10.0, 20.0)).isJava());
+            Assert.assertTrue(new Transform(getCelestialKeywords("SIN", 10.0, 20.0)).isJava());
+            Assert.assertTrue(new Transform(getCelestialKeywords("CAR", 10.0, 20.0)).isJava());
+            Assert.assertTrue(new Transform(getLinearKeywords()).isJava());
+            Assert.assertFalse(new Transform(getCelestialKeywords("TAN", 10.0, 20.0), false).isJava());
+            Assert.assertFalse(new Transform(getCelestialKeywords("ZEA", 10.0, 20.0)).isJava());
+
+            WCSKeywords pv = getCelestialKeywords("SIN", 10.0, 20.0);
+            pv.put("PV2_1", 0.1);
+            Assert.assertFalse(new Transform(pv).isJava());
+
+            WCSKeywords arcsec = getCelestialKeywords("TAN", 10.0, 20.0);
+            arcsec.put("CUNIT1", "arcsec");
+            arcsec.put("CUNIT2", "arcsec");
+            Assert.assertFalse(new Transform(arcsec).isJava());
+
+            WCSKeywords spectral = getLinearKeywords();
+            spectral.put("CTYPE1", "FREQ");
+            Assert.assertFalse(new Transform(spectral).isJava());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testTAN() {
+        doCompare(getCelestialKeywords("TAN", 10.0, 20.0));
+        doCompare(getCelestialKeywords("TAN", 350.0, -89.5));
+        doCompare(getCelestialKeywords("TAN", 0.0, 90.0));
+    }
+
+    @Test
+    public void testSIN() {
+        doCompare(getCelestialKeywords("SIN", 10.0, 20.0));
+        doCompare(getCelestialKeywords("SIN", 200.0, -45.0));
+    }
+
+    @Test
+    public void testCAR() {
+        doCompare(getCelestialKeywords("CAR", 0.0, 0.0));
+        doCompare(getCelestialKeywords("CAR", 120.0, 30.0));
+
+        WCSKeywords lonpole = getCelestialKeywords("CAR", 120.0, 30.0);
+        lonpole.put("LONPOLE", 150.0);
+        lonpole.put("LATPOLE", -40.0);
+        doCompare(lonpole);
+    }
+
+    @Test
+    public void testLinear() {
+        doCompare(getLinearKeywords());
+    }
+
+    @Test
+    public void testInvalid() {
+        try {
+            // pixels beyond the SIN boundary are invalid in both implementations
+            WCSKeywords keywords = getCelestialKeywords("SIN", 10.0, 20.0);
+            keywords.put("CD1_1", -0.5);
+            keywords.put("CD2_2", 0.5);
+            Transform java = new Transform(keywords, true);
+            Transform wcslib = new Transform(keywords, false);
+
+            double[] pixcrd = new double[] {512.0, 512.0, 512.0, 1000.0, 100.0, 100.0};
+            Transform.BatchResult expected = wcslib.pix2sky(pixcrd, 3);
+            Transform.BatchResult actual = java.pix2sky(pixcrd, 3);
+            Assert.assertEquals(1, expected.getInvalidCount());
+            for (int k = 0; k < 3; k++) {
+                Assert.assertEquals("coordinate " + k, expected.isValid(k), actual.isValid(k));
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    // Compares the Java engine with WCSLib through the loaded JNI library, so with a version 1
+    // library the reference is the per-call wcsp2s() and wcss2p() of WCSLIB, see WCSLibTest.
+    private static void doCompare(WCSKeywords keywords) {
+        try {
+            Transform java = new Transform(keywords, true);
+            Transform wcslib = new Transform(keywords, false);
+            Assert.assertTrue(java.isJava());
+            Assert.assertFalse(wcslib.isJava());
+
+            Random random = new Random(42L);
+            int ncoord = 1000;
+            double[] pixcrd = new double[ncoord * 2];
+            for (int i = 0; i < pixcrd.length; i++) {
+                pixcrd[i] = 1024.0 * random.nextDouble();
+            }
+
+            Transform.BatchResult expected = wcslib.pix2sky(pixcrd, ncoord);
+            Transform.BatchResult actual = java.pix2sky(pixcrd, ncoord);
+            for (int k = 0; k < ncoord; k++) {
+                Assert.assertEquals(expected.isValid(k), actual.isValid(k));
+                if (expected.isValid(k)) {
+                    assertAngle(expected.coordinates[2 * k], actual.coordinates[2 * k]);
+                    Assert.assertEquals(expected.coordinates[2 * k + 1], actual.coordinates[2 * k + 1], TOLERANCE);
+                }
+            }
+            Assert.assertArrayEquals(expected.units, actual.units);
+
+            Transform.BatchResult expectedPix = wcslib.sky2pix(expected.coordinates, ncoord);
+            Transform.BatchResult actualPix = java.sky2pix(expected.coordinates, ncoord);
+            for (int k = 0; k < ncoord; k++) {
+                Assert.assertEquals(expectedPix.isValid(k), actualPix.isValid(k));
+                if (expectedPix.isValid(k)) {
+                    Assert.assertEquals(expectedPix.coordinates[2 * k], actualPix.coordinates[2 * k], TOLERANCE);
+                    Assert.assertEquals(expectedPix.coordinates[2 * k + 1], actualPix.coordinates[2 * k + 1],
+                                        TOLERANCE);
+                }
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    // Longitudes agree modulo 360 degrees.
+    private static void assertAngle(double expected, double actual) {
+        double diff = Math.abs(expected - actual) % 360.0;
+        Assert.assertEquals(0.0, Math.min(diff, 360.0 - diff), TOLERANCE);
+    }
+
+    private static WCSKeywords getCelestialKeywords(String code, double crval1, double crval2) {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        wcs.put("NAXIS", 2);
+        wcs.put("CTYPE1", "RA---" + code);
+        wcs.put("CTYPE2", "DEC--" + code);
+        wcs.put("CUNIT1", "deg");
+        wcs.put("CUNIT2", "deg");
+        wcs.put("CRPIX1", 512.0);
+        wcs.put("CRPIX2", 512.0);
+        wcs.put("CRVAL1", crval1);
+        wcs.put("CRVAL2", crval2);
+        wcs.put("CD1_1", -1.0E-3);
+        wcs.put("CD1_2", 2.0E-4);
+        wcs.put("CD2_1", 1.5E-4);
+        wcs.put("CD2_2", 1.0E-3);
+        return wcs;
+    }
+
+    private static WCSKeywords getLinearKeywords() {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        wcs.put("NAXIS", 2);
+        wcs.put("CTYPE1", "X");
+        wcs.put("CTYPE2", "Y");
+        wcs.put("CRPIX1", 10.0);
+        wcs.put("CRPIX2", 20.0);
+        wcs.put("CRVAL1", 100.0);
+        wcs.put("CRVAL2", 200.0);
+        wcs.put("CDELT1", 0.5);
+        wcs.put("CDELT2", 2.0);
+        wcs.put("PC1_1", 0.8);
+        wcs.put("PC1_2", 0.6);
+        wcs.put("PC2_1", -0.6);
+        wcs.put("PC2_2", 0.8);
+        return wcs;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import ca.nrc.cadc.wcs.exceptions.NoSuchKeywordException;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeywordCompilerTest {
+    private static final Logger log = Logger.getLogger(KeywordCompilerTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public KeywordCompilerTest() {
+    }
+
+    @Test
+    public void testCompile() {
+        try {
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 3);
+            wcs.put("CTYPE1", "RA---ZPN");
+            wcs.put("CTYPE2", "DEC--ZPN");
+            wcs.put("CTYPE3", "FREQ");
+            wcs.put("CUNIT3", "Hz");
+            wcs.put("CRPIX1", 10.0);
+            wcs.put("CRPIX3", 2);
+            wcs.put("CRVAL2", -30.0);
+            wcs.put("CDELT1", -0.01);
+            wcs.put("CROTA2", 5.0);
+            wcs.put("PC1_1", 1.0);
+            wcs.put("PC2_2", 1.0);
+            wcs.put("PC1_2", 0.5);
+            wcs.put("PC3_3", 1.0);
+            wcs.put("PV2_1", 1.0);
+            wcs.put("PV2_0", 0.5);
+            wcs.put("PV1_3", 2.0);
+            wcs.put("PV10_1", 3.0);
+            wcs.put("PS3_0", "x");
+            wcs.put("PS2_1", "y");
+            wcs.put("RESTFRQ", 1.4e9);
+
+            // not WCS keywords of this header
+            wcs.put("CRPIX4", 1.0);
+            wcs.put("CRPIX01", 1.0);
+            wcs.put("CRPIX1A", 1.0);
+            wcs.put("CDELT", 1.0);
+            wcs.put("CD2_1", 1.0);
+            wcs.put("PCOUNT", 0);
+
+            KeywordCompiler compiled = KeywordCompiler.compile(wcs);
+            Assert.assertEquals(3, compiled.naxis);
+            Assert.assertArrayEquals(new String[] {"RA---ZPN", "DEC--ZPN", "FREQ"}, compiled.ctype);
+            Assert.assertArrayEquals(new String[] {null, null, "Hz"}, compiled.cunit);
+            Assert.assertArrayEquals(new double[] {10.0, 0.0, 2.0}, compiled.crpix, 0.0);
+            Assert.assertArrayEquals(new double[] {0.0, -30.0, 0.0}, compiled.crval, 0.0);
+            Assert.assertArrayEquals(new double[] {-0.01, 0.0, 0.0}, compiled.cdelt, 0.0);
+            Assert.assertArrayEquals(new double[] {0.0, 5.0, 0.0}, compiled.crota, 0.0);
+            Assert.assertArrayEquals(new double[] {1.0, 0.5, 0.0, 0.0, 1.0, 0.0, 0.0, 0.0, 1.0}, compiled.pc, 0.0);
+            Assert.assertNull("CD1_1 is not present", compiled.cd);
+            Assert.assertEquals(1.4e9, compiled.restfrq[0], 0.0);
+            Assert.assertEquals(WCSLib.UNDEFINED, compiled.lonpole[0], 0.0);
+
+            // PV1_3 has m >= NAXIS and PV10_1 is above NAXIS
+            Assert.assertArrayEquals(new int[] {2, 2}, compiled.pvi);
+            Assert.assertArrayEquals(new int[] {0, 1}, compiled.pvm);
+            Assert.assertArrayEquals(new double[] {0.5, 1.0}, compiled.pvv, 0.0);
+            Assert.assertArrayEquals(new int[] {2, 3}, compiled.psi);
+            Assert.assertArrayEquals(new int[] {1, 0}, compiled.psm);
+            Assert.assertArrayEquals(new String[] {"y", "x"}, compiled.psv);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testCompileAll() {
+        try {
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 2);
+            wcs.put("CTYPE1", "RA---TAN");
+            wcs.put("CRPIX1", 1.0);
+            wcs.put("LONPOLE", 180.0);
+            wcs.put("CTYPE1A", "DETX");
+            wcs.put("CRPIX1A", 2.0);
+            wcs.put("PC1_2A", 0.5);
+            wcs.put("PC1_1A", 1.0);
+            wcs.put("LONPOLEA", 90.0);
+            wcs.put("RESTFRQZ", 1.4e9);
+            wcs.put("DATE-OBS", "2026-10-18");
+
+            KeywordCompiler[] compiled = KeywordCompiler.compileAll(wcs);
+            Assert.assertEquals(KeywordCompiler.ALTERNATES + 1, compiled.length);
+            Assert.assertEquals(' ', compiled[0].alternate);
+            Assert.assertArrayEquals(new String[] {"RA---TAN", null}, compiled[0].ctype);
+            Assert.assertArrayEquals(new double[] {1.0, 0.0}, compiled[0].crpix, 0.0);
+            Assert.assertEquals(180.0, compiled[0].lonpole[0], 0.0);
+            Assert.assertNull(compiled[0].pc);
+
+            Assert.assertEquals('A', compiled[1].alternate);
+            Assert.assertArrayEquals(new String[] {"DETX", null}, compiled[1].ctype);
+            Assert.assertArrayEquals(new double[] {2.0, 0.0}, compiled[1].crpix, 0.0);
+            Assert.assertArrayEquals(new double[] {1.0, 0.5, 0.0, 0.0}, compiled[1].pc, 0.0);
+            Assert.assertEquals(90.0, compiled[1].lonpole[0], 0.0);
+
+            Assert.assertEquals('Z', compiled[26].alternate);
+            Assert.assertEquals(1.4e9, compiled[26].restfrq[0], 0.0);
+
+            // DATE-OBS ends with S but is not a WCS keyword
+            for (int k = 2; k < 26; k++) {
+                Assert.assertNull(compiled[k]);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testMissingNaxis() {
+        try {
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("CTYPE1", "RA---TAN");
+            KeywordCompiler.compile(wcs);
+            Assert.fail("expected NoSuchKeywordException");
+        } catch (NoSuchKeywordException expected) {
+            log.debug("expected exception: " + expected);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.util.Arrays;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NativeMemoryTest {
+    private static final Logger log = Logger.getLogger(NativeMemoryTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public NativeMemoryTest() {
+    }
+
+    @Test
+    public void testClose() {
+        try {
+            Transform transform;
+            try (Transform t = new Transform(getKeywords(), false)) {
+                transform = t;
+                Assert.assertTrue(t.isPrepared());
+                Assert.assertTrue(NativeMemory.getHandleCount() > 0);
+                Assert.assertTrue(NativeMemory.getBytes() >= t.getNativeSize());
+                Assert.assertTrue(NativeMemory.getPeakBytes() >= NativeMemory.getBytes());
+                t.pix2sky(new double[] {1.0, 1.0});
+            }
+            Assert.assertFalse(transform.isPrepared());
+
+            try {
+                transform.pix2sky(new double[] {1.0, 1.0});
+                Assert.fail("expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+                log.debug("caught expected exception: " + expected);
+            }
+            try {
+                transform.subTransform(1, 2);
+                Assert.fail("expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+                log.debug("caught expected exception: " + expected);
+            }
+
+            // closing again has no effect
+            transform.close();
+            Assert.assertFalse(transform.isPrepared());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testPrepareOnDemand() {
+        try {
+            // the Java engine transforms TAN without the native wcsprm struct
+            try (Transform t = new Transform(getKeywords())) {
+                Assert.assertFalse(t.isPrepared());
+                Assert.assertEquals(Arrays.asList("deg", "deg"), t.getUnits());
+                t.pix2sky(new double[] {1.0, 1.0});
+                Assert.assertFalse(t.isPrepared());
+
+                // the axes are also transformed in Java, so neither Transform is prepared
+                Transform celestial = t.getCelestialTransform();
+                Assert.assertFalse(celestial.isPrepared());
+                Assert.assertFalse(t.isPrepared());
+                Assert.assertEquals(Arrays.asList("deg", "deg"), celestial.getUnits());
+                Assert.assertArrayEquals(t.pix2sky(new double[] {1.0, 1.0}).coordinates,
+                                         celestial.pix2sky(new double[] {1.0, 1.0}).coordinates, 0.0);
+                Assert.assertFalse(celestial.isPrepared());
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testCleaner() {
+        try {
+            long cleaned = NativeMemory.getCleanedCount();
+            for (int i = 0; i < 10; i++) {
+                new Transform(getKeywords(), false);
+            }
+
+            long timeout = System.currentTimeMillis() + 10000L;
+            while (NativeMemory.getCleanedCount() == cleaned && System.currentTimeMillis() < timeout) {
+                System.gc();
+                Thread.sleep(50L);
+            }
+            log.debug("cleaned: " + (NativeMemory.getCleanedCount() - cleaned));
+            Assert.assertTrue(NativeMemory.getCleanedCount() > cleaned);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testLimit() {
+        long limit = NativeMemory.getLimit();
+        try {
+            try {
+                NativeMemory.setLimit(0L);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("caught expected exception: " + expected);
+            }
+
+            try (Transform t = new Transform(getKeywords(), false)) {
+                NativeMemory.setLimit(1L);
+                Assert.assertEquals(1L, NativeMemory.getLimit());
+                Assert.assertTrue(NativeMemory.isOverLimit());
+                NativeMemory.setLimit(Long.MAX_VALUE);
+                Assert.assertFalse(NativeMemory.isOverLimit());
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            NativeMemory.setLimit(limit);
+        }
+    }
+
+    private static WCSKeywords getKeywords() {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        wcs.put("NAXIS", 2);
+        wcs.put("CTYPE1", "RA---TAN");
+        wcs.put("CTYPE2", "DEC--TAN");
+        wcs.put("CUNIT1", "deg");
+        wcs.put("CUNIT2", "deg");
+        wcs.put("CRPIX1", 512.0);
+        wcs.put("CRPIX2", 512.0);
+        wcs.put("CRVAL1", 10.0);
+        wcs.put("CRVAL2", 20.0);
+        wcs.put("CD1_1", -1.0E-4);
+        wcs.put("CD1_2", 0.0);
+        wcs.put("CD2_1", 0.0);
+        wcs.put("CD2_2", 1.0E-4);
+        return wcs;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NativeUtilTest {
+    private static final Logger log = Logger.getLogger(NativeUtilTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public NativeUtilTest() {
+    }
+
+    @Test
+    public void testExtract() {
+        try {
+            final File dir = new File(Files.createTempDirectory("native-util-test").toFile(), "cache");
+            final byte[] content = new byte[100000];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) (i * 31);
+            }
+
+            // concurrent JVMs, here threads, end up with the same complete file
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<File>> futures = new ArrayList<Future<File>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        return NativeUtil.extract(dir, "libtest", content);
+                    }
+                }));
+            }
+            File lib = futures.get(0).get();
+            for (Future<File> future : futures) {
+                Assert.assertEquals(lib, future.get());
+            }
+            executor.shutdown();
+            Assert.assertTrue(lib.getName().startsWith("libtest-"));
+            Assert.assertArrayEquals(content, Files.readAllBytes(lib.toPath()));
+            Assert.assertEquals(1, dir.list().length);
+
+            // an existing valid copy is reused
+            long modified = lib.lastModified();
+            Assert.assertEquals(lib, NativeUtil.extract(dir, "libtest", content));
+            Assert.assertEquals(modified, lib.lastModified());
+
+            // a damaged copy is replaced
+            Files.write(lib.toPath(), new byte[content.length]);
+            Assert.assertEquals(lib, NativeUtil.extract(dir, "libtest", content));
+            Assert.assertArrayEquals(content, Files.readAllBytes(lib.toPath()));
+
+            // other content is extracted to another file
+            content[0]++;
+            File other = NativeUtil.extract(dir, "libtest", content);
+            Assert.assertNotEquals(lib, other);
+            Assert.assertEquals(2, dir.list().length);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testProbe() {
+        try {
+            File dir = new File(Files.createTempDirectory("native-util-test").toFile(), "cache");
+            File probe = new File(dir, "libtest.probe");
+            Assert.assertNull(NativeUtil.readProbe(probe));
+
+            NativeUtil.writeProbe(probe, "libtest.7");
+            Assert.assertEquals("libtest.7", NativeUtil.readProbe(probe));
+            NativeUtil.writeProbe(probe, "libtest.8");
+            Assert.assertEquals("libtest.8", NativeUtil.readProbe(probe));
+            Assert.assertEquals(Arrays.asList("libtest.probe"), Arrays.asList(dir.list()));
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+}
@@ -71,6 +71,8 @@
 package ca.nrc.cadc.wcs;
 
 import ca.nrc.cadc.util.Log4jInit;
+import ca.nrc.cadc.wcs.exceptions.NoSuchKeywordException;
+import ca.nrc.cadc.wcs.exceptions.WCSLibRuntimeException;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.junit.Assert;
@@ -177,4 +179,408 @@ public class SpatialTest {
             Assert.fail("unexpected exception: " + unexpected);
         }
     }
+
+    @Test
+    public void testBatchStatus() {
+        try {
+            // all-sky AIT: pixels outside the projection boundary are invalid
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 2);
+            wcs.put("CTYPE1", "RA---AIT");
+            wcs.put("CTYPE2", "DEC--AIT");
+            wcs.put("CUNIT1", "deg");
+            wcs.put("CUNIT2", "deg");
+            wcs.put("CRPIX1", 0.0);
+            wcs.put("CRVAL1", 0.0);
+            wcs.put("CRPIX2", 0.0);
+            wcs.put("CRVAL2", 0.0);
+            wcs.put("CDELT1", -1.0);
+            wcs.put("CDELT2", 1.0);
+
+            Transform trans = new Transform(wcs);
+
+            double[] pixcrd = new double[] {
+                10.0, 10.0,
+                1000.0, 1000.0,
+                -20.0, 30.0
+            };
+            Transform.BatchResult result = trans.pix2sky(pixcrd, 3);
+            Assert.assertNotNull(result);
+            Assert.assertEquals(6, result.coordinates.length);
+            Assert.assertEquals(3, result.status.length);
+            Assert.assertTrue(result.isValid(0));
+            Assert.assertFalse(result.isValid(1));
+            Assert.assertTrue(result.isValid(2));
+            Assert.assertEquals(1, result.getInvalidCount());
+
+            // valid coordinates match the single coordinate transform
+            for (int k : new int[] {0, 2}) {
+                double[] pix = new double[] {pixcrd[2 * k], pixcrd[2 * k + 1]};
+                Transform.Result single = trans.pix2sky(pix);
+                Assert.assertEquals(single.coordinates[0], result.coordinates[2 * k], 1.0e-12);
+                Assert.assertEquals(single.coordinates[1], result.coordinates[2 * k + 1], 1.0e-12);
+            }
+
+            // per-axis with status array
+            int[] status = new int[3];
+            double[][] world = trans.pix2sky(new double[][] {{10.0, 1000.0, -20.0}, {10.0, 1000.0, 30.0}}, status);
+            Assert.assertEquals(2, world.length);
+            Assert.assertEquals(0, status[0]);
+            Assert.assertTrue(status[1] != 0);
+            Assert.assertEquals(0, status[2]);
+
+            // per-axis without status array fails on the invalid coordinate
+            try {
+                trans.pix2sky(new double[][] {{10.0, 1000.0}, {10.0, 1000.0}});
+                Assert.fail("expected WCSLibRuntimeException");
+            } catch (WCSLibRuntimeException expected) {
+                log.debug("caught expected exception: " + expected);
+            }
+
+            // world to pixel round trip of the valid coordinates
+            Transform.BatchResult pix = trans.sky2pix(result.coordinates, 3);
+            Assert.assertTrue(pix.isValid(0));
+            Assert.assertTrue(pix.isValid(2));
+            Assert.assertEquals(10.0, pix.coordinates[0], 1.0e-9);
+            Assert.assertEquals(10.0, pix.coordinates[1], 1.0e-9);
+            Assert.assertEquals(-20.0, pix.coordinates[4], 1.0e-9);
+            Assert.assertEquals(30.0, pix.coordinates[5], 1.0e-9);
+
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testGrid() {
+        try {
+            for (String code : new String[] {"TAN", "AIT"}) {
+                WCSKeywords wcs = new WCSKeywordsImpl();
+                wcs.put("NAXIS", 2);
+                wcs.put("CTYPE1", "RA---" + code);
+                wcs.put("CTYPE2", "DEC--" + code);
+                wcs.put("CUNIT1", "deg");
+                wcs.put("CUNIT2", "deg");
+                wcs.put("CRPIX1", 50.0);
+                wcs.put("CRVAL1", 150.0);
+                wcs.put("CRPIX2", 40.0);
+                wcs.put("CRVAL2", -30.0);
+                wcs.put("CD1_1", -1.0E-2);
+                wcs.put("CD1_2", 2.0E-3);
+                wcs.put("CD2_1", 1.0E-3);
+                wcs.put("CD2_2", 1.0E-2);
+
+                Transform trans = new Transform(wcs);
+                int[] count = new int[] {7, 5};
+                Transform.GridResult grid = trans.pix2skyGrid(new double[] {1.5, 2.0}, new double[] {3.0, 0.5}, count);
+                Assert.assertArrayEquals(count, grid.shape);
+                Assert.assertEquals(2, grid.planes.length);
+                Assert.assertEquals(35, grid.planes[0].length);
+                Assert.assertEquals(35, grid.status.length);
+                Assert.assertEquals("deg", grid.units[0]);
+
+                for (int k2 = 0; k2 < count[1]; k2++) {
+                    for (int k1 = 0; k1 < count[0]; k1++) {
+                        int index = k1 + count[0] * k2;
+                        double[] pix = new double[] {1.5 + 3.0 * k1, 2.0 + 0.5 * k2};
+                        Transform.Result result = trans.pix2sky(pix);
+                        Assert.assertEquals(0, grid.status[index]);
+                        Assert.assertEquals(code, result.coordinates[0], grid.planes[0][index], 1.0e-9);
+                        Assert.assertEquals(code, result.coordinates[1], grid.planes[1][index], 1.0e-9);
+                    }
+                }
+
+                Transform.GridResult empty = trans.pix2skyGrid(new double[] {1.0, 1.0}, new double[] {1.0, 1.0},
+                                                               new int[] {0, 5});
+                Assert.assertEquals(0, empty.planes[0].length);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSeparableGrid() {
+        try {
+            // RA, FREQ, DEC, STOKES with the spatial axes rotated
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 4);
+            wcs.put("CTYPE1", "RA---TAN");
+            wcs.put("CTYPE2", "FREQ");
+            wcs.put("CTYPE3", "DEC--TAN");
+            wcs.put("CTYPE4", "STOKES");
+            wcs.put("CUNIT1", "deg");
+            wcs.put("CUNIT2", "Hz");
+            wcs.put("CUNIT3", "deg");
+            wcs.put("CRPIX1", 50.0);
+            wcs.put("CRVAL1", 150.0);
+            wcs.put("CDELT1", -1.0E-2);
+            wcs.put("CRPIX2", 1.0);
+            wcs.put("CRVAL2", 1.4E9);
+            wcs.put("CDELT2", 1.0E6);
+            wcs.put("CRPIX3", 40.0);
+            wcs.put("CRVAL3", -30.0);
+            wcs.put("CDELT3", 1.0E-2);
+            wcs.put("CRPIX4", 1.0);
+            wcs.put("CRVAL4", 1.0);
+            wcs.put("CDELT4", 1.0);
+            for (int i = 1; i <= 4; i++) {
+                for (int j = 1; j <= 4; j++) {
+                    wcs.put("PC" + i + "_" + j, i == j ? 1.0 : 0.0);
+                }
+            }
+            wcs.put("PC1_3", 0.2);
+            wcs.put("PC3_1", -0.2);
+
+            Transform trans = new Transform(wcs);
+            Assert.assertArrayEquals(new int[] {0, 1, 0, 3}, trans.getAxisGroups());
+
+            double[] start = new double[] {1.0, 1.0, 2.0, 1.0};
+            double[] stride = new double[] {4.0, 2.0, 3.0, 1.0};
+            int[] count = new int[] {6, 5, 4, 2};
+            Transform.GridResult grid = trans.pix2skyGrid(start, stride, count);
+            Assert.assertEquals(240, grid.status.length);
+
+            int index = 0;
+            for (int k4 = 0; k4 < count[3]; k4++) {
+                for (int k3 = 0; k3 < count[2]; k3++) {
+                    for (int k2 = 0; k2 < count[1]; k2++) {
+                        for (int k1 = 0; k1 < count[0]; k1++, index++) {
+                            double[] pix = new double[] {start[0] + stride[0] * k1, start[1] + stride[1] * k2,
+                                start[2] + stride[2] * k3, start[3] + stride[3] * k4};
+                            double[] world = trans.pix2sky(pix).coordinates;
+                            Assert.assertEquals(0, grid.status[index]);
+                            for (int i = 0; i < 4; i++) {
+                                Assert.assertEquals(world[i], grid.planes[i][index], Math.abs(world[i]) * 1.0e-12);
+                            }
+                        }
+                    }
+                }
+            }
+
+            // a cross term between the spectral and spatial axes joins the groups
+            wcs.put("PC2_1", 1.0E-3);
+            trans = new Transform(wcs);
+            Assert.assertArrayEquals(new int[] {0, 0, 0, 3}, trans.getAxisGroups());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSubTransform() {
+        try {
+            // RA, FREQ, DEC with the spatial axes rotated
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 3);
+            wcs.put("NAXIS1", 100);
+            wcs.put("NAXIS2", 20);
+            wcs.put("NAXIS3", 80);
+            wcs.put("CTYPE1", "RA---TAN");
+            wcs.put("CTYPE2", "FREQ");
+            wcs.put("CTYPE3", "DEC--TAN");
+            wcs.put("CUNIT1", "deg");
+            wcs.put("CUNIT2", "Hz");
+            wcs.put("CUNIT3", "deg");
+            wcs.put("CRPIX1", 50.0);
+            wcs.put("CRVAL1", 150.0);
+            wcs.put("CDELT1", -1.0E-2);
+            wcs.put("CRPIX2", 1.0);
+            wcs.put("CRVAL2", 1.4E9);
+            wcs.put("CDELT2", 1.0E6);
+            wcs.put("CRPIX3", 40.0);
+            wcs.put("CRVAL3", -30.0);
+            wcs.put("CDELT3", 1.0E-2);
+            for (int i = 1; i <= 3; i++) {
+                for (int j = 1; j <= 3; j++) {
+                    wcs.put("PC" + i + "_" + j, i == j ? 1.0 : 0.0);
+                }
+            }
+            wcs.put("PC1_3", 0.2);
+            wcs.put("PC3_1", -0.2);
+            Transform trans = new Transform(wcs);
+
+            Transform celestial = trans.getCelestialTransform();
+            Assert.assertNotNull(celestial);
+            Assert.assertArrayEquals(new int[] {0, 0}, celestial.getAxisGroups());
+            Footprint footprint = celestial.getFootprint(1.0E-4);
+            Assert.assertNotNull(footprint);
+
+            Transform spectral = trans.getSpectralTransform();
+            Assert.assertNotNull(spectral);
+            Assert.assertArrayEquals(new int[] {0}, spectral.getAxisGroups());
+
+            double[][] pixels = new double[][] {{1.0, 1.0, 1.0}, {50.0, 7.0, 40.0}, {100.0, 20.0, 80.0}};
+            for (double[] pix : pixels) {
+                double[] world = trans.pix2sky(pix).coordinates;
+                double[] sky = celestial.pix2sky(new double[] {pix[0], pix[2]}).coordinates;
+                Assert.assertEquals(world[0], sky[0], 1.0e-10);
+                Assert.assertEquals(world[2], sky[1], 1.0e-10);
+                double[] freq = spectral.pix2sky(new double[] {pix[1]}).coordinates;
+                Assert.assertEquals(world[1], freq[0], world[1] * 1.0e-12);
+            }
+
+            // the axes may be reordered
+            Transform swapped = trans.subTransform(3, 1);
+            double[] sky = swapped.pix2sky(new double[] {80.0, 100.0}).coordinates;
+            double[] world = trans.pix2sky(new double[] {100.0, 1.0, 80.0}).coordinates;
+            Assert.assertEquals(world[0], sky[1], 1.0e-10);
+            Assert.assertEquals(world[2], sky[0], 1.0e-10);
+
+            // a celestial axis cannot be extracted without the other
+            try {
+                trans.subTransform(1);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("caught expected exception: " + expected);
+            }
+            try {
+                trans.subTransform(2, 4);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("caught expected exception: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testAlternate() {
+        try {
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 2);
+            wcs.put("CTYPE1", "RA---TAN");
+            wcs.put("CTYPE2", "DEC--TAN");
+            wcs.put("CRPIX1", 100.0);
+            wcs.put("CRPIX2", 100.0);
+            wcs.put("CRVAL1", 150.0);
+            wcs.put("CRVAL2", -30.0);
+            wcs.put("CDELT1", -1.0E-3);
+            wcs.put("CDELT2", 1.0E-3);
+
+            // alternate A: physical detector coordinates
+            wcs.put("CTYPE1A", "DETX");
+            wcs.put("CTYPE2A", "DETY");
+            wcs.put("CRPIX1A", 0.0);
+            wcs.put("CRPIX2A", 0.0);
+            wcs.put("CRVAL1A", 1024.0);
+            wcs.put("CRVAL2A", 2048.0);
+            wcs.put("CDELT1A", 2.0);
+            wcs.put("CDELT2A", 2.0);
+
+            // alternate B: the same sky with the axes rotated
+            wcs.put("CTYPE1B", "RA---TAN");
+            wcs.put("CTYPE2B", "DEC--TAN");
+            wcs.put("CRPIX1B", 100.0);
+            wcs.put("CRPIX2B", 100.0);
+            wcs.put("CRVAL1B", 150.0);
+            wcs.put("CRVAL2B", -30.0);
+            wcs.put("CD1_1B", 0.0);
+            wcs.put("CD1_2B", -1.0E-3);
+            wcs.put("CD2_1B", 1.0E-3);
+            wcs.put("CD2_2B", 0.0);
+            wcs.put("LONPOLEB", 180.0);
+
+            Transform trans = new Transform(wcs);
+            Assert.assertEquals("AB", trans.getAlternates());
+            Assert.assertSame(trans, trans.forAlternate(' '));
+
+            Transform detector = trans.forAlternate('A');
+            Assert.assertSame(detector, trans.forAlternate('A'));
+            Assert.assertSame(trans, detector.forAlternate(' '));
+            double[] det = detector.pix2sky(new double[] {10.0, 20.0}).coordinates;
+            Assert.assertEquals(1044.0, det[0], 1.0e-9);
+            Assert.assertEquals(2088.0, det[1], 1.0e-9);
+
+            Transform rotated = detector.forAlternate('B');
+            Assert.assertSame(rotated, trans.forAlternate('B'));
+            double[] sky = trans.pix2sky(new double[] {120.0, 90.0}).coordinates;
+            double[] rot = rotated.pix2sky(new double[] {90.0, 120.0}).coordinates;
+            Assert.assertEquals(sky[0], rot[0], 1.0e-9);
+            Assert.assertEquals(sky[1], rot[1], 1.0e-9);
+
+            try {
+                trans.forAlternate('C');
+                Assert.fail("expected NoSuchKeywordException");
+            } catch (NoSuchKeywordException expected) {
+                log.debug("expected exception: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testFootprint() {
+        try {
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 2);
+            wcs.put("NAXIS1", 1000);
+            wcs.put("NAXIS2", 800);
+            wcs.put("CTYPE1", "RA---TAN");
+            wcs.put("CTYPE2", "DEC--TAN");
+            wcs.put("CUNIT1", "deg");
+            wcs.put("CUNIT2", "deg");
+            wcs.put("CRPIX1", 500.0);
+            wcs.put("CRVAL1", 10.0);
+            wcs.put("CRPIX2", 400.0);
+            wcs.put("CRVAL2", 20.0);
+            wcs.put("CD1_1", -1.0E-4);
+            wcs.put("CD1_2", 0.0);
+            wcs.put("CD2_1", 0.0);
+            wcs.put("CD2_2", 1.0E-4);
+
+            Transform trans = new Transform(wcs);
+            Footprint footprint = trans.getFootprint(1.0E-5);
+            Assert.assertNotNull(footprint);
+            log.info("testFootprint TAN: " + footprint.longitudes.length + " vertices, " + footprint.samples
+                         + " samples");
+
+            // a small TAN image has straight edges
+            Assert.assertEquals(8, footprint.longitudes.length);
+            Assert.assertEquals(8, footprint.latitudes.length);
+            Assert.assertTrue(footprint.samples < 20);
+
+            Transform.Result corner = trans.pix2sky(new double[] {0.5, 0.5});
+            Assert.assertEquals(corner.coordinates[0], footprint.longitudes[0], 1.0e-9);
+            Assert.assertEquals(corner.coordinates[1], footprint.latitudes[0], 1.0e-9);
+            corner = trans.pix2sky(new double[] {1000.5, 800.5});
+            Assert.assertEquals(corner.coordinates[0], footprint.longitudes[4], 1.0e-9);
+            Assert.assertEquals(corner.coordinates[1], footprint.latitudes[4], 1.0e-9);
+
+            // all-sky AIT image with the corners outside the projection boundary
+            wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 2);
+            wcs.put("CTYPE1", "GLON-AIT");
+            wcs.put("CTYPE2", "GLAT-AIT");
+            wcs.put("CUNIT1", "deg");
+            wcs.put("CUNIT2", "deg");
+            wcs.put("CRPIX1", 150.5);
+            wcs.put("CRVAL1", 0.0);
+            wcs.put("CRPIX2", 70.5);
+            wcs.put("CRVAL2", 0.0);
+            wcs.put("CDELT1", -1.0);
+            wcs.put("CDELT2", 1.0);
+
+            trans = new Transform(wcs);
+            footprint = trans.getFootprint(300, 140, 0.01);
+            Assert.assertNotNull(footprint);
+            log.info("testFootprint AIT: " + footprint.longitudes.length + " vertices, " + footprint.samples
+                         + " samples");
+            Assert.assertTrue(footprint.longitudes.length > 8);
+            for (int i = 0; i < footprint.longitudes.length; i++) {
+                Assert.assertFalse(Double.isNaN(footprint.longitudes[i]));
+                Assert.assertTrue(Math.abs(footprint.latitudes[i]) <= 90.0);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
 }
@@ -121,4 +121,80 @@ public class TemporalTest {
         }
     }
 
+    @Test
+    public void testInterval() {
+        try {
+            WCSKeywords wcs = new WCSKeywordsImpl();
+            wcs.put("NAXIS", 1);
+            wcs.put("CTYPE1", "TIME");
+            wcs.put("CUNIT1", "d");
+            wcs.put("CRPIX1", 0.5);
+            wcs.put("CRVAL1", 60000.0);
+            wcs.put("CDELT1", 0.01);
+
+            Transform transform = new Transform(wcs);
+
+            double[] bounds = transform.getWorldBounds(1, 0.5, 1000.5);
+            Assert.assertNotNull(bounds);
+            Assert.assertEquals(60000.0, bounds[0], 0.000000001);
+            Assert.assertEquals(60010.0, bounds[1], 0.000000001);
+
+            long[] pixels = transform.getPixelBounds(1, 60001.005, 60001.995, 1000);
+            Assert.assertNotNull(pixels);
+            Assert.assertEquals(101L, pixels[0]);
+            Assert.assertEquals(200L, pixels[1]);
+
+            // reversed interval and clipping to the axis
+            pixels = transform.getPixelBounds(1, 60020.0, 60009.995, 1000);
+            Assert.assertNotNull(pixels);
+            Assert.assertEquals(1000L, pixels[0]);
+            Assert.assertEquals(1000L, pixels[1]);
+
+            Assert.assertNull(transform.getPixelBounds(1, 59000.0, 59999.0, 1000));
+
+            // decreasing axis
+            wcs.put("CRPIX1", 1000.5);
+            wcs.put("CDELT1", -0.01);
+            transform = new Transform(wcs);
+            pixels = transform.getPixelBounds(1, 60000.005, 60000.995, 1000);
+            Assert.assertNotNull(pixels);
+            Assert.assertEquals(901L, pixels[0]);
+            Assert.assertEquals(1000L, pixels[1]);
+
+            try {
+                transform.getPixelBounds(2, 60000.0, 60001.0, 1000);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("expected exception: " + expected);
+            }
+
+            // an axis coupled to another axis by PCi_j
+            wcs.put("NAXIS", 2);
+            wcs.put("CTYPE2", "LINEAR");
+            wcs.put("CRPIX2", 1.0);
+            wcs.put("CRVAL2", 0.0);
+            wcs.put("CDELT2", 1.0);
+            wcs.put("PC1_1", 1.0);
+            wcs.put("PC1_2", 0.1);
+            wcs.put("PC2_1", 0.0);
+            wcs.put("PC2_2", 1.0);
+            transform = new Transform(wcs);
+            try {
+                transform.getWorldBounds(1, 0.5, 1000.5);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("expected exception: " + expected);
+            }
+            try {
+                transform.getPixelBounds(2, 0.0, 1.0, 1000);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("expected exception: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
 }
@@ -0,0 +1,325 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransformCacheTest {
+    private static final Logger log = Logger.getLogger(TransformCacheTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public TransformCacheTest() {
+    }
+
+    @Test
+    public void testKey() {
+        try {
+            WCSKeywords wcs1 = getKeywords(10.0);
+            WCSKeywords wcs2 = getKeywords(10.0);
+            wcs2.put("OBJECT", "M31");
+            Assert.assertEquals(TransformCache.getKey(wcs1), TransformCache.getKey(wcs2));
+
+            WCSKeywords wcs3 = getKeywords(10.000001);
+            Assert.assertNotEquals(TransformCache.getKey(wcs1), TransformCache.getKey(wcs3));
+
+            WCSKeywords wcs4 = getKeywords(10.0);
+            wcs4.put("PV2_1", 45.0);
+            Assert.assertNotEquals(TransformCache.getKey(wcs1), TransformCache.getKey(wcs4));
+
+            // the alternate WCS are part of the key
+            WCSKeywords wcs5 = getKeywords(10.0);
+            wcs5.put("CTYPE1A", "RA---SIN");
+            wcs5.put("CTYPE2A", "DEC--SIN");
+            WCSKeywords wcs6 = getKeywords(10.0);
+            wcs6.put("CTYPE1A", "RA---TAN");
+            wcs6.put("CTYPE2A", "DEC--TAN");
+            Assert.assertNotEquals(TransformCache.getKey(wcs1), TransformCache.getKey(wcs5));
+            Assert.assertNotEquals(TransformCache.getKey(wcs5), TransformCache.getKey(wcs6));
+
+            TransformCache cache = new TransformCache(16, Long.MAX_VALUE);
+            Assert.assertEquals("A", cache.get(wcs5).getAlternates());
+            Assert.assertEquals("", cache.get(wcs1).getAlternates());
+            Assert.assertEquals(2, cache.size());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testHitMiss() {
+        try {
+            TransformCache cache = new TransformCache(10, 1024L * 1024L);
+            Transform t1 = cache.get(getKeywords(10.0));
+            Transform t2 = cache.get(getKeywords(10.0));
+            Assert.assertSame(t1, t2);
+            Assert.assertEquals(1, cache.getHitCount());
+            Assert.assertEquals(1, cache.getMissCount());
+            Assert.assertEquals(1, cache.size());
+            Assert.assertTrue(cache.getNativeBytes() > 0);
+
+            Transform t3 = cache.get(getKeywords(20.0));
+            Assert.assertNotSame(t1, t3);
+            Assert.assertEquals(2, cache.getMissCount());
+            Assert.assertEquals(2, cache.size());
+
+            double[] pix = new double[] {100.0, 100.0};
+            Assert.assertArrayEquals(new Transform(getKeywords(10.0)).pix2sky(pix).coordinates,
+                                     t2.pix2sky(pix).coordinates, 0.0);
+
+            cache.clear();
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(0, cache.getNativeBytes());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        try {
+            TransformCache cache = new TransformCache(2, 1024L * 1024L);
+            Transform t1 = cache.get(getKeywords(10.0));
+            cache.get(getKeywords(20.0));
+            cache.get(getKeywords(10.0));
+            cache.get(getKeywords(30.0));
+            Assert.assertEquals(2, cache.size());
+            Assert.assertEquals(1, cache.getEvictionCount());
+
+            // 20.0 was least recently used
+            Assert.assertSame(t1, cache.get(getKeywords(10.0)));
+            cache.get(getKeywords(20.0));
+            Assert.assertEquals(4, cache.getMissCount());
+
+            // evict by native memory, the newest entry is always kept
+            long size = cache.getNativeBytes() / cache.size();
+            cache = new TransformCache(100, size * 3 / 2);
+            cache.get(getKeywords(10.0));
+            cache.get(getKeywords(20.0));
+            Assert.assertEquals(1, cache.size());
+            Assert.assertEquals(1, cache.getEvictionCount());
+            Assert.assertTrue(cache.getNativeBytes() <= size * 3 / 2);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testRelease() {
+        try {
+            // AIT needs WCSLib, so the Transforms hold a native wcsprm struct
+            TransformCache cache = new TransformCache(1, 1024L * 1024L);
+            Transform t1 = cache.get(getKeywords(10.0, "AIT"));
+            Assert.assertTrue(t1.isPrepared());
+            cache.get(getKeywords(20.0, "AIT"));
+            Assert.assertEquals(1, cache.getEvictionCount());
+
+            // the evicted Transform is freed but remains usable
+            Assert.assertFalse(t1.isPrepared());
+            double[] pix = new double[] {100.0, 100.0};
+            Assert.assertArrayEquals(new Transform(getKeywords(10.0, "AIT")).pix2sky(pix).coordinates,
+                                     t1.pix2sky(pix).coordinates, 0.0);
+            Assert.assertTrue(t1.isPrepared());
+            Assert.assertNotNull(t1.subTransform(1, 2));
+
+            cache.clear();
+            Assert.assertEquals(0, cache.size());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testReleaseAlternates() {
+        try {
+            // alternate A needs WCSLib, so it holds a native wcsprm struct
+            WCSKeywords wcs = getKeywords(10.0);
+            wcs.put("CTYPE1A", "RA---AIT");
+            wcs.put("CTYPE2A", "DEC--AIT");
+            wcs.put("CRPIX1A", 512.0);
+            wcs.put("CRPIX2A", 512.0);
+            wcs.put("CRVAL1A", 10.0);
+            wcs.put("CRVAL2A", 20.0);
+            wcs.put("CDELT1A", -1.0E-4);
+            wcs.put("CDELT2A", 1.0E-4);
+
+            TransformCache cache = new TransformCache(1, 1024L * 1024L);
+            Transform t1 = cache.get(wcs);
+            long size = cache.getNativeBytes();
+            Transform alternate = t1.forAlternate('A');
+            Assert.assertTrue(alternate.isPrepared());
+
+            // the alternate is counted by the next get()
+            Assert.assertSame(t1, cache.get(wcs));
+            Assert.assertEquals(size + alternate.getNativeSize(), cache.getNativeBytes());
+
+            // evicting the Transform frees the struct of its alternate, which remains usable
+            cache.get(getKeywords(20.0));
+            Assert.assertEquals(1, cache.getEvictionCount());
+            Assert.assertFalse(alternate.isPrepared());
+            double[] pix = new double[] {100.0, 100.0};
+            Assert.assertNotNull(alternate.pix2sky(pix));
+            Assert.assertTrue(alternate.isPrepared());
+            Assert.assertSame(alternate, t1.forAlternate('A'));
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testNativeLimit() {
+        long limit = NativeMemory.getLimit();
+        List<Transform> uncached = new ArrayList<Transform>();
+        try {
+            // free the Transforms of other tests, so only this test changes the native memory
+            awaitCleaner();
+
+            // AIT needs WCSLib, so the Transforms hold a native wcsprm struct
+            TransformCache cache = new TransformCache(100, 1024L * 1024L);
+            Transform t1 = cache.get(getKeywords(10.0, "AIT"));
+            cache.get(getKeywords(20.0, "AIT"));
+            cache.get(getKeywords(30.0, "AIT"));
+            long size = t1.getNativeSize();
+
+            // a limit between one and two entries below the native memory evicts one entry
+            NativeMemory.setLimit(NativeMemory.getBytes() + size / 2);
+            cache.get(getKeywords(40.0, "AIT"));
+            Assert.assertEquals(3, cache.size());
+            Assert.assertEquals(1, cache.getEvictionCount());
+            Assert.assertFalse(t1.isPrepared());
+
+            // Transforms that are not cached and exceed the limit on their own do not empty the cache
+            for (int i = 0; i < 4; i++) {
+                uncached.add(new Transform(getKeywords(50.0 + i, "AIT")));
+            }
+            NativeMemory.setLimit(NativeMemory.getBytes() - 3 * size);
+            cache.get(getKeywords(60.0, "AIT"));
+            Assert.assertEquals(4, cache.size());
+            Assert.assertEquals(1, cache.getEvictionCount());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        } finally {
+            NativeMemory.setLimit(limit);
+            for (Transform transform : uncached) {
+                transform.close();
+            }
+        }
+    }
+
+    // Waits until the native cleaner has freed the garbage collected Transforms.
+    private static void awaitCleaner() throws InterruptedException {
+        int handles = -1;
+        int stable = 0;
+        long timeout = System.currentTimeMillis() + 10000L;
+        while (stable < 5 && System.currentTimeMillis() < timeout) {
+            System.gc();
+            Thread.sleep(20L);
+            int count = NativeMemory.getHandleCount();
+            stable = count == handles ? stable + 1 : 0;
+            handles = count;
+        }
+    }
+
+    private static WCSKeywords getKeywords(double crval1) {
+        return getKeywords(crval1, "TAN");
+    }
+
+    private static WCSKeywords getKeywords(double crval1, String projection) {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        wcs.put("NAXIS", 2);
+        wcs.put("CTYPE1", "RA---" + projection);
+        wcs.put("CTYPE2", "DEC--" + projection);
+        wcs.put("CUNIT1", "deg");
+        wcs.put("CUNIT2", "deg");
+        wcs.put("CRPIX1", 512.0);
+        wcs.put("CRPIX2", 512.0);
+        wcs.put("CRVAL1", crval1);
+        wcs.put("CRVAL2", 20.0);
+        wcs.put("CD1_1", -1.0E-4);
+        wcs.put("CD1_2", 0.0);
+        wcs.put("CD2_1", 0.0);
+        wcs.put("CD2_2", 1.0E-4);
+        return wcs;
+    }
+}
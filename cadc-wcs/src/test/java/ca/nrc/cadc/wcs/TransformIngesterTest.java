@@ -0,0 +1,266 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import ca.nrc.cadc.wcs.exceptions.NoSuchKeywordException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransformIngesterTest {
+    private static final Logger log = Logger.getLogger(TransformIngesterTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    private final AtomicInteger read = new AtomicInteger();
+
+    public TransformIngesterTest() {
+    }
+
+    @Test
+    public void testOrdered() {
+        try {
+            final List<TransformIngester.Outcome> outcomes = new ArrayList<TransformIngester.Outcome>();
+            TransformIngester ingester = new TransformIngester(4, 8, true, 1.0e-3, null);
+            TransformIngester.Stats stats = ingester.ingest(getSources(100).iterator(),
+                new TransformIngester.Listener() {
+                    public void accept(TransformIngester.Outcome outcome) {
+                        outcomes.add(outcome);
+                    }
+                });
+            log.info("ordered: " + stats);
+
+            Assert.assertEquals(100, outcomes.size());
+            for (int i = 0; i < outcomes.size(); i++) {
+                TransformIngester.Outcome outcome = outcomes.get(i);
+                Assert.assertEquals(i, outcome.index);
+                if (i % 10 == 3) {
+                    Assert.assertTrue(outcome.error instanceof NoSuchKeywordException);
+                    Assert.assertNull(outcome.transform);
+                } else if (i % 10 == 7) {
+                    Assert.assertTrue(outcome.error instanceof IOException);
+                } else {
+                    Assert.assertNull(outcome.error);
+                    Assert.assertNotNull(outcome.transform);
+                    Assert.assertNotNull(outcome.footprint);
+                    Assert.assertTrue(outcome.footprint.longitudes.length >= 4);
+                }
+            }
+            Assert.assertEquals(20, stats.getErrorCount());
+            Assert.assertEquals(90, stats.read.getCount());
+            Assert.assertEquals(80, stats.validate.getCount());
+            Assert.assertEquals(80, stats.footprint.getCount());
+            Assert.assertTrue(stats.getThroughput() > 0.0);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        try {
+            final int maxPending = 3;
+            final AtomicInteger delivered = new AtomicInteger();
+            final AtomicInteger maxAhead = new AtomicInteger();
+            TransformCache cache = new TransformCache(16, Long.MAX_VALUE);
+            TransformIngester ingester = new TransformIngester(4, maxPending, false, 0.0, cache);
+            TransformIngester.Stats stats = ingester.ingest(getSources(200).iterator(),
+                new TransformIngester.Listener() {
+                    public void accept(TransformIngester.Outcome outcome) {
+                        maxAhead.set(Math.max(maxAhead.get(), read.get() - delivered.get()));
+                        delivered.incrementAndGet();
+                    }
+                });
+            log.info("unordered: " + stats);
+
+            Assert.assertEquals(200, delivered.get());
+            Assert.assertTrue("read ahead " + maxAhead.get(), maxAhead.get() <= maxPending);
+            Assert.assertEquals(0, stats.footprint.getCount());
+            Assert.assertEquals(160, stats.validate.getCount());
+
+            // headers repeat every 10 sources, so the cache holds one Transform per WCS
+            Assert.assertEquals(8, cache.size());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testCachedFootprint() {
+        try {
+            // the same WCS for images of different size shares the cached Transform
+            final List<TransformIngester.Outcome> outcomes = new ArrayList<TransformIngester.Outcome>();
+            List<Callable<WCSKeywords>> sources = new ArrayList<Callable<WCSKeywords>>();
+            sources.add(getSource(1000));
+            sources.add(getSource(2000));
+            sources.add(new Callable<WCSKeywords>() {
+                public WCSKeywords call() throws Exception {
+                    throw new UnsatisfiedLinkError("native failure");
+                }
+            });
+            TransformCache cache = new TransformCache(16, Long.MAX_VALUE);
+            TransformIngester ingester = new TransformIngester(2, 4, true, 1.0e-3, cache);
+            TransformIngester.Stats stats = ingester.ingest(sources.iterator(), new TransformIngester.Listener() {
+                public void accept(TransformIngester.Outcome outcome) {
+                    outcomes.add(outcome);
+                }
+            });
+
+            Assert.assertEquals(3, outcomes.size());
+            Assert.assertSame(outcomes.get(0).transform, outcomes.get(1).transform);
+            Assert.assertEquals(1, cache.size());
+            Assert.assertTrue(getWidth(outcomes.get(1).footprint) > 1.5 * getWidth(outcomes.get(0).footprint));
+
+            // an error is recorded in the outcome
+            Assert.assertNull(outcomes.get(2).transform);
+            Assert.assertTrue(outcomes.get(2).error instanceof UnsatisfiedLinkError);
+            Assert.assertEquals(1, stats.getErrorCount());
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    private static double getWidth(Footprint footprint) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double longitude : footprint.longitudes) {
+            min = Math.min(min, longitude);
+            max = Math.max(max, longitude);
+        }
+        return max - min;
+    }
+
+    private static Callable<WCSKeywords> getSource(final int naxis1) {
+        return new Callable<WCSKeywords>() {
+            public WCSKeywords call() throws Exception {
+                CompactWCSKeywords wcs = new CompactWCSKeywords();
+                wcs.put("NAXIS", 2);
+                wcs.put("NAXIS1", naxis1);
+                wcs.put("NAXIS2", 800);
+                wcs.put("CTYPE1", "RA---TAN");
+                wcs.put("CTYPE2", "DEC--TAN");
+                wcs.put("CRPIX1", 500.0);
+                wcs.put("CRPIX2", 400.0);
+                wcs.put("CRVAL1", 10.0);
+                wcs.put("CRVAL2", 20.0);
+                wcs.put("CDELT1", -1.0e-4);
+                wcs.put("CDELT2", 1.0e-4);
+                return wcs;
+            }
+        };
+    }
+
+    // Sources of TAN headers, every tenth has no NAXIS and every tenth fails to read.
+    private List<Callable<WCSKeywords>> getSources(int count) {
+        List<Callable<WCSKeywords>> sources = new ArrayList<Callable<WCSKeywords>>();
+        for (int i = 0; i < count; i++) {
+            final int n = i % 10;
+            sources.add(new Callable<WCSKeywords>() {
+                public WCSKeywords call() throws Exception {
+                    read.incrementAndGet();
+                    if (n == 7) {
+                        throw new IOException("unreadable header");
+                    }
+                    CompactWCSKeywords wcs = new CompactWCSKeywords();
+                    if (n != 3) {
+                        wcs.put("NAXIS", 2);
+                    }
+                    wcs.put("NAXIS1", 1000);
+                    wcs.put("NAXIS2", 800);
+                    wcs.put("CTYPE1", "RA---TAN");
+                    wcs.put("CTYPE2", "DEC--TAN");
+                    wcs.put("CUNIT1", "deg");
+                    wcs.put("CUNIT2", "deg");
+                    wcs.put("CRPIX1", 500.0);
+                    wcs.put("CRPIX2", 400.0);
+                    wcs.put("CRVAL1", 10.0 + 30.0 * n);
+                    wcs.put("CRVAL2", -60.0 + 10.0 * n);
+                    wcs.put("CDELT1", -1.0e-4);
+                    wcs.put("CDELT2", 1.0e-4);
+                    return wcs;
+                }
+            });
+        }
+        return sources;
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ ************************************************************************
+ *******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+ **************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+ *
+ *  (c) 2026.                            (c) 2026.
+ *  Government of Canada                 Gouvernement du Canada
+ *  National Research Council            Conseil national de recherches
+ *  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+ *  All rights reserved                  Tous droits réservés
+ *
+ *  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+ *  expressed, implied, or               énoncée, implicite ou légale,
+ *  statutory, of any kind with          de quelque nature que ce
+ *  respect to the software,             soit, concernant le logiciel,
+ *  including without limitation         y compris sans restriction
+ *  any warranty of merchantability      toute garantie de valeur
+ *  or fitness for a particular          marchande ou de pertinence
+ *  purpose. NRC shall not be            pour un usage particulier.
+ *  liable in any event for any          Le CNRC ne pourra en aucun cas
+ *  damages, whether direct or           être tenu responsable de tout
+ *  indirect, special or general,        dommage, direct ou indirect,
+ *  consequential or incidental,         particulier ou général,
+ *  arising from the use of the          accessoire ou fortuit, résultant
+ *  software.  Neither the name          de l'utilisation du logiciel. Ni
+ *  of the National Research             le nom du Conseil National de
+ *  Council of Canada nor the            Recherches du Canada ni les noms
+ *  names of its contributors may        de ses  participants ne peuvent
+ *  be used to endorse or promote        être utilisés pour approuver ou
+ *  products derived from this           promouvoir les produits dérivés
+ *  software without specific prior      de ce logiciel sans autorisation
+ *  written permission.                  préalable et particulière
+ *                                       par écrit.
+ *
+ *  This file is part of the             Ce fichier fait partie du projet
+ *  OpenCADC project.                    OpenCADC.
+ *
+ *  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+ *  you can redistribute it and/or       vous pouvez le redistribuer ou le
+ *  modify it under the terms of         modifier suivant les termes de
+ *  the GNU Affero General Public        la “GNU Affero General Public
+ *  License as published by the          License” telle que publiée
+ *  Free Software Foundation,            par la Free Software Foundation
+ *  either version 3 of the              : soit la version 3 de cette
+ *  License, or (at your option)         licence, soit (à votre gré)
+ *  any later version.                   toute version ultérieure.
+ *
+ *  OpenCADC is distributed in the       OpenCADC est distribué
+ *  hope that it will be useful,         dans l’espoir qu’il vous
+ *  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+ *  without even the implied             GARANTIE : sans même la garantie
+ *  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+ *  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+ *  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+ *  General Public License for           Générale Publique GNU Affero
+ *  more details.                        pour plus de détails.
+ *
+ *  You should have received             Vous devriez avoir reçu une
+ *  a copy of the GNU Affero             copie de la Licence Générale
+ *  General Public License along         Publique GNU Affero avec
+ *  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+ *  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+ *                                       <http://www.gnu.org/licenses/>.
+ *
+ *  $Revision: 4 $
+ *
+ ************************************************************************
+ */
+
+package ca.nrc.cadc.wcs;
+
+import ca.nrc.cadc.util.Log4jInit;
+import ca.nrc.cadc.wcs.TransformMetrics.Call;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransformStatisticsTest {
+    private static final Logger log = Logger.getLogger(TransformStatisticsTest.class);
+
+    static {
+        Log4jInit.setLevel("ca.nrc.cadc.wcs", Level.INFO);
+    }
+
+    public TransformStatisticsTest() {
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] {0L, 1L, 3L, 4L, 5L, 7L, 8L, 9L, 1000L, 123456789L, Long.MAX_VALUE}) {
+            int bucket = TransformStatistics.getBucket(value);
+            Assert.assertTrue("upper bound of " + value, TransformStatistics.getUpperBound(bucket) >= value);
+            if (bucket > 0) {
+                Assert.assertTrue("lower bound of " + value, TransformStatistics.getUpperBound(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testRecord() {
+        try {
+            TransformStatistics stats = new TransformStatistics();
+            for (int i = 1; i <= 100; i++) {
+                stats.record(Call.PIX2SKY, false, 10, 1000L, i * 1000L, 0);
+            }
+            stats.record(Call.PREPARE, false, 0, 0L, 5000L, 5);
+            stats.record(Call.SKY2PIX, true, 4, 0L, 100L, Transform.BAD_WORLD);
+            stats.record(Call.TRANSLATE, false, 0, 0L, 100L, 1000);
+            stats.recordMarshal(Call.PIX2SKY, 10, 200L);
+
+            Assert.assertEquals(Long.valueOf(100L), stats.getCalls().get("pix2sky.native"));
+            Assert.assertEquals(Long.valueOf(1000L), stats.getCoordinates().get("pix2sky.native"));
+            Assert.assertEquals(Long.valueOf(4L), stats.getCoordinates().get("sky2pix.java"));
+            Assert.assertNull(stats.getCoordinates().get("prepare.native"));
+
+            Map<String, Long> failures = stats.getFailures();
+            log.debug("failures: " + failures);
+            Assert.assertEquals(3, failures.size());
+            Assert.assertEquals(Long.valueOf(1L), failures.get("5 " + WCSLib.getErrorMessage(5)));
+            Assert.assertEquals(Long.valueOf(1L), failures.get("other"));
+
+            // buckets are accurate to within 25%
+            long p50 = stats.getPercentileNanos(Call.PIX2SKY, "native", 0.5);
+            Assert.assertTrue("p50 " + p50, p50 >= 50000L && p50 <= 62500L);
+            long p99 = stats.getPercentileNanos(Call.PIX2SKY, "native", 0.99);
+            Assert.assertTrue("p99 " + p99, p99 >= 99000L && p99 <= 100000L);
+            Assert.assertEquals(1000L, stats.getPercentileNanos(Call.PIX2SKY, "wait", 0.5), 250.0);
+            Assert.assertEquals(0L, stats.getPercentileNanos(Call.SKY2PIX, "wait", 0.5));
+
+            Map<String, Double> latency = stats.getLatencyMicros();
+            log.debug("latency: " + latency);
+            Assert.assertEquals(100.0, latency.get("pix2sky.native.max"), 0.0);
+            Assert.assertEquals(100.0, latency.get("pix2sky.native.count"), 0.0);
+            Assert.assertEquals(0.2, latency.get("pix2sky.marshal.p50"), 0.05);
+            Assert.assertNull(latency.get("sky2pix.wait.p50"));
+
+            stats.reset();
+            Assert.assertTrue(stats.getCalls().isEmpty());
+            Assert.assertTrue(stats.getFailures().isEmpty());
+            Assert.assertTrue(stats.getLatencyMicros().isEmpty());
+
+            try {
+                stats.getPercentileNanos(Call.PIX2SKY, "foo", 0.5);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("caught expected exception: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testInstall() {
+        try {
+            TransformStatistics stats = TransformStatistics.install();
+            try {
+                Assert.assertSame(stats, Transform.getMetrics());
+
+                // WCSLib prepares the wcsprm struct and transforms
+                Transform transform = new Transform(getKeywords(), false);
+                double[] pix = new double[] {100.0, 100.0};
+                for (int i = 0; i < 3; i++) {
+                    transform.pix2sky(pix);
+                }
+                transform.sky2pix(new double[] {10.0, 20.0, 10.1, 20.1}, 2);
+
+                Map<String, Long> calls = stats.getCalls();
+                log.debug("calls: " + calls);
+                Assert.assertEquals(Long.valueOf(1L), calls.get("prepare.native"));
+                Assert.assertEquals(3L, count(calls, "pix2sky"));
+                Assert.assertEquals(1L, count(calls, "sky2pix"));
+                Assert.assertEquals(2L, count(stats.getCoordinates(), "sky2pix"));
+                Assert.assertTrue(stats.getLatencyMicros().containsKey("pix2sky.marshal.p99"));
+                Assert.assertTrue(stats.getFailures().isEmpty());
+
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                Object attribute = server.getAttribute(new ObjectName(TransformStatistics.OBJECT_NAME), "Calls");
+                Assert.assertTrue(attribute instanceof TabularData);
+                Assert.assertFalse(((TabularData) attribute).isEmpty());
+
+                // a second install replaces the registered statistics
+                TransformStatistics replaced = TransformStatistics.install();
+                Assert.assertNotSame(stats, replaced);
+                Assert.assertSame(replaced, Transform.getMetrics());
+            } finally {
+                TransformStatistics.uninstall();
+            }
+            Assert.assertNull(Transform.getMetrics());
+            Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName(TransformStatistics.OBJECT_NAME)));
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    private static long count(Map<String, Long> counts, String call) {
+        long count = 0;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (entry.getKey().startsWith(call + ".")) {
+                count += entry.getValue();
+            }
+        }
+        return count;
+    }
+
+    private static WCSKeywords getKeywords() {
+        WCSKeywords wcs = new WCSKeywordsImpl();
+        wcs.put("NAXIS", 2);
+        wcs.put("CTYPE1", "RA---TAN");
+        wcs.put("CTYPE2", "DEC--TAN");
+        wcs.put("CUNIT1", "deg");
+        wcs.put("CUNIT2", "deg");
+        wcs.put("CRPIX1", 512.0);
+        wcs.put("CRPIX2", 512.0);
+        wcs.put("CRVAL1", 10.0);
+        wcs.put("CRVAL2", 20.0);
+        wcs.put("CD1_1", -1.0E-4);
+        wcs.put("CD1_2", 0.0);
+        wcs.put("CD2_1", 0.0);
+        wcs.put("CD2_2", 1.0E-4);
+        return wcs;
+    }
+}
@@ -72,9 +72,13 @@ package ca.nrc.cadc.wcs;
 import ca.nrc.cadc.util.Log4jInit;
 import ca.nrc.cadc.wcs.Transform.Result;
 import ca.nrc.cadc.wcs.exceptions.WCSLibRuntimeException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 /**
@@ -97,6 +101,32 @@ public class WCSLibTest {
     public WCSLibTest() {
     }
 
+    @Test
+    public void testJniVersion() {
+        // The other tests also pass with a version 1 library, which transforms one coordinate
+        // per call, so this test reports as skipped until the bundled library is rebuilt.
+        Assume.assumeFalse("the loaded library has JNI version 1, the version " + WCSLib.JNI_VERSION
+                               + " native methods are not tested", WCSLib.isLegacy());
+        try {
+            Transform transform = new Transform(getTestKeywords(), false);
+            double[] pixcrd = new double[] {1.0, 2.0, 3.0, 4.0, 100.0, 200.0, 300.0, 400.0};
+            double[] batch = new double[pixcrd.length];
+            Assert.assertEquals(0, transform.pix2sky(pixcrd, 0, batch, 0, 2, null));
+
+            // a batch in one call transforms as single coordinates do
+            double[] single = new double[4];
+            for (int k = 0; k < 2; k++) {
+                Assert.assertEquals(0, transform.pix2sky(pixcrd, 4 * k, single, 0));
+                for (int i = 0; i < 4; i++) {
+                    Assert.assertEquals(single[i], batch[4 * k + i], 0.0);
+                }
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
     @Test
     public void testTransform() {
 
@@ -130,6 +160,71 @@ public class WCSLibTest {
         }
     }
 
+    @Test
+    public void testTranslateTransform() {
+        try {
+            Transform transform = new Transform(getTranslateKeywords());
+            Transform translated = transform.translateTransform("WAVE-???");
+            Assert.assertSame(translated, transform.translateTransform("WAVE-???"));
+            Assert.assertEquals("m", translated.getUnits().get(0));
+
+            // the reference pixel is the reference frequency as a wavelength
+            double[] world = translated.pix2sky(new double[] {32.0}).coordinates;
+            Assert.assertEquals(299792458.0 / 1.378351174e9, world[0], 1.0e-12);
+
+            Transform expected = new Transform(transform.translate("WAVE-???"));
+            for (double pix = 1.0; pix <= 63.0; pix += 7.0) {
+                double[] wave = translated.pix2sky(new double[] {pix}).coordinates;
+                Assert.assertEquals(expected.pix2sky(new double[] {pix}).coordinates[0], wave[0], 1.0e-15);
+                Assert.assertEquals(pix, translated.sky2pix(wave).coordinates[0], 1.0e-9);
+            }
+
+            // the least recently used translation is dropped and remains usable
+            String[] ctypes = new String[] {"VRAD-???", "VOPT-???", "ZOPT-???", "AWAV-???", "WAVN-???", "ENER-???",
+                "VELO-???", "BETA-???"};
+            for (String ctype : ctypes) {
+                Assert.assertNotNull(transform.translateTransform(ctype));
+            }
+            Assert.assertNotSame(translated, transform.translateTransform("WAVE-???"));
+            Assert.assertEquals(expected.pix2sky(new double[] {1.0}).coordinates[0],
+                                translated.pix2sky(new double[] {1.0}).coordinates[0], 1.0e-15);
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testIntervalNotInvertible() {
+        try {
+            // wavelengths of a logarithmic axis are positive, so sky2pix() of a negative bound fails
+            WCSKeywords keywords = new WCSKeywordsImpl();
+            keywords.put("NAXIS", 1);
+            keywords.put("NAXIS1", 1000);
+            keywords.put("CTYPE1", "WAVE-LOG");
+            keywords.put("CUNIT1", "m");
+            keywords.put("CRPIX1", 1.0);
+            keywords.put("CRVAL1", 1.0e-6);
+            keywords.put("CDELT1", 1.0e-9);
+            Transform transform = new Transform(keywords);
+
+            double[] bounds = transform.getWorldBounds(1, 0.5, 1000.5);
+            Assert.assertEquals(1.0e-6 * Math.exp(-0.5e-3), bounds[0], 1.0e-15);
+            Assert.assertEquals(1.0e-6 * Math.exp(999.5e-3), bounds[1], 1.0e-15);
+
+            // the upper bound is the upper edge of pixel 100
+            long[] pixels = transform.getPixelBounds(1, -1.0, 1.0e-6 * Math.exp(99.5e-3), 1000);
+            Assert.assertNotNull(pixels);
+            Assert.assertEquals(1L, pixels[0]);
+            Assert.assertEquals(100L, pixels[1]);
+
+            Assert.assertNull(transform.getPixelBounds(1, -1.0, 0.0, 1000));
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
     @Test
     public void testVertices() {
         try {
@@ -160,6 +255,154 @@ public class WCSLibTest {
         }
     }
 
+    @Test
+    public void testBatch() {
+        try {
+            WCSKeywords keywords = getVerticesKeywords();
+            Transform transform = new Transform(keywords);
+
+            int ncoord = 100;
+            double[] pixcrd = new double[ncoord * 2];
+            double[][] axes = new double[2][ncoord];
+            for (int k = 0; k < ncoord; k++) {
+                pixcrd[2 * k] = axes[0][k] = 0.5 + (k % 8);
+                pixcrd[2 * k + 1] = axes[1][k] = 0.5 + 22.4 * k;
+            }
+
+            Result batch = transform.pix2sky(pixcrd, ncoord);
+            Assert.assertEquals(ncoord * 2, batch.coordinates.length);
+            Assert.assertEquals("deg", batch.units[0]);
+            double[][] world = transform.pix2sky(axes);
+            Assert.assertEquals(2, world.length);
+            Assert.assertEquals(ncoord, world[0].length);
+            for (int k = 0; k < ncoord; k++) {
+                Result single = transform.pix2sky(new double[] {pixcrd[2 * k], pixcrd[2 * k + 1]});
+                Assert.assertEquals(single.coordinates[0], batch.coordinates[2 * k], 1.0e-12);
+                Assert.assertEquals(single.coordinates[1], batch.coordinates[2 * k + 1], 1.0e-12);
+                Assert.assertEquals(single.coordinates[0], world[0][k], 1.0e-12);
+                Assert.assertEquals(single.coordinates[1], world[1][k], 1.0e-12);
+            }
+
+            Result pixels = transform.sky2pix(batch.coordinates, ncoord);
+            Assert.assertArrayEquals(pixcrd, pixels.coordinates, 1.0e-6);
+            double[][] pixelAxes = transform.sky2pix(world);
+            Assert.assertArrayEquals(axes[0], pixelAxes[0], 1.0e-6);
+            Assert.assertArrayEquals(axes[1], pixelAxes[1], 1.0e-6);
+
+            Assert.assertEquals(0, transform.pix2sky(new double[0], 0).coordinates.length);
+            try {
+                transform.pix2sky(new double[3], 2);
+                Assert.fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("expected: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testOutputBuffers() {
+        try {
+            WCSKeywords keywords = getVerticesKeywords();
+            Transform transform = new Transform(keywords);
+            Assert.assertEquals(2, transform.getUnits().size());
+            Assert.assertEquals("deg", transform.getUnits().get(0));
+            try {
+                transform.getUnits().set(0, "rad");
+                Assert.fail("Expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException expected) {
+                log.debug("expected: " + expected);
+            }
+
+            int ncoord = 10;
+            double[] pixcrd = new double[ncoord * 2 + 1];
+            for (int k = 0; k < ncoord; k++) {
+                pixcrd[1 + 2 * k] = 0.5 + k;
+                pixcrd[2 + 2 * k] = 0.5 + 100.0 * k;
+            }
+            double[] world = new double[ncoord * 2 + 3];
+            int[] status = new int[ncoord];
+            Assert.assertEquals(0, transform.pix2sky(pixcrd, 1, world, 3, ncoord, status));
+
+            double[] single = new double[2];
+            for (int k = 0; k < ncoord; k++) {
+                Assert.assertEquals(0, status[k]);
+                Result expected = transform.pix2sky(new double[] {pixcrd[1 + 2 * k], pixcrd[2 + 2 * k]});
+                Assert.assertEquals(expected.coordinates[0], world[3 + 2 * k], 1.0e-12);
+                Assert.assertEquals(expected.coordinates[1], world[4 + 2 * k], 1.0e-12);
+
+                Assert.assertEquals(0, transform.pix2sky(pixcrd, 1 + 2 * k, single, 0));
+                Assert.assertEquals(expected.coordinates[0], single[0], 1.0e-12);
+                Assert.assertEquals(expected.coordinates[1], single[1], 1.0e-12);
+            }
+
+            double[] pixels = new double[ncoord * 2 + 1];
+            Assert.assertEquals(0, transform.sky2pix(world, 3, pixels, 1, ncoord, null));
+            Assert.assertArrayEquals(pixcrd, pixels, 1.0e-6);
+
+            try {
+                transform.pix2sky(pixcrd, 2, world, 0, ncoord, null);
+                Assert.fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("expected: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testDirectBuffers() {
+        try {
+            WCSKeywords keywords = getVerticesKeywords();
+            Transform transform = new Transform(keywords);
+
+            int ncoord = 10;
+            DoubleBuffer pixcrd = ByteBuffer.allocateDirect(8 * (ncoord * 2 + 2))
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            DoubleBuffer world = ByteBuffer.allocateDirect(8 * ncoord * 2)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            pixcrd.position(2);
+            for (int k = 0; k < ncoord; k++) {
+                pixcrd.put(2 + 2 * k, 0.5 + k);
+                pixcrd.put(3 + 2 * k, 0.5 + 100.0 * k);
+            }
+
+            int[] status = new int[ncoord];
+            Assert.assertEquals(0, transform.pix2sky(pixcrd, world, ncoord, status));
+            Assert.assertEquals(pixcrd.limit(), pixcrd.position());
+            Assert.assertEquals(world.limit(), world.position());
+            for (int k = 0; k < ncoord; k++) {
+                Assert.assertEquals(0, status[k]);
+                Result expected = transform.pix2sky(new double[] {0.5 + k, 0.5 + 100.0 * k});
+                Assert.assertEquals(expected.coordinates[0], world.get(2 * k), 1.0e-12);
+                Assert.assertEquals(expected.coordinates[1], world.get(2 * k + 1), 1.0e-12);
+            }
+
+            world.rewind();
+            DoubleBuffer pixels = ByteBuffer.allocateDirect(8 * ncoord * 2)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            Assert.assertEquals(0, transform.sky2pix(world, pixels, ncoord, null));
+            for (int k = 0; k < ncoord; k++) {
+                Assert.assertEquals(0.5 + k, pixels.get(2 * k), 1.0e-6);
+                Assert.assertEquals(0.5 + 100.0 * k, pixels.get(2 * k + 1), 1.0e-6);
+            }
+
+            try {
+                transform.pix2sky(DoubleBuffer.allocate(2), world, 1, null);
+                Assert.fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                log.debug("expected: " + expected);
+            }
+        } catch (Exception unexpected) {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
     @Test
     public void testErrors() {
         try {
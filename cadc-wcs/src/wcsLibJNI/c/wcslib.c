@@ -68,6 +68,7 @@
 */
 
 #include <jni.h>
+#include <stdint.h>
 #include <stdlib.h>
 #include <stdio.h>
 #include <string.h>
@@ -75,8 +76,6 @@
 #include "wcslib/wcslib.h"
 #include "wcslib/wcsmath.h"
 
-#define NCOORD 1
-
 /* Status return values */
 const int CRPIX_MEMORY_ALLOCATION_FAILED = 100;
 const int PC_MEMORY_ALLOCATION_FAILED = 101;
@@ -97,16 +96,20 @@ const int CROTA_MEMORY_ALLOCATION_FAILED = 115;
 const int PIXCRD_ARRAY_INDEX_OUT_OF_BOUNDS = 116;
 const int WORLD_ARRAY_INDEX_OUT_OF_BOUNDS = 117;
 const int RESULT_ARRAY_INDEX_OUT_OF_BOUNDS = 118;
+const int PIXCRD_BUFFER_NOT_DIRECT = 119;
+const int WORLD_BUFFER_NOT_DIRECT = 120;
+const int AXES_ARRAY_INDEX_OUT_OF_BOUNDS = 121;
 
 /*
- * Class:     ca_nrc_cadc_wcs_WCSLib
- * Method:    wcsp2s
- * Signature: (I[D[D[D[D[Ljava/lang/String;[Ljava/lang/String;[D[D[D[D[I[I[D[I[I[Ljava/lang/String;[D[D[D[D)I
+ * Copy the WCS cards into a wcsprm struct initialized by wcsini(). Unlike
+ * wcssptr() below, the values are copied into the memory owned by the
+ * struct rather than pointing at the JVM arrays, so the struct remains
+ * valid after the JNI call returns.
  */
-JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2s
+static int wcs_copycards
 (
     JNIEnv *env,                    /* Current JVM.                                         */
-    jobject obj,                    /* Calling method.                                      */
+    struct wcsprm *wcs,             /* wcsprm struct initialized by wcsini().               */
     jint NAXIS,                     /* Number of axes (pixel and coordinate).               */
     jdoubleArray crpix,             /* CRPIXja cards for each pixel axis.                   */
     jdoubleArray pc,                /* PCi_ja  linear transformation matrix.                */
@@ -125,128 +128,93 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2s
     jintArray psm,                  /* Parameter number, ditto  (0-relative).               */
     jobjectArray psv,               /* Parameter value.                                     */
     jdoubleArray cd,                /* CDi_ja linear transformation matrix.                 */
-    jdoubleArray crota,             /* CROTAia cards for each coordinate axis.              */
-    jdoubleArray pixcrd,            /* Pixel coordinates.                                   */
-    jdoubleArray world,             /* World coordinates.                                   */
-    jdoubleArray worldunits         /* World coordinate units.                              */
+    jdoubleArray crota              /* CROTAia cards for each coordinate axis.              */
 )
 
 {
     jsize size;                     /* Array sizes.                                         */
-    jdouble *CRPIX = NULL;          /* CRPIX cards.                                         */
-    jdouble *PC = NULL;             /* PC matrix.                                           */
-    jdouble *CDELT = NULL;          /* CDELT cards.                                         */
-    jdouble *CRVAL = NULL;          /* CRVAL cards.                                         */
-    jdouble *LONPOLE = NULL;        /* LONPOLE cards.                                       */
-    jdouble *LATPOLE = NULL;        /* LATPOLE cards.                                       */
-    jdouble *RESTFRQ = NULL;        /* RESTFRQ cards.                                       */
-    jdouble *RESTWAV = NULL;        /* RESTWAV cards.                                       */
+    jdouble value;                  /* Single valued cards.                                 */
     jint *PVI = NULL;               /* PV axis number.                                      */
     jint *PVM = NULL;               /* PV parameter number.                                 */
-    jdouble * PVV = NULL;           /* PV parameter value.                                  */
+    jdouble *PVV = NULL;            /* PV parameter value.                                  */
     jint *PSI = NULL;               /* PS axis number.                                      */
     jint *PSM = NULL;               /* PS parameter number.                                 */
-    jdouble *CD = NULL;             /* CD cards.                                            */
-    jdouble *CROTA = NULL;          /* CROTA cards.                                         */
     int i;                          /* Local variables.                                     */
     int altlin = 0;                 /* Alternative representations.                         */
-    int alloc = 1;                  /* Allocate memory unconditionally for the arrays       */
     int status = 0;                 /* Return status.                                       */
-    struct wcsprm *wcs;             /* Pointer to wcsprm struct.                            */
-    double *imgcrd;					/* Array of intermediate world coordinates.             */
-    double *PIXCRD;					/* Pixels coordinates to translate.                     */
-    double *WORLD;					/* Translated World coordinates.                        */
-    int stat[NCOORD];               /* Status return value for each coordinate.             */
-    double phi[NCOORD];             /* Longitude in native coordinate system of projection. */
-    double theta[NCOORD];           /* Latitude in native coordinate system of projection.  */
-
-    /* Create arrays */
-    const int NELEM = (*env)->GetArrayLength(env, pixcrd);
-    imgcrd = malloc(NELEM * sizeof(double));
-    PIXCRD = malloc(NELEM * sizeof(double));
-    WORLD = malloc(NELEM * sizeof(double));
-    for (i = 0; i < NELEM; i++)
-    {
-    	imgcrd[i] = 0.0;
-    	PIXCRD[i] = 0.0;
-    	WORLD[i] = 0.0;
-    }
-
-    /* Allocate space for wcsprm */
-    wcs = malloc(sizeof(struct wcsprm));
-
-    /* Set flag to -1 to initilize memory management */
-    wcs->flag = -1;
-
-    /* Allocate memory for the wcsprm arrays */
-    status = wcsini(alloc, NAXIS, wcs);
-    if (status)
-    {
-        /* Error allocating memory, return status code */
-        return status;
-    }
-
-    /* Number of pixel and world coordinate elements,
-     * given by the NAXIS or WCSAXESa keywords. */
-    wcs->naxis = NAXIS;
 
     /* Coordinate reference pixels  */
     if (crpix)
     {
-        CRPIX = (*env)->GetDoubleArrayElements(env, crpix, NULL);
-        if (CRPIX) wcs->crpix = CRPIX;
-        else status = CRPIX_MEMORY_ALLOCATION_FAILED;
+        (*env)->GetDoubleArrayRegion(env, crpix, 0, NAXIS, wcs->crpix);
+        if ((*env)->ExceptionOccurred(env))
+        {
+            (*env)->ExceptionClear(env);
+            status = CRPIX_MEMORY_ALLOCATION_FAILED;
+        }
     }
 
     /* Pixel coordinate transformation matrix */
     if (!status && pc)
     {
-        PC = (*env)->GetDoubleArrayElements(env, pc, NULL);
-        if (PC) wcs->pc = PC;
-        else status = PC_MEMORY_ALLOCATION_FAILED;
+        (*env)->GetDoubleArrayRegion(env, pc, 0, NAXIS * NAXIS, wcs->pc);
+        if ((*env)->ExceptionOccurred(env))
+        {
+            (*env)->ExceptionClear(env);
+            status = PC_MEMORY_ALLOCATION_FAILED;
+        }
     }
 
     /* Coordinate increments */
     if (!status && cdelt)
     {
-        CDELT = (*env)->GetDoubleArrayElements(env, cdelt, NULL);
-        if (CDELT) wcs->cdelt = CDELT;
-        else status = CDELT_MEMORY_ALLOCATION_FAILED;
+        (*env)->GetDoubleArrayRegion(env, cdelt, 0, NAXIS, wcs->cdelt);
+        if ((*env)->ExceptionOccurred(env))
+        {
+            (*env)->ExceptionClear(env);
+            status = CDELT_MEMORY_ALLOCATION_FAILED;
+        }
     }
 
     /* Coordinate reference values */
     if (!status && crval)
     {
-        CRVAL = (*env)->GetDoubleArrayElements(env, crval, NULL);
-        if (CRVAL) wcs->crval = CRVAL;
-        else status = CRVAL_MEMORY_ALLOCATION_FAILED;
+        (*env)->GetDoubleArrayRegion(env, crval, 0, NAXIS, wcs->crval);
+        if ((*env)->ExceptionOccurred(env))
+        {
+            (*env)->ExceptionClear(env);
+            status = CRVAL_MEMORY_ALLOCATION_FAILED;
+        }
     }
 
     /* Units of measurement of CRVAL, CDELT, and CD */
     if (!status && cunit)
     {
         size = (*env)->GetArrayLength(env, cunit);
-        for (i = 0; i < size; i++)
+        for (i = 0; i < size && i < NAXIS; i++)
         {
             /* Object from object array */
             jobject jobj = (*env)->GetObjectArrayElement(env, cunit, i);
-            if (jobj == NULL)
-            {
-                status = CUNIT_MEMORY_ALLOCATION_FAILED;
-                break;
-            }
-
             if ((*env)->ExceptionOccurred(env))
             {
-                (*env)->DeleteLocalRef(env, jobj);
                 (*env)->ExceptionClear(env);
                 status = CUNIT_ARRAY_INDEX_OUT_OF_BOUNDS;
+                break;
             }
-            else
+
+            /* Axes without a CUNIT keep the blank default from wcsini */
+            if (jobj != NULL)
             {
                 /* String value of the object */
                 const char *CUNIT = (*env)->GetStringUTFChars(env, jobj, NULL);
-                strcpy(wcs->cunit[i], CUNIT);
+                if (CUNIT == NULL)
+                {
+                    (*env)->DeleteLocalRef(env, jobj);
+                    status = CUNIT_MEMORY_ALLOCATION_FAILED;
+                    break;
+                }
+                strncpy(wcs->cunit[i], CUNIT, 71);
+                wcs->cunit[i][71] = '\0';
 
                 /* Free object memory */
                 (*env)->ReleaseStringUTFChars(env, jobj, CUNIT);
@@ -259,27 +227,30 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2s
     if (!status && ctype)
     {
         size = (*env)->GetArrayLength(env, ctype);
-        for (i = 0; i < size; i++)
+        for (i = 0; i < size && i < NAXIS; i++)
         {
             /* Object from object array */
             jobject jobj = (*env)->GetObjectArrayElement(env, ctype, i);
-            if (jobj == NULL)
-            {
-                status = CTYPE_MEMORY_ALLOCATION_FAILED;
-                break;
-            }
-
             if ((*env)->ExceptionOccurred(env))
             {
-                (*env)->DeleteLocalRef(env, jobj);
                 (*env)->ExceptionClear(env);
                 status = CTYPE_ARRAY_INDEX_OUT_OF_BOUNDS;
+                break;
             }
-            else
+
+            /* Axes without a CTYPE keep the blank default from wcsini */
+            if (jobj != NULL)
             {
                 /* String value of the object */
                 const char *CTYPE = (*env)->GetStringUTFChars(env, jobj, NULL);
-                strcpy(wcs->ctype[i], CTYPE);
+                if (CTYPE == NULL)
+                {
+                    (*env)->DeleteLocalRef(env, jobj);
+                    status = CTYPE_MEMORY_ALLOCATION_FAILED;
+                    break;
+                }
+                strncpy(wcs->ctype[i], CTYPE, 71);
+                wcs->ctype[i][71] = '\0';
 
                 /* Free object memory */
                 (*env)->ReleaseStringUTFChars(env, jobj, CTYPE);
@@ -291,55 +262,59 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2s
     /* Native longitude and latitude of the celestial pole */
     if (!status && lonpole)
     {
-        LONPOLE = (*env)->GetDoubleArrayElements(env, lonpole, NULL);
-        if (LONPOLE)
+        (*env)->GetDoubleArrayRegion(env, lonpole, 0, 1, &value);
+        if ((*env)->ExceptionOccurred(env))
         {
-            if (LONPOLE[0] != UNDEFINED)
-            {
-                wcs->lonpole = LONPOLE[0];
-            }
+            (*env)->ExceptionClear(env);
+            status = LONPOLE_MEMORY_ALLOCATION_FAILED;
+        }
+        else if (value != UNDEFINED)
+        {
+            wcs->lonpole = value;
         }
-        else status = LONPOLE_MEMORY_ALLOCATION_FAILED;
     }
 
     if (!status && latpole)
     {
-        LATPOLE = (*env)->GetDoubleArrayElements(env, latpole, NULL);
-        if (LATPOLE)
+        (*env)->GetDoubleArrayRegion(env, latpole, 0, 1, &value);
+        if ((*env)->ExceptionOccurred(env))
         {
-            if (LATPOLE[0] != UNDEFINED)
-            {
-                wcs->latpole = LATPOLE[0];
-            }
+            (*env)->ExceptionClear(env);
+            status = LATPOLE_MEMORY_ALLOCATION_FAILED;
+        }
+        else if (value != UNDEFINED)
+        {
+            wcs->latpole = value;
         }
-        else status = LATPOLE_MEMORY_ALLOCATION_FAILED;
     }
 
     /* Rest frequency and wavelength */
     if (!status && restfrq)
     {
-        RESTFRQ = (*env)->GetDoubleArrayElements(env, restfrq, NULL);
-        if (RESTFRQ)
+        (*env)->GetDoubleArrayRegion(env, restfrq, 0, 1, &value);
+        if ((*env)->ExceptionOccurred(env))
         {
-            if (RESTFRQ[0] != UNDEFINED)
-            {
-                wcs->restfrq = RESTFRQ[0];
-            }
+            (*env)->ExceptionClear(env);
+            status = RESTFRQ_MEMORY_ALLOCATION_FAILED;
+        }
+        else if (value != UNDEFINED)
+        {
+            wcs->restfrq = value;
         }
-        else status = RESTFRQ_MEMORY_ALLOCATION_FAILED;
     }
 
     if (!status && restwav)
     {
-        RESTWAV = (*env)->GetDoubleArrayElements(env, restwav, NULL);
-        if (RESTWAV)
+        (*env)->GetDoubleArrayRegion(env, restwav, 0, 1, &value);
+        if ((*env)->ExceptionOccurred(env))
         {
-            if (RESTWAV[0] != UNDEFINED)
-            {
-                wcs->restwav = RESTWAV[0];
-            }
+            (*env)->ExceptionClear(env);
+            status = RESTWAV_MEMORY_ALLOCATION_FAILED;
+        }
+        else if (value != UNDEFINED)
+        {
+            wcs->restwav = value;
         }
-        else status = RESTWAV_MEMORY_ALLOCATION_FAILED;
     }
 
     /* PV */
@@ -352,17 +327,19 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2s
         if (PVI && PVM && PVV)
         {
             const int pv_size = (*env)->GetArrayLength(env, pvv);
-            struct pvcard *PV = malloc(pv_size * sizeof(struct pvcard));
-            wcs->npv = pv_size;
-            for (i = 0; i < pv_size; i++)
+            wcs->npv = 0;
+            for (i = 0; i < pv_size && i < wcs->npvmax; i++)
             {
-                PV[i].i = PVI[i];
-                PV[i].m = PVM[i];
-                PV[i].value = PVV[i];
-                wcs->pv[i] = PV[i];
+                wcs->pv[i].i = PVI[i];
+                wcs->pv[i].m = PVM[i];
+                wcs->pv[i].value = PVV[i];
+                wcs->npv++;
             }
-            free(PV);
         }
+
+        if (PVI) (*env)->ReleaseIntArrayElements(env, pvi, PVI, JNI_ABORT);
+        if (PVM) (*env)->ReleaseIntArrayElements(env, pvm, PVM, JNI_ABORT);
+        if (PVV) (*env)->ReleaseDoubleArrayElements(env, pvv, PVV, JNI_ABORT);
     }
 
     /* PS */
@@ -374,40 +351,45 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2s
         if (PSI && PSM)
         {
             const int ps_size = (*env)->GetArrayLength(env, psi);
-            struct pscard *PS = malloc(ps_size * sizeof(struct pscard));
-            wcs->nps = ps_size;
-            for (i = 0; i < ps_size; i++)
+            wcs->nps = 0;
+            for (i = 0; i < ps_size && i < wcs->npsmax; i++)
             {
                 /* Object from object array */
                 jobject jobj = (*env)->GetObjectArrayElement(env, psv, i);
+                if ((*env)->ExceptionOccurred(env))
+                {
+                    (*env)->ExceptionClear(env);
+                    status = PS_ARRAY_INDEX_OUT_OF_BOUNDS;
+                    break;
+                }
                 if (jobj == NULL)
                 {
                     status = PS_MEMORY_ALLOCATION_FAILED;
                     break;
                 }
 
-                if ((*env)->ExceptionOccurred(env))
+                /* String value of the object */
+                const char *PSV = (*env)->GetStringUTFChars(env, jobj, NULL);
+                if (PSV == NULL)
                 {
                     (*env)->DeleteLocalRef(env, jobj);
-                    (*env)->ExceptionClear(env);
-                    status = PS_ARRAY_INDEX_OUT_OF_BOUNDS;
+                    status = PS_MEMORY_ALLOCATION_FAILED;
+                    break;
                 }
-                else
-                {
-                    /* String value of the object */
-                    const char *PSV = (*env)->GetStringUTFChars(env, jobj, NULL);
-                    strcpy(PS[i].value, PSV);
-                    PS[i].i = PSI[i];
-                    PS[i].m = PSM[i];
-                    wcs->ps[i] = PS[i];
+                strncpy(wcs->ps[i].value, PSV, 71);
+                wcs->ps[i].value[71] = '\0';
+                wcs->ps[i].i = PSI[i];
+                wcs->ps[i].m = PSM[i];
+                wcs->nps++;
 
-                    /* Free object memory */
-                    (*env)->ReleaseStringUTFChars(env, jobj, PSV);
-                    (*env)->DeleteLocalRef(env, jobj);
-                }
+                /* Free object memory */
+                (*env)->ReleaseStringUTFChars(env, jobj, PSV);
+                (*env)->DeleteLocalRef(env, jobj);
             }
-            free(PS);
         }
+
+        if (PSI) (*env)->ReleaseIntArrayElements(env, psi, PSI, JNI_ABORT);
+        if (PSM) (*env)->ReleaseIntArrayElements(env, psm, PSM, JNI_ABORT);
     }
 
     /* Bit flag represents if PC, CD, or CROTA cards are present */
@@ -419,117 +401,34 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2s
     /* Pixel coordinate transformation matrix */
     if (!status && cd)
     {
-        CD = (*env)->GetDoubleArrayElements(env, cd, NULL);
-        if (CD) wcs->cd = CD;
-        else status = CD_MEMORY_ALLOCATION_FAILED;
-    }
-
-    /* Coordinate rotation */
-    if (!status && crota)
-    {
-        CROTA = (*env)->GetDoubleArrayElements(env, crota, NULL);
-        if (CROTA) wcs->crota = CROTA;
-        else status = CROTA_MEMORY_ALLOCATION_FAILED;
-    }
-
-    /* Pixel coordinates */
-    if (!status)
-    {
-        (*env)->GetDoubleArrayRegion(env, pixcrd, 0, NELEM, PIXCRD);
-        if ((*env)->ExceptionOccurred(env))
-        {
-            (*env)->ExceptionClear(env);
-            status = PIXCRD_ARRAY_INDEX_OUT_OF_BOUNDS;
-        }
-    }
-
-    /* World coordinates */
-    if (!status)
-    {
-        (*env)->GetDoubleArrayRegion(env, world, 0, NELEM, WORLD);
+        (*env)->GetDoubleArrayRegion(env, cd, 0, NAXIS * NAXIS, wcs->cd);
         if ((*env)->ExceptionOccurred(env))
         {
             (*env)->ExceptionClear(env);
-            status = WORLD_ARRAY_INDEX_OUT_OF_BOUNDS;
+            status = CD_MEMORY_ALLOCATION_FAILED;
         }
     }
 
-    /* Set flag to indicate the structure as been set and wcsset should be called */
-    wcs->flag = 0;
-
-    /* Call native lib */
-    if (!status)
-    {
-    	status = wcsp2s(wcs, NCOORD, NELEM, PIXCRD, imgcrd, phi, theta, WORLD, stat);
-        //if (status)
-        //{
-        //	fprintf(stderr, "ERROR %d from wcsp2s(): %s.\n", status, wcs_errmsg[status]);
-        //    /* Add 12 to status to differentiate between initialization and runtime errors */
-        //    status += 12;
-        //}
-    }
-
-    /* Copy coordinates back into world array */
-    if (!status)
+    /* Coordinate rotation */
+    if (!status && crota)
     {
-        (*env)->SetDoubleArrayRegion(env, world, 0, NELEM, &WORLD[0]);
+        (*env)->GetDoubleArrayRegion(env, crota, 0, NAXIS, wcs->crota);
         if ((*env)->ExceptionOccurred(env))
         {
             (*env)->ExceptionClear(env);
-            status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
+            status = CROTA_MEMORY_ALLOCATION_FAILED;
         }
     }
 
-    /* Copy coordinate units into units array */
-    if (!status && cunit)
-    {
-        size = (*env)->GetArrayLength(env, cunit);
-        for (i = 0; i < size; i++)
-        {
-            jstring js = (*env)->NewStringUTF(env, wcs->cunit[i]);
-            (*env)->SetObjectArrayElement(env, worldunits, i, js);
-            if ((*env)->ExceptionOccurred(env))
-            {
-                (*env)->ExceptionClear(env);
-                status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
-            }
-            (*env)->DeleteLocalRef(env, js);
-        }
-    }
-
-    /* Release to JVM */
-    if (CRPIX) (*env)->ReleaseDoubleArrayElements(env, crpix, CRPIX, JNI_ABORT);
-    if (PC) (*env)->ReleaseDoubleArrayElements(env, pc, PC, JNI_ABORT);
-    if (CDELT) (*env)->ReleaseDoubleArrayElements(env, cdelt, CDELT, JNI_ABORT);
-    if (CRVAL) (*env)->ReleaseDoubleArrayElements(env, crval, CRVAL, JNI_ABORT);
-    if (LONPOLE) (*env)->ReleaseDoubleArrayElements(env, lonpole, LONPOLE, JNI_ABORT);
-    if (LATPOLE) (*env)->ReleaseDoubleArrayElements(env, latpole, LATPOLE, JNI_ABORT);
-    if (RESTFRQ) (*env)->ReleaseDoubleArrayElements(env, restfrq, RESTFRQ, JNI_ABORT);
-    if (RESTWAV) (*env)->ReleaseDoubleArrayElements(env, restwav, RESTWAV, JNI_ABORT);
-    if (PVI) (*env)->ReleaseIntArrayElements(env, pvi, PVI, JNI_ABORT);
-    if (PVM) (*env)->ReleaseIntArrayElements(env, pvm, PVM, JNI_ABORT);
-    if (PVV) (*env)->ReleaseDoubleArrayElements(env, pvv, PVV, JNI_ABORT);
-    if (PSI) (*env)->ReleaseIntArrayElements(env, psi, PSI, JNI_ABORT);
-    if (PSM) (*env)->ReleaseIntArrayElements(env, psm, PSM, JNI_ABORT);
-    if (CD) (*env)->ReleaseDoubleArrayElements(env, cd, CD, JNI_ABORT);
-    if (CROTA) (*env)->ReleaseDoubleArrayElements(env, crota, CROTA, JNI_ABORT);
-
-    /* Release wcsprm struct memory */
-    free(imgcrd);
-    free(PIXCRD);
-    free(WORLD);
-    wcsfree(wcs);
-    free(wcs);
-
     return status;
 }
 
 /*
  * Class:     ca_nrc_cadc_wcs_WCSLib
- * Method:    wcss2p
- * Signature: (I[D[D[D[D[Ljava/lang/String;[Ljava/lang/String;[D[D[D[D[I[I[D[I[I[Ljava/lang/String;[D[D[D[D)I
+ * Method:    wcsprep
+ * Signature: (I[D[D[D[D[Ljava/lang/String;[Ljava/lang/String;[D[D[D[D[I[I[D[I[I[Ljava/lang/String;[D[D[J)I
  */
-JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcss2p
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsprep
 (
     JNIEnv *env,                    /* Current JVM.                                         */
     jobject obj,                    /* Calling method.                                      */
@@ -552,316 +451,408 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcss2p
     jobjectArray psv,               /* Parameter value.                                     */
     jdoubleArray cd,                /* CDi_ja linear transformation matrix.                 */
     jdoubleArray crota,             /* CROTAia cards for each coordinate axis.              */
-    jdoubleArray world,             /* World coordinates.                                   */
-    jdoubleArray pixcrd,            /* Pixel coordinates.                                   */
-    jobjectArray pixcrdunits        /* Pixel coordinate units.                              */
+    jlongArray handle               /* Returned address of the prepared wcsprm struct.      */
 )
 
 {
-    jsize size;                     /* Array sizes.                                         */
-    jdouble *CRPIX = NULL;          /* CRPIX cards.                                         */
-    jdouble *PC = NULL;             /* PC matrix.                                           */
-    jdouble *CDELT = NULL;          /* CDELT cards.                                         */
-    jdouble *CRVAL = NULL;          /* CRVAL cards.                                         */
-    jdouble *LONPOLE = NULL;        /* LONPOLE cards.                                       */
-    jdouble *LATPOLE = NULL;        /* LATPOLE cards.                                       */
-    jdouble *RESTFRQ = NULL;        /* RESTFRQ cards.                                       */
-    jdouble *RESTWAV = NULL;        /* RESTWAV cards.                                       */
-    jint *PVI = NULL;               /* PV axis number.                                      */
-    jint *PVM = NULL;               /* PV parameter number.                                 */
-    jdouble *PVV = NULL;            /* PV parameter value.                                  */
-    jint *PSI = NULL;               /* PS axis number.                                      */
-    jint *PSM = NULL;               /* PS parameter number.                                  */
-    jdouble *CD = NULL;             /* CD cards.                                            */
-    jdouble *CROTA = NULL;          /* CROTA cards.                                         */
-    int i;                          /* Local variables.                                     */
-    int altlin = 0;                 /* Alternative representations.                         */
-    int alloc = 1;                  /* Allocate memory unconditionally for the arrays       */
     int status = 0;                 /* Return status.                                       */
+    jlong address;                  /* Address of the wcsprm struct.                        */
     struct wcsprm *wcs;             /* Pointer to wcsprm struct.                            */
-    double *imgcrd;					/* Array of intermediate world coordinates.             */
-    double *PIXCRD;					/* Translated Pixels coordinates.                       */
-    double *WORLD;					/* World coordinates to translate.                      */
-    int stat[NCOORD];               /* Status return value for each coordinate.             */
-    double phi[NCOORD];             /* Longitude in native coordinate system of projection. */
-    double theta[NCOORD];           /* Latitude in native coordinate system of projection.  */
-
-    /* Create arrays */
-    const int NELEM = (*env)->GetArrayLength(env, world);
-    imgcrd = malloc(NELEM * sizeof(double));
-    WORLD = malloc(NELEM * sizeof(double));
-    PIXCRD = malloc(NELEM * sizeof(double));
-    for (i = 0; i < NELEM; i++)
-    {
-    	imgcrd[i] = 0.0;
-    	WORLD[i] = 0.0;
-    	PIXCRD[i] = 0.0;
-    }
 
     /* Allocate space for wcsprm */
     wcs = malloc(sizeof(struct wcsprm));
+    if (wcs == NULL)
+    {
+        return 2;
+    }
 
     /* Set flag to -1 to initialize memory management */
     wcs->flag = -1;
 
     /* Allocate memory for the wcsprm arrays */
-    status = wcsini(alloc, NAXIS, wcs);
+    status = wcsini(1, NAXIS, wcs);
     if (status)
     {
         /* Error allocating memory, return status code */
+        free(wcs);
         return status;
     }
 
-    /* Number of pixel and world coordinate elements,
-     * given by the NAXIS or WCSAXESa keywords. */
-    wcs->naxis = NAXIS;
+    status = wcs_copycards(env, wcs, NAXIS, crpix, pc, cdelt, crval, cunit, ctype, lonpole, latpole,
+                           restfrq, restwav, pvi, pvm, pvv, psi, psm, psv, cd, crota);
 
-    /* Coordinate reference pixels  */
-    if (crpix)
+    /* Set flag to indicate the structure as been set and wcsset should be called */
+    wcs->flag = 0;
+
+    /* Set up the struct once so each transformation only has to pass coordinates */
+    if (!status)
     {
-        CRPIX = (*env)->GetDoubleArrayElements(env, crpix, NULL);
-        if (CRPIX) wcs->crpix = CRPIX;
-        else status = CRPIX_MEMORY_ALLOCATION_FAILED;
+        status = wcsset(wcs);
     }
 
-    /* Pixel coordinate transformation matrix */
-    if (!status && pc)
+    if (!status)
     {
-        PC = (*env)->GetDoubleArrayElements(env, pc, NULL);
-        if (PC) wcs->pc = PC;
-        else status = PC_MEMORY_ALLOCATION_FAILED;
+        address = (jlong) (intptr_t) wcs;
+        (*env)->SetLongArrayRegion(env, handle, 0, 1, &address);
+        if ((*env)->ExceptionOccurred(env))
+        {
+            (*env)->ExceptionClear(env);
+            status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
+        }
     }
 
-    /* Coordinate increments */
-    if (!status && cdelt)
+    if (status)
     {
-        CDELT = (*env)->GetDoubleArrayElements(env, cdelt, NULL);
-        if (CDELT) wcs->cdelt = CDELT;
-        else status = CDELT_MEMORY_ALLOCATION_FAILED;
+        wcsfree(wcs);
+        free(wcs);
     }
 
-    /* Coordinate reference values */
-    if (!status && crval)
+    return status;
+}
+
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    jniversion
+ * Signature: ()I
+ *
+ * Returns the version of the JNI functions in this file, which must match
+ * WCSLib.JNI_VERSION. Increase both when a native signature changes, so a
+ * library built from an older version of this file is rejected when loaded.
+ */
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_jniversion
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj                     /* Calling method.                                      */
+)
+
+{
+    return 2;
+}
+
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    wcsfree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsfree
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj,                    /* Calling method.                                      */
+    jlong handle                    /* Address of the prepared wcsprm struct.               */
+)
+
+{
+    struct wcsprm *wcs = (struct wcsprm *) (intptr_t) handle;
+
+    /* Release wcsprm struct memory */
+    if (wcs)
     {
-        CRVAL = (*env)->GetDoubleArrayElements(env, crval, NULL);
-        if (CRVAL) wcs->crval = CRVAL;
-        else status = CRVAL_MEMORY_ALLOCATION_FAILED;
+        wcsfree(wcs);
+        free(wcs);
     }
+}
 
-    /* Units of measurement of CRVAL, CDELT, and CD */
-    if (!status && cunit)
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    wcssub
+ * Signature: (J[I[J)I
+ */
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcssub
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj,                    /* Calling method.                                      */
+    jlong handle,                   /* Address of the prepared source wcsprm struct.        */
+    jintArray axes,                 /* Source axis numbers (1-relative) to extract.         */
+    jlongArray result               /* Returned address of the prepared sub wcsprm struct.  */
+)
+
+{
+    int status = 0;                 /* Return status.                                       */
+    int nsub;                       /* Number of axes to extract.                           */
+    int *subaxes;                   /* Axis numbers passed to wcssub.                       */
+    jlong address;                  /* Address of the sub wcsprm struct.                    */
+    struct wcsprm *src;             /* Pointer to the prepared source wcsprm struct.        */
+    struct wcsprm *wcs;             /* Pointer to the sub wcsprm struct.                    */
+
+    src = (struct wcsprm *) (intptr_t) handle;
+    if (src == NULL)
     {
-        size = (*env)->GetArrayLength(env, cunit);
-        for (i = 0; i < size; i++)
-        {
-            /* Object from object array */
-            jobject jobj = (*env)->GetObjectArrayElement(env, cunit, i);
-            if (jobj == NULL)
-            {
-                status = CUNIT_MEMORY_ALLOCATION_FAILED;
-                break;
-            }
+        return 1;
+    }
 
-            if ((*env)->ExceptionOccurred(env))
-            {
-                (*env)->DeleteLocalRef(env, jobj);
-                (*env)->ExceptionClear(env);
-                status = CUNIT_ARRAY_INDEX_OUT_OF_BOUNDS;
-            }
-            else
-            {
-                /* String value of the object */
-                const char *CUNIT = (*env)->GetStringUTFChars(env, jobj, NULL);
-                strcpy(wcs->cunit[i], CUNIT);
+    nsub = (*env)->GetArrayLength(env, axes);
+    subaxes = malloc(nsub * sizeof(int));
+    if (subaxes == NULL)
+    {
+        return 2;
+    }
 
-                /* Free object memory */
-                (*env)->ReleaseStringUTFChars(env, jobj, CUNIT);
-                (*env)->DeleteLocalRef(env, jobj);
-            }
-        }
+    (*env)->GetIntArrayRegion(env, axes, 0, nsub, (jint *) subaxes);
+    if ((*env)->ExceptionOccurred(env))
+    {
+        (*env)->ExceptionClear(env);
+        free(subaxes);
+        return AXES_ARRAY_INDEX_OUT_OF_BOUNDS;
     }
 
-    /* Coordinate axis types */
-    if (!status && ctype)
+    /* Allocate space for wcsprm */
+    wcs = malloc(sizeof(struct wcsprm));
+    if (wcs == NULL)
     {
-        size = (*env)->GetArrayLength(env, ctype);
-        for (i = 0; i < size; i++)
-        {
-            /* Object from object array */
-            jobject jobj = (*env)->GetObjectArrayElement(env, ctype, i);
-            if (jobj == NULL)
-            {
-                status = CTYPE_MEMORY_ALLOCATION_FAILED;
-                break;
-            }
+        free(subaxes);
+        return 2;
+    }
 
-            if ((*env)->ExceptionOccurred(env))
-            {
-                (*env)->DeleteLocalRef(env, jobj);
-                (*env)->ExceptionClear(env);
-                status = CTYPE_ARRAY_INDEX_OUT_OF_BOUNDS;
-            }
-            else
-            {
-                /* String value of the object */
-                const char *CTYPE = (*env)->GetStringUTFChars(env, jobj, NULL);
-                strcpy(wcs->ctype[i], CTYPE);
+    /* Set flag to -1 so wcssub allocates the memory for the sub wcsprm arrays */
+    wcs->flag = -1;
 
-                /* Free object memory */
-                (*env)->ReleaseStringUTFChars(env, jobj, CTYPE);
-                (*env)->DeleteLocalRef(env, jobj);
-            }
-        }
+    /* Extract the axes and set up the sub struct once, as wcsprep does */
+    status = wcssub(1, src, &nsub, subaxes, wcs);
+    if (!status)
+    {
+        status = wcsset(wcs);
     }
 
-	/* Native longitude and latitude of the celestial pole */
-    if (!status && lonpole)
+    if (!status)
     {
-        LONPOLE = (*env)->GetDoubleArrayElements(env, lonpole, NULL);
-        if (LONPOLE)
+        address = (jlong) (intptr_t) wcs;
+        (*env)->SetLongArrayRegion(env, result, 0, 1, &address);
+        if ((*env)->ExceptionOccurred(env))
         {
-            if (LONPOLE[0] != UNDEFINED)
-            {
-                wcs->lonpole = LONPOLE[0];
-            }
+            (*env)->ExceptionClear(env);
+            status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
         }
-        else status = LONPOLE_MEMORY_ALLOCATION_FAILED;
     }
 
-    if (!status && latpole)
+    if (status)
     {
-        LATPOLE = (*env)->GetDoubleArrayElements(env, latpole, NULL);
-        if (LATPOLE)
-        {
-            if (LATPOLE[0] != UNDEFINED)
-            {
-                wcs->latpole = LATPOLE[0];
-            }
-        }
-        else status = LATPOLE_MEMORY_ALLOCATION_FAILED;
+        wcsfree(wcs);
+        free(wcs);
     }
+    free(subaxes);
 
-    /* Rest frequency and wavelength */
-    if (!status && restfrq)
+    return status;
+}
+
+/*
+ * Copy the units of a prepared wcsprm struct into a Java String array.
+ */
+static int wcs_copyunits(JNIEnv *env, struct wcsprm *wcs, jobjectArray units)
+{
+    jsize size;
+    int i;
+    int status = 0;
+
+    size = (*env)->GetArrayLength(env, units);
+    for (i = 0; i < size && i < wcs->naxis; i++)
     {
-        RESTFRQ = (*env)->GetDoubleArrayElements(env, restfrq, NULL);
-        if (RESTFRQ)
+        jstring js = (*env)->NewStringUTF(env, wcs->cunit[i]);
+        (*env)->SetObjectArrayElement(env, units, i, js);
+        if ((*env)->ExceptionOccurred(env))
         {
-            if (RESTFRQ[0] != UNDEFINED)
-            {
-                wcs->restfrq = RESTFRQ[0];
-            }
+            (*env)->ExceptionClear(env);
+            status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
         }
-        else status = RESTFRQ_MEMORY_ALLOCATION_FAILED;
+        (*env)->DeleteLocalRef(env, js);
     }
 
-    if (!status && restwav)
+    return status;
+}
+
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    wcsunits
+ * Signature: (J[Ljava/lang/String;)I
+ */
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsunits
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj,                    /* Calling method.                                      */
+    jlong handle,                   /* Address of the prepared wcsprm struct.               */
+    jobjectArray units              /* Coordinate units.                                    */
+)
+
+{
+    struct wcsprm *wcs;             /* Pointer to the prepared wcsprm struct.               */
+
+    wcs = (struct wcsprm *) (intptr_t) handle;
+    if (wcs == NULL)
     {
-        RESTWAV = (*env)->GetDoubleArrayElements(env, restwav, NULL);
-        if(RESTWAV)
-        {
-            if (RESTWAV[0] != UNDEFINED)
-            {
-                wcs->restwav = RESTWAV[0];
-            }
-        }
-        else status = RESTWAV_MEMORY_ALLOCATION_FAILED;
+        return 1;
     }
 
-    /*  PV */
-    if (!status && pvi && pvm && pvv)
+    return wcs_copyunits(env, wcs, units);
+}
+
+/*
+ * Copy the status of each coordinate into a Java int array.
+ */
+static int wcs_copystats(JNIEnv *env, jintArray stats, int ncoord, const int *stat)
+{
+    (*env)->SetIntArrayRegion(env, stats, 0, ncoord, (const jint *) stat);
+    if ((*env)->ExceptionOccurred(env))
     {
-        PVI = (*env)->GetIntArrayElements(env, pvi, NULL);
-        PVM = (*env)->GetIntArrayElements(env, pvm, NULL);
-        PVV = (*env)->GetDoubleArrayElements(env, pvv, NULL);
+        (*env)->ExceptionClear(env);
+        return RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
+    }
+    return 0;
+}
 
-        if (PVI && PVM && PVV)
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    wcsp2sarr
+ * Signature: (JII[DI[DI[I)I
+ */
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2sarr
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj,                    /* Calling method.                                      */
+    jlong handle,                   /* Address of the prepared wcsprm struct.               */
+    jint ncoord,                    /* Number of coordinates to transform.                  */
+    jint nelem,                     /* Vector length of each coordinate.                    */
+    jdoubleArray pixcrd,            /* Pixel coordinates.                                   */
+    jint pixoff,                    /* Offset of the first pixcrd value.                    */
+    jdoubleArray world,             /* World coordinates.                                   */
+    jint worldoff,                  /* Offset of the first world value.                     */
+    jintArray stats                 /* Status for each coordinate, may be null.             */
+)
+
+{
+    int status = 0;                 /* Return status.                                       */
+    int partial = 0;                /* Status when only some coordinates were invalid.      */
+    struct wcsprm *wcs;             /* Pointer to the prepared wcsprm struct.               */
+    double *imgcrd;                 /* Array of intermediate world coordinates.             */
+    double *PIXCRD;                 /* Pixels coordinates to translate.                     */
+    double *WORLD;                  /* Translated World coordinates.                        */
+    int *stat;                      /* Status return value for each coordinate.             */
+    double *phi;                    /* Longitude in native coordinate system of projection. */
+    double *theta;                  /* Latitude in native coordinate system of projection.  */
+
+    wcs = (struct wcsprm *) (intptr_t) handle;
+    if (wcs == NULL)
+    {
+        return 1;
+    }
+
+    /* Create arrays */
+    const int NCOORD = ncoord;
+    const int NELEM = nelem;
+    const int SIZE = NCOORD * NELEM;
+    imgcrd = calloc(SIZE, sizeof(double));
+    PIXCRD = malloc(SIZE * sizeof(double));
+    WORLD = calloc(SIZE, sizeof(double));
+    phi = malloc(NCOORD * sizeof(double));
+    theta = malloc(NCOORD * sizeof(double));
+    stat = malloc(NCOORD * sizeof(int));
+    if (imgcrd == NULL || PIXCRD == NULL || WORLD == NULL || phi == NULL || theta == NULL || stat == NULL)
+    {
+        status = 2;
+    }
+
+    /* Pixel coordinates */
+    if (!status)
+    {
+        (*env)->GetDoubleArrayRegion(env, pixcrd, pixoff, SIZE, PIXCRD);
+        if ((*env)->ExceptionOccurred(env))
         {
-            const int pv_size = (*env)->GetArrayLength(env, pvv);
-            struct pvcard *PV = malloc(pv_size * sizeof(struct pvcard));
-            wcs->npv = pv_size;
-            for (i = 0; i < pv_size; i++)
-            {
-                PV[i].i = PVI[i];
-                PV[i].m = PVM[i];
-                PV[i].value = PVV[i];
-                wcs->pv[i] = PV[i];
-            }
-            free(PV);
+            (*env)->ExceptionClear(env);
+            status = PIXCRD_ARRAY_INDEX_OUT_OF_BOUNDS;
         }
     }
 
-    /*  PS */
-    if (!status && psi && psm && psv)
+    /* Call native lib */
+    if (!status)
     {
-        PSI = (*env)->GetIntArrayElements(env, psi, NULL);
-        PSM = (*env)->GetIntArrayElements(env, psm, NULL);
+        status = wcsp2s(wcs, NCOORD, NELEM, PIXCRD, imgcrd, phi, theta, WORLD, stat);
 
-        if (PSI && PSM)
+        /* Invalid coordinates are reported per coordinate, the others are still valid */
+        if (status == WCSERR_BAD_PIX)
         {
-            const int ps_size = (*env)->GetArrayLength(env, psi);
-            struct pscard *PS = malloc(ps_size * sizeof(struct pscard));
-            wcs->nps = ps_size;
-            for (i = 0; i < size; i++)
-            {
-                /* Object from object array */
-                jobject jobj = (*env)->GetObjectArrayElement(env, psv, i);
-                if (jobj == NULL)
-                {
-                    status = PS_MEMORY_ALLOCATION_FAILED;
-                    break;
-                }
-
-                if ((*env)->ExceptionOccurred(env))
-                {
-                    (*env)->DeleteLocalRef(env, jobj);
-                    (*env)->ExceptionClear(env);
-                    status = PS_ARRAY_INDEX_OUT_OF_BOUNDS;
-                }
-                else
-                {
-                    /* String value of the object */
-                    const char *PSV = (*env)->GetStringUTFChars(env, jobj, NULL);
-                    strcpy(PS[i].value, PSV);
-                    PS[i].i = PSI[i];
-                    PS[i].m = PSM[i];
-                    wcs->ps[i] = PS[i];
+            partial = status;
+            status = 0;
+        }
+        if (!status && stats)
+        {
+            status = wcs_copystats(env, stats, NCOORD, stat);
+        }
+    }
 
-                    /* Free object memory */
-                    (*env)->ReleaseStringUTFChars(env, jobj, PSV);
-                    (*env)->DeleteLocalRef(env, jobj);
-                }
-            }
-            free(PS);
+    /* Copy coordinates back into world array */
+    if (!status)
+    {
+        (*env)->SetDoubleArrayRegion(env, world, worldoff, SIZE, WORLD);
+        if ((*env)->ExceptionOccurred(env))
+        {
+            (*env)->ExceptionClear(env);
+            status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
         }
     }
 
-    /* Bit flag represents if PC, CD, or CROTA cards are present */
-    if (pc) altlin = 1;
-    if (cd) altlin = 2;
-    if (crota) altlin = 4;
-    wcs->altlin = altlin;
+    free(imgcrd);
+    free(PIXCRD);
+    free(WORLD);
+    free(phi);
+    free(theta);
+    free(stat);
 
-    /* Pixel coordinate transformation matrix */
-    if (!status && cd)
+    return status ? status : partial;
+}
+
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    wcss2parr
+ * Signature: (JII[DI[DI[I)I
+ */
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcss2parr
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj,                    /* Calling method.                                      */
+    jlong handle,                   /* Address of the prepared wcsprm struct.               */
+    jint ncoord,                    /* Number of coordinates to transform.                  */
+    jint nelem,                     /* Vector length of each coordinate.                    */
+    jdoubleArray world,             /* World coordinates.                                   */
+    jint worldoff,                  /* Offset of the first world value.                     */
+    jdoubleArray pixcrd,            /* Pixel coordinates.                                   */
+    jint pixoff,                    /* Offset of the first pixcrd value.                    */
+    jintArray stats                 /* Status for each coordinate, may be null.             */
+)
+
+{
+    int status = 0;                 /* Return status.                                       */
+    int partial = 0;                /* Status when only some coordinates were invalid.      */
+    struct wcsprm *wcs;             /* Pointer to the prepared wcsprm struct.               */
+    double *imgcrd;                 /* Array of intermediate world coordinates.             */
+    double *PIXCRD;                 /* Translated Pixels coordinates.                       */
+    double *WORLD;                  /* World coordinates to translate.                      */
+    int *stat;                      /* Status return value for each coordinate.             */
+    double *phi;                    /* Longitude in native coordinate system of projection. */
+    double *theta;                  /* Latitude in native coordinate system of projection.  */
+
+    wcs = (struct wcsprm *) (intptr_t) handle;
+    if (wcs == NULL)
     {
-        CD = (*env)->GetDoubleArrayElements(env, cd, NULL);
-        if (CD) wcs->cd = CD;
-        else status = CD_MEMORY_ALLOCATION_FAILED;
+        return 1;
     }
 
-    /* Coordinate rotation */
-    if (!status && crota)
+    /* Create arrays */
+    const int NCOORD = ncoord;
+    const int NELEM = nelem;
+    const int SIZE = NCOORD * NELEM;
+    imgcrd = calloc(SIZE, sizeof(double));
+    WORLD = malloc(SIZE * sizeof(double));
+    PIXCRD = calloc(SIZE, sizeof(double));
+    phi = malloc(NCOORD * sizeof(double));
+    theta = malloc(NCOORD * sizeof(double));
+    stat = malloc(NCOORD * sizeof(int));
+    if (imgcrd == NULL || PIXCRD == NULL || WORLD == NULL || phi == NULL || theta == NULL || stat == NULL)
     {
-        CROTA = (*env)->GetDoubleArrayElements(env, crota, NULL);
-        if (CROTA) wcs->crota = CROTA;
-        else status = CROTA_MEMORY_ALLOCATION_FAILED;
+        status = 2;
     }
 
     /* World coordinates */
     if (!status)
     {
-        (*env)->GetDoubleArrayRegion(env, world, 0, NELEM, WORLD);
+        (*env)->GetDoubleArrayRegion(env, world, worldoff, SIZE, WORLD);
         if ((*env)->ExceptionOccurred(env))
         {
             (*env)->ExceptionClear(env);
@@ -869,85 +860,253 @@ JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcss2p
         }
     }
 
-    /* Pixel coordinates */
+    /* Call native lib */
+    if (!status)
+    {
+        status = wcss2p(wcs, NCOORD, NELEM, WORLD, phi, theta, imgcrd, PIXCRD, stat);
+
+        /* Invalid coordinates are reported per coordinate, the others are still valid */
+        if (status == WCSERR_BAD_WORLD)
+        {
+            partial = status;
+            status = 0;
+        }
+        if (!status && stats)
+        {
+            status = wcs_copystats(env, stats, NCOORD, stat);
+        }
+    }
+
+    /* Copy coordinates back into pixcrd array */
     if (!status)
     {
-        (*env)->GetDoubleArrayRegion(env, pixcrd, 0, NELEM, PIXCRD);
+        (*env)->SetDoubleArrayRegion(env, pixcrd, pixoff, SIZE, PIXCRD);
         if ((*env)->ExceptionOccurred(env))
         {
             (*env)->ExceptionClear(env);
-            status = PIXCRD_ARRAY_INDEX_OUT_OF_BOUNDS;
+            status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
         }
     }
 
-    /* Set flag to indicate the structure as been set and wcsset should be called */
-    wcs->flag = 0;
+    free(imgcrd);
+    free(PIXCRD);
+    free(WORLD);
+    free(phi);
+    free(theta);
+    free(stat);
 
-    /* Call native lib */
-    if (!status)
+    return status ? status : partial;
+}
+
+/*
+ * Get the address of count doubles from the offset in a direct DoubleBuffer.
+ * Returns -1 if the buffer is not direct, 1 if the values are out of bounds.
+ */
+static int wcs_bufaddr(JNIEnv *env, jobject buffer, jint offset, jint count, double **addr)
+{
+    double *base;
+    jlong capacity;
+
+    base = (double *) (*env)->GetDirectBufferAddress(env, buffer);
+    if (base == NULL)
     {
-    	status = wcss2p(wcs, NCOORD, NELEM, WORLD, phi, theta, imgcrd, PIXCRD, stat);
-        //if (status)
-        //{
-        //	fprintf(stderr, "ERROR %d from wcss2p(): %s.\n", status, wcs_errmsg[status]);
-        //    /* Add 12 to status to differentiate between initialization and runtime errors */
-        //    status += 12;
-        //}
+        return -1;
     }
+    capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    if (offset < 0 || count < 0 || (jlong) offset + count > capacity)
+    {
+        return 1;
+    }
+    *addr = base + offset;
+    return 0;
+}
 
-    /* Copy coordinates back into world array */
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    wcsp2sbuf
+ * Signature: (JIILjava/nio/DoubleBuffer;ILjava/nio/DoubleBuffer;I[I)I
+ */
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcsp2sbuf
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj,                    /* Calling method.                                      */
+    jlong handle,                   /* Address of the prepared wcsprm struct.               */
+    jint ncoord,                    /* Number of coordinates to transform.                  */
+    jint nelem,                     /* Vector length of each coordinate.                    */
+    jobject pixcrd,                 /* Pixel coordinates, a direct DoubleBuffer.            */
+    jint pixoff,                    /* Offset of the first pixcrd value.                    */
+    jobject world,                  /* World coordinates, a direct DoubleBuffer.            */
+    jint worldoff,                  /* Offset of the first world value.                     */
+    jintArray stats                 /* Status for each coordinate, may be null.             */
+)
+
+{
+    int status = 0;                 /* Return status.                                       */
+    int partial = 0;                /* Status when only some coordinates were invalid.      */
+    struct wcsprm *wcs;             /* Pointer to the prepared wcsprm struct.               */
+    double *imgcrd;                 /* Array of intermediate world coordinates.             */
+    double *PIXCRD;                 /* Pixel coordinates in the direct buffer.              */
+    double *WORLD;                  /* World coordinates in the direct buffer.              */
+    int *stat;                      /* Status return value for each coordinate.             */
+    double *phi;                    /* Longitude in native coordinate system of projection. */
+    double *theta;                  /* Latitude in native coordinate system of projection.  */
+
+    wcs = (struct wcsprm *) (intptr_t) handle;
+    if (wcs == NULL)
+    {
+        return 1;
+    }
+
+    /* Coordinates are read and written in place */
+    const int NCOORD = ncoord;
+    const int NELEM = nelem;
+    const int SIZE = NCOORD * NELEM;
+    status = wcs_bufaddr(env, pixcrd, pixoff, SIZE, &PIXCRD);
+    if (status == -1)
+    {
+        return PIXCRD_BUFFER_NOT_DIRECT;
+    }
+    else if (status)
+    {
+        return PIXCRD_ARRAY_INDEX_OUT_OF_BOUNDS;
+    }
+    status = wcs_bufaddr(env, world, worldoff, SIZE, &WORLD);
+    if (status == -1)
+    {
+        return WORLD_BUFFER_NOT_DIRECT;
+    }
+    else if (status)
+    {
+        return WORLD_ARRAY_INDEX_OUT_OF_BOUNDS;
+    }
+
+    /* Create arrays */
+    imgcrd = calloc(SIZE, sizeof(double));
+    phi = malloc(NCOORD * sizeof(double));
+    theta = malloc(NCOORD * sizeof(double));
+    stat = malloc(NCOORD * sizeof(int));
+    if (imgcrd == NULL || phi == NULL || theta == NULL || stat == NULL)
+    {
+        status = 2;
+    }
+
+    /* Call native lib */
     if (!status)
     {
-        (*env)->SetDoubleArrayRegion(env, pixcrd, 0, NELEM, &PIXCRD[0]);
-        if ((*env)->ExceptionOccurred(env))
+        status = wcsp2s(wcs, NCOORD, NELEM, PIXCRD, imgcrd, phi, theta, WORLD, stat);
+
+        /* Invalid coordinates are reported per coordinate, the others are still valid */
+        if (status == WCSERR_BAD_PIX)
         {
-            (*env)->ExceptionClear(env);
-            status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
+            partial = status;
+            status = 0;
+        }
+        if (!status && stats)
+        {
+            status = wcs_copystats(env, stats, NCOORD, stat);
         }
     }
 
-    /* Copy coordinate units into units array */
-    if (!status && cunit)
+    free(imgcrd);
+    free(phi);
+    free(theta);
+    free(stat);
+
+    return status ? status : partial;
+}
+
+/*
+ * Class:     ca_nrc_cadc_wcs_WCSLib
+ * Method:    wcss2pbuf
+ * Signature: (JIILjava/nio/DoubleBuffer;ILjava/nio/DoubleBuffer;I[I)I
+ */
+JNIEXPORT jint JNICALL Java_ca_nrc_cadc_wcs_WCSLib_wcss2pbuf
+(
+    JNIEnv *env,                    /* Current JVM.                                         */
+    jobject obj,                    /* Calling method.                                      */
+    jlong handle,                   /* Address of the prepared wcsprm struct.               */
+    jint ncoord,                    /* Number of coordinates to transform.                  */
+    jint nelem,                     /* Vector length of each coordinate.                    */
+    jobject world,                  /* World coordinates, a direct DoubleBuffer.            */
+    jint worldoff,                  /* Offset of the first world value.                     */
+    jobject pixcrd,                 /* Pixel coordinates, a direct DoubleBuffer.            */
+    jint pixoff,                    /* Offset of the first pixcrd value.                    */
+    jintArray stats                 /* Status for each coordinate, may be null.             */
+)
+
+{
+    int status = 0;                 /* Return status.                                       */
+    int partial = 0;                /* Status when only some coordinates were invalid.      */
+    struct wcsprm *wcs;             /* Pointer to the prepared wcsprm struct.               */
+    double *imgcrd;                 /* Array of intermediate world coordinates.             */
+    double *PIXCRD;                 /* Pixel coordinates in the direct buffer.              */
+    double *WORLD;                  /* World coordinates in the direct buffer.              */
+    int *stat;                      /* Status return value for each coordinate.             */
+    double *phi;                    /* Longitude in native coordinate system of projection. */
+    double *theta;                  /* Latitude in native coordinate system of projection.  */
+
+    wcs = (struct wcsprm *) (intptr_t) handle;
+    if (wcs == NULL)
     {
-        size = (*env)->GetArrayLength(env, cunit);
-        for (i = 0; i < size; i++)
+        return 1;
+    }
+
+    /* Coordinates are read and written in place */
+    const int NCOORD = ncoord;
+    const int NELEM = nelem;
+    const int SIZE = NCOORD * NELEM;
+    status = wcs_bufaddr(env, pixcrd, pixoff, SIZE, &PIXCRD);
+    if (status == -1)
+    {
+        return PIXCRD_BUFFER_NOT_DIRECT;
+    }
+    else if (status)
+    {
+        return PIXCRD_ARRAY_INDEX_OUT_OF_BOUNDS;
+    }
+    status = wcs_bufaddr(env, world, worldoff, SIZE, &WORLD);
+    if (status == -1)
+    {
+        return WORLD_BUFFER_NOT_DIRECT;
+    }
+    else if (status)
+    {
+        return WORLD_ARRAY_INDEX_OUT_OF_BOUNDS;
+    }
+
+    /* Create arrays */
+    imgcrd = calloc(SIZE, sizeof(double));
+    phi = malloc(NCOORD * sizeof(double));
+    theta = malloc(NCOORD * sizeof(double));
+    stat = malloc(NCOORD * sizeof(int));
+    if (imgcrd == NULL || phi == NULL || theta == NULL || stat == NULL)
+    {
+        status = 2;
+    }
+
+    /* Call native lib */
+    if (!status)
+    {
+        status = wcss2p(wcs, NCOORD, NELEM, WORLD, phi, theta, imgcrd, PIXCRD, stat);
+
+        /* Invalid coordinates are reported per coordinate, the others are still valid */
+        if (status == WCSERR_BAD_WORLD)
         {
-            jstring js = (*env)->NewStringUTF(env, wcs->cunit[i]);
-            (*env)->SetObjectArrayElement(env, pixcrdunits, i, js);
-            if ((*env)->ExceptionOccurred(env))
-            {
-                (*env)->ExceptionClear(env);
-                status = RESULT_ARRAY_INDEX_OUT_OF_BOUNDS;
-            }
-            (*env)->DeleteLocalRef(env, js);
+            partial = status;
+            status = 0;
+        }
+        if (!status && stats)
+        {
+            status = wcs_copystats(env, stats, NCOORD, stat);
         }
     }
 
-    /* Release to JVM */
-    if (CRPIX) (*env)->ReleaseDoubleArrayElements(env, crpix, CRPIX, JNI_ABORT);
-    if (PC) (*env)->ReleaseDoubleArrayElements(env, pc, PC, JNI_ABORT);
-    if (CDELT) (*env)->ReleaseDoubleArrayElements(env, cdelt, CDELT, JNI_ABORT);
-    if (CRVAL) (*env)->ReleaseDoubleArrayElements(env, crval, CRVAL, JNI_ABORT);
-    if (LONPOLE) (*env)->ReleaseDoubleArrayElements(env, lonpole, LONPOLE, JNI_ABORT);
-    if (LATPOLE) (*env)->ReleaseDoubleArrayElements(env, latpole, LATPOLE, JNI_ABORT);
-    if (RESTFRQ) (*env)->ReleaseDoubleArrayElements(env, restfrq, RESTFRQ, JNI_ABORT);
-    if (RESTWAV) (*env)->ReleaseDoubleArrayElements(env, restwav, RESTWAV, JNI_ABORT);
-    if (PVI) (*env)->ReleaseIntArrayElements(env, pvi, PVI, JNI_ABORT);
-    if (PVM) (*env)->ReleaseIntArrayElements(env, pvm, PVM, JNI_ABORT);
-    if (PVV) (*env)->ReleaseDoubleArrayElements(env, pvv, PVV, JNI_ABORT);
-    if (PSI) (*env)->ReleaseIntArrayElements(env, psi, PSI, JNI_ABORT);
-    if (PSM) (*env)->ReleaseIntArrayElements(env, psm, PSM, JNI_ABORT);
-    if (CD) (*env)->ReleaseDoubleArrayElements(env, cd, CD, JNI_ABORT);
-    if (CROTA) (*env)->ReleaseDoubleArrayElements(env, crota, CROTA, JNI_ABORT);
-
-    /* Release wcsprm struct memory */
     free(imgcrd);
-    free(PIXCRD);
-    free(WORLD);
-    wcsfree(wcs);
-    free(wcs);
+    free(phi);
+    free(theta);
+    free(stat);
 
-    return status;
+    return status ? status : partial;
 }
 
 /*